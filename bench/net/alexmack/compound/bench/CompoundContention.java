@@ -0,0 +1,136 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+
+/**
+ * Measures the throughput of many threads reading one shared {@link Compound}, as a hot
+ * configuration or session {@link Compound} is, for each kind of storage. A small share of
+ * operations are writes. Needs nothing but the library, compiled to <code>classes</code>:<br><br>
+ * <code>javac -cp classes -d bench-classes bench/net/alexmack/compound/bench/*.java</code><br>
+ * <code>java -cp classes:bench-classes net.alexmack.compound.bench.CompoundContention [threads] [writes per 1000] [milliseconds]</code><br><br>
+ * Threads are doubled from one up to the given number, by default twice the number of processors.
+ */
+public class CompoundContention {
+
+	private static final int KEYS = 64;
+	
+	public static void main(String[] args) throws Exception {
+		final int THREADS = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+		final int WRITES = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		final long MILLISECONDS = args.length > 2 ? Long.parseLong(args[2]) : 1000L;
+		
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + WRITES + " writes per 1000 operations");
+		System.out.printf("%-14s%8s%16s%10s%n", "Storage", "Threads", "Operations/s", "Scaling");
+		for (final String STORAGE : new String[]{"synchronized", "concurrent", "persistent"}) {
+			final Compound COMPOUND = create(STORAGE);
+			// Warm up, so that the first measurement is not of the interpreter.
+			run(COMPOUND, 1, WRITES, MILLISECONDS);
+			
+			double single = 0;
+			for (int threads = 1; threads <= THREADS; threads *= 2) {
+				final double RATE = run(COMPOUND, threads, WRITES, MILLISECONDS);
+				if (threads == 1)
+					single = RATE;
+				System.out.printf("%-14s%8d%16.0f%9.2fx%n", STORAGE, threads, RATE, RATE / single);
+			}
+		}
+	}
+	
+	private static Compound create(String storage) {
+		final Compound COMPOUND;
+		if (storage.equals("concurrent"))
+			COMPOUND = Compound.concurrent();
+		else if (storage.equals("persistent"))
+			COMPOUND = Compound.persistent();
+		else
+			COMPOUND = new Compound();
+		
+		for (int k = 0; k != KEYS; k++)
+			COMPOUND.set("key" + k, "value" + k);
+		return COMPOUND;
+	}
+	
+	/**
+	 * Returns the operations per second of the given number of threads sharing the given
+	 * {@link Compound} for the given time, the given share of operations being writes.
+	 */
+	private static double run(final Compound COMPOUND, int threads, final int WRITES, long milliseconds) throws Exception {
+		final CompoundKey[] KEYS_USED = new CompoundKey[KEYS];
+		for (int k = 0; k != KEYS; k++)
+			KEYS_USED[k] = CompoundKey.of("key" + k);
+		
+		final LongAdder OPERATIONS = new LongAdder();
+		final AtomicBoolean RUNNING = new AtomicBoolean(true);
+		final CountDownLatch STARTED = new CountDownLatch(threads);
+		final CountDownLatch START = new CountDownLatch(1);
+		final Thread[] WORKERS = new Thread[threads];
+		for (int t = 0; t != threads; t++) {
+			final int SEED = t;
+			WORKERS[t] = new Thread(){
+				
+				@Override
+				public void run() {
+					int random = SEED * 0x9E3779B9 + 1;
+					long operations = 0;
+					long found = 0;
+					STARTED.countDown();
+					try {
+						START.await();
+					}catch (InterruptedException e) {
+						return;
+					}
+					while (RUNNING.get()) {
+						// Check the flag only every so often, so that it is not what is measured.
+						for (int o = 0; o != 1024; o++) {
+							random ^= random << 13;
+							random ^= random >>> 17;
+							random ^= random << 5;
+							final CompoundKey KEY = KEYS_USED[(random >>> 8) & (KEYS - 1)];
+							if ((random & 0x7FFFFFFF) % 1000 < WRITES)
+								COMPOUND.set(KEY, "value" + o);
+							else if (COMPOUND.get(KEY) != null)
+								found++;
+						}
+						operations += 1024;
+					}
+					OPERATIONS.add(operations);
+					// Keep the reads from being optimised away.
+					if (found == -1)
+						System.out.println();
+				}
+				
+			};
+			WORKERS[t].start();
+		}
+		
+		STARTED.await();
+		final long BEGIN = System.nanoTime();
+		START.countDown();
+		Thread.sleep(milliseconds);
+		RUNNING.set(false);
+		for (final Thread WORKER : WORKERS)
+			WORKER.join();
+		return OPERATIONS.sum() * 1e9 / (System.nanoTime() - BEGIN);
+	}
+	
+}
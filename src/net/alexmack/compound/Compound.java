@@ -15,23 +15,109 @@
  */
 package net.alexmack.compound;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundType;
 import net.alexmack.compound.stack.CompoundStack;
-import net.alexmack.compound.stack.CompoundStackReverse;
+import net.alexmack.compound.storage.CompoundStorage;
+import net.alexmack.compound.storage.CompoundStorageConcurrent;
+import net.alexmack.compound.storage.CompoundStorageImmutable;
+import net.alexmack.compound.storage.CompoundStoragePersistent;
+import net.alexmack.compound.storage.CompoundStorageSynchronized;
 
 public class Compound implements Cloneable {
 	
-	private final Map<String, Object> MAP = new HashMap<String, Object>();
+	private final CompoundStorage STORAGE;
+	
+	private static final AtomicReferenceFieldUpdater<Compound, UUID> ID_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(Compound.class, UUID.class, "id");
+	
+	/**
+	 * {@link UUID} of this {@link Compound}, created by {@link #getID()}
+	 * when first requested.
+	 */
+	private volatile UUID id;
+	
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Compound, Set> CHANGES_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(Compound.class, Set.class, "changes");
+	
+	/**
+	 * {@link CompoundKey}s changed since the last {@link #checkpoint()}, or
+	 * <code>null</code> if changes are not being tracked.
+	 */
+	private volatile Set<CompoundKey> changes;
+	
+	/**
+	 * {@link CompoundStack} told of the first change after each checkpoint, see
+	 * {@link #checkpoint(CompoundStack)}, or <code>null</code>.
+	 */
+	private volatile CompoundStack tracker;
+	
+	private static final AtomicIntegerFieldUpdater<Compound> VERSION_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(Compound.class, "version");
+	
+	/**
+	 * Incremented atomically after every change, invalidating {@link #hash}, so
+	 * concurrent changes are never lost.
+	 */
+	volatile int version;
+	
+	/**
+	 * Hashes of the elements of this {@link Compound}, cached by {@link CompoundHash}.
+	 */
+	CompoundHash.Node hash;
+	
+	/**
+	 * Creates a {@link Compound} using {@link CompoundStorageSynchronized}.
+	 */
+	public Compound() {
+		this(new CompoundStorageSynchronized());
+	}
+	
+	/**
+	 * Creates a {@link Compound} storing its identifiers and elements
+	 * in the given {@link CompoundStorage}.
+	 */
+	public Compound(CompoundStorage s) {
+		STORAGE = s;
+	}
+	
+	/**
+	 * Creates a {@link Compound} using {@link CompoundStorageConcurrent},
+	 * for instances shared between many threads. Reads do not lock.
+	 */
+	public static Compound concurrent() {
+		return new Compound(new CompoundStorageConcurrent());
+	}
+	
+	/**
+	 * Creates a {@link Compound} using {@link CompoundStoragePersistent}, for
+	 * instances read by many threads and changed by few. Reads do not lock,
+	 * writes do not block and {@link #snapshot()} takes constant time.
+	 */
+	public static Compound persistent() {
+		return new Compound(new CompoundStoragePersistent());
+	}
 	
 	/**
-	 * {@link UUID} used to reference this {@link Compound} in an instance
-	 * of {@link CompoundStack} or {@link CompoundStackReverse}. Not to be
-	 * confused with the address field of a {@link CompoundStack.CompoundStackItem}.
+	 * Returns the {@link CompoundStorage} holding the identifiers and elements
+	 * of this {@link Compound}.
 	 */
-	public final UUID ID = UUID.randomUUID();
+	public CompoundStorage getStorage() {
+		return STORAGE;
+	}
 	
 	/**
 	 * Returns the element corresponding to the given identifier.
@@ -39,9 +125,16 @@ public class Compound implements Cloneable {
 	 * has been specified as the corresponding element.
 	 */
 	public Object get(String i) {
-		synchronized (MAP) {
-			return MAP.get(i.toLowerCase());
-		}
+		return STORAGE.get(i);
+	}
+	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey}.
+	 * Will return <code>null</code> if no such element exists, or <code>null</code>
+	 * has been specified as the corresponding element.
+	 */
+	public Object get(CompoundKey k) {
+		return STORAGE.get(k);
 	}
 	
 	/**
@@ -57,6 +150,16 @@ public class Compound implements Cloneable {
 		return (TYPE) VALUE;
 	}
 	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey}, with
+	 * generic type casting. Will return <code>null</code> if no such element exists,
+	 * or <code>null</code> has been specified as the corresponding element.
+	 */
+	@SuppressWarnings("unchecked")
+	public <TYPE> TYPE getCast(CompoundKey k) {
+		return (TYPE) get(k);
+	}
+	
 	/**
 	 * Returns the element corresponding to the given identifier,
 	 * or the given default element if no such corresponding value exists.
@@ -77,6 +180,18 @@ public class Compound implements Cloneable {
 		return getCast(i);
 	}
 	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey},
+	 * or the given default element if no such corresponding value exists.
+	 * Behaves exactly like {@link #getDefault(String, Object)}.
+	 */
+	public <TYPE> TYPE getDefault(CompoundKey k, TYPE d) {
+		if (!has(k))
+			return d;
+		
+		return getCast(k);
+	}
+	
 	/**
 	 * Returns whether this {@link Compound} contains an element corresponding
 	 * to the given identifier. The element itself is not taken into account - a
@@ -84,18 +199,31 @@ public class Compound implements Cloneable {
 	 * returning <code>true</code>.
 	 */
 	public boolean has(String i){
-		synchronized (MAP) {
-			return MAP.containsKey(i.toLowerCase());
-		}
+		return STORAGE.has(i);
+	}
+	
+	/**
+	 * Returns whether this {@link Compound} contains an element corresponding
+	 * to the given {@link CompoundKey}, including a <code>null</code> element.
+	 */
+	public boolean has(CompoundKey k){
+		return STORAGE.has(k);
 	}
 	
 	/**
 	 * Removes the element corresponding to the given identifier, if there is one.
 	 */
 	public void remove(String i){
-		synchronized (MAP) {
-			MAP.remove(i.toLowerCase());
-		}
+		STORAGE.remove(i);
+		changed(i);
+	}
+	
+	/**
+	 * Removes the element corresponding to the given {@link CompoundKey}, if there is one.
+	 */
+	public void remove(CompoundKey k){
+		STORAGE.remove(k);
+		changed(k);
 	}
 	
 	/**
@@ -103,9 +231,205 @@ public class Compound implements Cloneable {
 	 * status.
 	 */
 	public Compound set(String i, Object o){
-		synchronized (MAP) {
-			MAP.put(i.toLowerCase(), o);
-		}
+		STORAGE.set(i, o);
+		changed(i);
+		return this;
+	}
+	
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey}, regardless
+	 * of current status.
+	 */
+	public Compound set(CompoundKey k, Object o){
+		STORAGE.set(k, o);
+		changed(k);
+		return this;
+	}
+	
+	/**
+	 * Returns the element corresponding to the given identifier as a <code>int</code>,
+	 * or the given default if there is no such element or it is <code>null</code>.
+	 * Elements set with {@link #setInt(String, int)} are read without boxing.
+	 */
+	public int getInt(String i, int d) {
+		return (int) STORAGE.getPrimitive(i, CompoundType.INTEGER, d);
+	}
+	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey} as a
+	 * <code>int</code>, or the given default if there is no such element or it
+	 * is <code>null</code>.
+	 */
+	public int getInt(CompoundKey k, int d) {
+		return (int) STORAGE.getPrimitive(k, CompoundType.INTEGER, d);
+	}
+	
+	/**
+	 * Sets the element corresponding to the given identifier to the given
+	 * <code>int</code>, which is stored without boxing.
+	 */
+	public Compound setInt(String i, int v) {
+		STORAGE.setPrimitive(i, CompoundType.INTEGER, v);
+		changed(i);
+		return this;
+	}
+	
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey} to the
+	 * given <code>int</code>, which is stored without boxing.
+	 */
+	public Compound setInt(CompoundKey k, int v) {
+		STORAGE.setPrimitive(k, CompoundType.INTEGER, v);
+		changed(k);
+		return this;
+	}
+	
+	/**
+	 * Returns the element corresponding to the given identifier as a <code>long</code>,
+	 * or the given default if there is no such element or it is <code>null</code>.
+	 * Elements set with {@link #setLong(String, long)} are read without boxing.
+	 */
+	public long getLong(String i, long d) {
+		return STORAGE.getPrimitive(i, CompoundType.INTEGER_LONG, d);
+	}
+	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey} as a
+	 * <code>long</code>, or the given default if there is no such element or it
+	 * is <code>null</code>.
+	 */
+	public long getLong(CompoundKey k, long d) {
+		return STORAGE.getPrimitive(k, CompoundType.INTEGER_LONG, d);
+	}
+	
+	/**
+	 * Sets the element corresponding to the given identifier to the given
+	 * <code>long</code>, which is stored without boxing.
+	 */
+	public Compound setLong(String i, long v) {
+		STORAGE.setPrimitive(i, CompoundType.INTEGER_LONG, v);
+		changed(i);
+		return this;
+	}
+	
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey} to the
+	 * given <code>long</code>, which is stored without boxing.
+	 */
+	public Compound setLong(CompoundKey k, long v) {
+		STORAGE.setPrimitive(k, CompoundType.INTEGER_LONG, v);
+		changed(k);
+		return this;
+	}
+	
+	/**
+	 * Returns the element corresponding to the given identifier as a <code>double</code>,
+	 * or the given default if there is no such element or it is <code>null</code>.
+	 * Elements set with {@link #setDouble(String, double)} are read without boxing.
+	 */
+	public double getDouble(String i, double d) {
+		return Double.longBitsToDouble(STORAGE.getPrimitive(i, CompoundType.DOUBLE, Double.doubleToRawLongBits(d)));
+	}
+	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey} as a
+	 * <code>double</code>, or the given default if there is no such element or it
+	 * is <code>null</code>.
+	 */
+	public double getDouble(CompoundKey k, double d) {
+		return Double.longBitsToDouble(STORAGE.getPrimitive(k, CompoundType.DOUBLE, Double.doubleToRawLongBits(d)));
+	}
+	
+	/**
+	 * Sets the element corresponding to the given identifier to the given
+	 * <code>double</code>, which is stored without boxing.
+	 */
+	public Compound setDouble(String i, double v) {
+		STORAGE.setPrimitive(i, CompoundType.DOUBLE, Double.doubleToRawLongBits(v));
+		changed(i);
+		return this;
+	}
+	
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey} to the
+	 * given <code>double</code>, which is stored without boxing.
+	 */
+	public Compound setDouble(CompoundKey k, double v) {
+		STORAGE.setPrimitive(k, CompoundType.DOUBLE, Double.doubleToRawLongBits(v));
+		changed(k);
+		return this;
+	}
+	
+	/**
+	 * Returns the element corresponding to the given identifier as a <code>boolean</code>,
+	 * or the given default if there is no such element or it is <code>null</code>.
+	 * Elements set with {@link #setBoolean(String, boolean)} are read without boxing.
+	 */
+	public boolean getBoolean(String i, boolean d) {
+		return STORAGE.getPrimitive(i, CompoundType.BOOLEAN, d ? 1L : 0L) != 0L;
+	}
+	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey} as a
+	 * <code>boolean</code>, or the given default if there is no such element or it
+	 * is <code>null</code>.
+	 */
+	public boolean getBoolean(CompoundKey k, boolean d) {
+		return STORAGE.getPrimitive(k, CompoundType.BOOLEAN, d ? 1L : 0L) != 0L;
+	}
+	
+	/**
+	 * Sets the element corresponding to the given identifier to the given
+	 * <code>boolean</code>, which is stored without boxing.
+	 */
+	public Compound setBoolean(String i, boolean v) {
+		STORAGE.setPrimitive(i, CompoundType.BOOLEAN, v ? 1L : 0L);
+		changed(i);
+		return this;
+	}
+	
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey} to the
+	 * given <code>boolean</code>, which is stored without boxing.
+	 */
+	public Compound setBoolean(CompoundKey k, boolean v) {
+		STORAGE.setPrimitive(k, CompoundType.BOOLEAN, v ? 1L : 0L);
+		changed(k);
+		return this;
+	}
+	
+	/**
+	 * Returns the {@link CompoundType} of the element corresponding to the given
+	 * identifier, or <code>null</code> if there is no such element.
+	 */
+	public CompoundType getType(String i) {
+		return STORAGE.getType(i);
+	}
+	
+	/**
+	 * Returns the {@link CompoundType} of the element corresponding to the given
+	 * {@link CompoundKey}, or <code>null</code> if there is no such element.
+	 */
+	public CompoundType getType(CompoundKey k) {
+		return STORAGE.getType(k);
+	}
+	
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey} as the bits used
+	 * by {@link CompoundType#PRIMITIVE} for the given {@link CompoundType}, or the given
+	 * default bits if there is no such element or it is <code>null</code>.
+	 */
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		return STORAGE.getPrimitive(k, t, d);
+	}
+	
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey} to the bits used
+	 * by {@link CompoundType#PRIMITIVE} for the given {@link CompoundType}.
+	 */
+	public Compound setPrimitive(CompoundKey k, CompoundType t, long b) {
+		STORAGE.setPrimitive(k, t, b);
+		changed(k);
 		return this;
 	}
 	
@@ -113,30 +437,265 @@ public class Compound implements Cloneable {
 	 * Returns all elements corresponding to identifiers.
 	 */
 	public Object[] getAllElements(){
-		synchronized (MAP) {
-			return MAP.values().toArray(new Object[]{});
-		}
+		return STORAGE.getAllElements();
 	}
 	
 	/**
 	 * Returns all identifiers with corresponding elements.
 	 */
 	public String[] getAllIdentifiers(){
-		synchronized (MAP) {
-			return MAP.keySet().toArray(new String[]{});
+		return STORAGE.getAllIdentifiers();
+	}
+	
+	/**
+	 * Returns {@link CompoundKey}s for all identifiers with corresponding elements.
+	 */
+	public CompoundKey[] getAllKeys(){
+		return STORAGE.getAllKeys();
+	}
+	
+	/**
+	 * Visits every identifier and element with the given {@link CompoundVisitor}, locking
+	 * once if the storage locks, see {@link CompoundStorage#forEach(CompoundVisitor)}.
+	 * Primitive elements are visited as bits.
+	 */
+	public void forEach(CompoundVisitor v) throws Exception {
+		STORAGE.forEach(v);
+	}
+	
+	/**
+	 * Passes every identifier and its element to the given {@link BiConsumer},
+	 * as {@link #forEach(CompoundVisitor)} does.
+	 */
+	public void forEach(final BiConsumer<String, Object> c) {
+		try {
+			STORAGE.forEach(new CompoundVisitor(){
+				
+				@Override
+				public void visit(CompoundKey k, Object o) {
+					c.accept(k.ID, o);
+				}
+				
+			});
+		}catch (RuntimeException e) {
+			throw e;
+		}catch (Exception e) {
+			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Sets every element in the given {@link Map} as corresponding to its
+	 * identifier, locking once, see {@link CompoundStorage#update(Runnable)}.
+	 */
+	public Compound setAll(final Map<String, ?> m) {
+		STORAGE.update(new Runnable(){
+			
+			@Override
+			public void run() {
+				for (final Map.Entry<String, ?> ENTRY : m.entrySet())
+					set(ENTRY.getKey(), ENTRY.getValue());
+			}
+			
+		});
+		return this;
+	}
+	
+	/**
+	 * Passes this {@link Compound} to the given {@link Consumer}, locking once so that
+	 * all changes it makes are seen together, unless its {@link CompoundStorage} does
+	 * not lock, see {@link CompoundStorage#update(Runnable)}. The {@link Consumer} may
+	 * be run again, so should change nothing but this {@link Compound}.
+	 */
+	public Compound update(final Consumer<Compound> c) {
+		STORAGE.update(new Runnable(){
+			
+			@Override
+			public void run() {
+				c.accept(Compound.this);
+			}
+			
+		});
+		return this;
+	}
+	
+	/**
+	 * Returns a {@link UUID} identifying this {@link Compound}. The {@link UUID}
+	 * is created when first requested, as doing so is expensive. Instances of
+	 * {@link net.alexmack.compound.stack.CompoundStack} identify {@link Compound}s
+	 * by reference, not by this {@link UUID}.
+	 */
+	public UUID getID() {
+		final UUID ID = id;
+		if (ID != null)
+			return ID;
+		
+		ID_UPDATER.compareAndSet(this, null, UUID.randomUUID());
+		return id;
+	}
+	
+	/**
+	 * Returns the {@link CompoundKey}s of identifiers set or removed since the last call,
+	 * in the order they were first changed, and starts tracking changes if not already.
+	 * The first call returns no {@link CompoundKey}s.
+	 */
+	public CompoundKey[] checkpoint() {
+		final Set<CompoundKey> CHANGES = changes;
+		if (CHANGES == null) {
+			CHANGES_UPDATER.compareAndSet(this, null, new LinkedHashSet<CompoundKey>());
+			return new CompoundKey[0];
+		}
+		
+		synchronized (CHANGES) {
+			final CompoundKey[] KEYS = CHANGES.toArray(new CompoundKey[CHANGES.size()]);
+			CHANGES.clear();
+			return KEYS;
+		}
+	}
+	
+	/**
+	 * Returns the {@link CompoundKey}s changed since the last call as {@link #checkpoint()}
+	 * does, and from then on tells the given {@link CompoundStack} of the first change after
+	 * each checkpoint, so that only changed {@link Compound}s need be visited. Used by
+	 * {@link CompoundIO#writeDelta}. Only the last {@link CompoundStack} given is told.
+	 */
+	public CompoundKey[] checkpoint(CompoundStack s) {
+		tracker = s;
+		return checkpoint();
+	}
+	
+	/**
+	 * Returns whether changes to this {@link Compound} are being tracked.
+	 */
+	public boolean isTracked() {
+		return changes != null;
+	}
+	
+	/**
+	 * Stops tracking changes to this {@link Compound}, discarding those tracked.
+	 */
+	public void untrack() {
+		changes = null;
+		tracker = null;
+	}
+	
+	private void changed(String i) {
+		if (changes != null)
+			changed(CompoundKey.of(i));
+		else
+			VERSION_UPDATER.incrementAndGet(this);
+	}
+	
+	private void changed(CompoundKey k) {
+		VERSION_UPDATER.incrementAndGet(this);
+		final Set<CompoundKey> CHANGES = changes;
+		if (CHANGES == null)
+			return;
+		
+		final boolean FIRST;
+		synchronized (CHANGES) {
+			FIRST = CHANGES.isEmpty();
+			CHANGES.add(k);
+		}
+		final CompoundStack TRACKER = tracker;
+		if (FIRST && TRACKER != null)
+			TRACKER.changed(this);
+	}
+	
+	/**
+	 * Returns an {@link ImmutableCompound} containing the identifiers and elements of
+	 * this {@link Compound} at the time of calling, in which every reachable
+	 * {@link Compound} is also replaced by an {@link ImmutableCompound}, see
+	 * {@link CompoundStorageImmutable#freeze(Compound)}. Nothing reachable from the
+	 * snapshot can change, so it can be read or written without locking. Each
+	 * {@link Compound} is snapshotted separately while the graph is walked, which
+	 * takes constant time per {@link Compound} created by {@link #persistent()}.
+	 */
+	public ImmutableCompound snapshot() {
+		return CompoundStorageImmutable.freeze(this);
+	}
+	
+	/**
+	 * Returns a hash of the structure and elements of this {@link Compound} and every
+	 * {@link Compound} it contains, see {@link CompoundHash}.
+	 */
+	public long structuralHash() {
+		return CompoundHash.hash(this);
+	}
+	
+	/**
+	 * Returns whether the given {@link Compound} has the same structure and elements as
+	 * this {@link Compound}, see {@link CompoundHash}.
+	 */
+	public boolean structurallyEquals(Compound c) {
+		return CompoundHash.equal(this, c);
+	}
+	
 	@Override
 	public String toString() {
-		return "Compound " + ID.toString();
+		return "Compound " + getID().toString();
 	}
 	
 	@Override
 	protected Compound clone() {
-		final Compound CLONE = new Compound();
-		CLONE.MAP.putAll(MAP);
-		return CLONE;
+		return new Compound(STORAGE.copy());
+	}
+	
+	/**
+	 * Returns a copy of this {@link Compound} in which every {@link Compound} element,
+	 * however deeply nested, is also copied. A {@link Compound} reached more than once,
+	 * including through a cycle, is copied once and the copy used each time, as
+	 * {@link net.alexmack.compound.stack.CompoundStack} does when writing.<br><br>
+	 * Each copy uses the same kind of storage as the original, and the graph is walked
+	 * without recursion. {@link ImmutableCompound}s can not change, so are not copied.
+	 */
+	public Compound deepClone() {
+		final Map<Compound, Compound> COPIES = new IdentityHashMap<Compound, Compound>();
+		final ArrayDeque<Compound> PENDING = new ArrayDeque<Compound>();
+		// Compound elements of the copy being visited, each followed by its key.
+		final ArrayList<Object> FOUND = new ArrayList<Object>();
+		final CompoundVisitor VISITOR = new CompoundVisitor(){
+			
+			@Override
+			public void visit(CompoundKey k, Object o) {
+				if (o instanceof Compound) {
+					FOUND.add(k);
+					FOUND.add(o);
+				}
+			}
+			
+			@Override
+			public void visitPrimitive(CompoundKey k, CompoundType t, long b) {}
+			
+		};
+		
+		final Compound ROOT = clone();
+		COPIES.put(this, ROOT);
+		PENDING.add(ROOT);
+		while (!PENDING.isEmpty()) {
+			final Compound COPY = PENDING.poll();
+			if (COPY instanceof ImmutableCompound)
+				continue;
+			
+			// The copy still holds the original Compound elements, replace each with its copy.
+			try {
+				COPY.STORAGE.forEach(VISITOR);
+			}catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			for (int f = 0; f != FOUND.size(); f += 2) {
+				final Compound ORIGINAL = (Compound) FOUND.get(f + 1);
+				Compound copy = COPIES.get(ORIGINAL);
+				if (copy == null) {
+					copy = ORIGINAL.clone();
+					COPIES.put(ORIGINAL, copy);
+					PENDING.add(copy);
+				}
+				COPY.set((CompoundKey) FOUND.get(f), copy);
+			}
+			FOUND.clear();
+		}
+		return ROOT;
 	}
 		
 }
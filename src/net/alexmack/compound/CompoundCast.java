@@ -34,6 +34,26 @@ public class CompoundCast {
 		throw new RuntimeException(o.getClass().getName() + " cannot be cast to Integer!");
 	}
 	
+	/**
+	 * Returns the given {@link Object} as a <code>short</code>.
+	 */
+	public static short asShort(Object o) {
+		if (o instanceof Short) {
+			return ((Short) o).shortValue();
+		}else{
+			return asByte(o);
+		}
+	}
+	
+	/**
+	 * Returns the given {@link Object} as a <code>byte</code>.
+	 */
+	public static byte asByte(Object o) {
+		if (o instanceof Byte)
+			return ((Byte) o).byteValue();
+		throw new RuntimeException(o.getClass().getName() + " cannot be cast to Byte!");
+	}
+	
 	/**
 	 * Returns the given {@link Object} as a <code>long</code>.
 	 */
@@ -45,6 +65,17 @@ public class CompoundCast {
 		}
 	}
 	
+	/**
+	 * Returns the given {@link Object} as a <code>float</code>.
+	 */
+	public static float asFloat(Object o) {
+		if (o instanceof Float) {
+			return ((Float) o).floatValue();
+		}else{
+			return asShort(o);
+		}
+	}
+	
 	/**
 	 * Returns the given {@link Object} as a <code>double</code>.
 	 */
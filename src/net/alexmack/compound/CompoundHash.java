@@ -0,0 +1,386 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * Hashes and compares {@link Compound}s by structure and elements rather than
+ * by reference. Two {@link Compound}s are structurally equal if their graphs
+ * are the same once references are ignored: each pair of corresponding
+ * {@link Compound}s has the same identifiers and equal elements, and shared
+ * references and cycles occur in the same places. Structurally equal
+ * {@link Compound}s have the same structural hash.<br><br>
+ * The hash of a {@link Compound} combines those of its elements, using the hash of each
+ * {@link Compound} element, so a change anywhere in a graph changes the hash of every
+ * {@link Compound} which can reach it. A reference back to a {@link Compound} still being
+ * hashed is hashed as its distance up the path instead. The hashes of the elements other
+ * than {@link Compound}s are cached by each {@link Compound} until it is next changed,
+ * so rehashing a graph after a change only revisits {@link Compound} elements. Only this
+ * per-{@link Compound} part is cached: a {@link Compound} does not know which
+ * {@link Compound}s contain it, so the hash of a whole subtree can not be invalidated by
+ * a change below it, and every reachable {@link Compound} is still visited.<br><br>
+ * Like writing, hashing a {@link Compound} being changed by other threads does not give
+ * a consistent result.
+ */
+public final class CompoundHash {
+
+	/**
+	 * Hashes of the elements of a {@link Compound}, valid while {@link Compound#version}
+	 * is {@link #VERSION}. {@link Compound} elements are kept apart, ordered by the hash
+	 * of their identifiers, so that graphs are always walked in the same order.
+	 */
+	static final class Node {
+
+		private final int VERSION;
+		private final int SIZE;
+		/**
+		 * Sum of the hashes of every entry which is not a {@link Compound}.
+		 */
+		private final long SCALARS;
+		private final CompoundKey[] KEYS;
+		private final long[] KEY_HASHES;
+		private final Compound[] CHILDREN;
+
+		private Node(int v, int s, long h, CompoundKey[] k, long[] kh, Compound[] c) {
+			VERSION = v;
+			SIZE = s;
+			SCALARS = h;
+			KEYS = k;
+			KEY_HASHES = kh;
+			CHILDREN = c;
+		}
+
+	}
+
+	/**
+	 * A {@link Compound} on the path being hashed.
+	 */
+	private static final class Frame {
+
+		private final Compound COMPOUND;
+		private final Node NODE;
+		private final int DEPTH;
+		private int child;
+		private long sum;
+		/**
+		 * Smallest depth of a {@link Compound} referred back to from below this one.
+		 */
+		private int lowest = Integer.MAX_VALUE;
+		/**
+		 * Whether a hash depending on the path above was used.
+		 */
+		private boolean tainted;
+
+		private Frame(Compound c, Node n, int d) {
+			COMPOUND = c;
+			NODE = n;
+			DEPTH = d;
+			sum = n.SCALARS;
+		}
+
+	}
+
+	private static final long SEED_NULL = 0x9E3779B97F4A7C15L;
+	private static final long SEED_BACK = 0xC2B2AE3D27D4EB4FL;
+	private static final long SEED_ENTRY = 0x165667B19E3779F9L;
+
+	/**
+	 * Hashes of {@link Compound}s which do not depend on the path by which they were
+	 * reached, and so remain valid for as long as nothing changes.
+	 */
+	private final Map<Compound, Long> DONE = new IdentityHashMap<Compound, Long>();
+	/**
+	 * Hashes of {@link Compound}s which refer back above themselves, valid for
+	 * the current walk only.
+	 */
+	private final Map<Compound, Long> CYCLIC = new IdentityHashMap<Compound, Long>();
+
+	CompoundHash() {}
+
+	/**
+	 * Returns the structural hash of the given {@link Compound}.
+	 */
+	public static long hash(Compound c) {
+		return new CompoundHash().of(c);
+	}
+
+	/**
+	 * Returns the structural hash of the given {@link Compound}, reusing the hashes of
+	 * {@link Compound}s already hashed by this instance, none of which may have changed.
+	 */
+	long of(Compound c) {
+		final Long DONE_HASH = DONE.get(c);
+		if (DONE_HASH != null)
+			return DONE_HASH.longValue();
+
+		CYCLIC.clear();
+		final Map<Compound, Integer> PATH = new IdentityHashMap<Compound, Integer>();
+		final ArrayList<Frame> FRAMES = new ArrayList<Frame>();
+		FRAMES.add(new Frame(c, node(c), 0));
+		PATH.put(c, Integer.valueOf(0));
+		while (true) {
+			final Frame FRAME = FRAMES.get(FRAMES.size() - 1);
+			final Node NODE = FRAME.NODE;
+			if (FRAME.child != NODE.CHILDREN.length) {
+				final Compound CHILD = NODE.CHILDREN[FRAME.child];
+				final long KEY = NODE.KEY_HASHES[FRAME.child++];
+
+				final Integer ON_PATH = PATH.get(CHILD);
+				if (ON_PATH != null) {
+					FRAME.sum += entry(KEY, mix(SEED_BACK + FRAME.DEPTH + 1 - ON_PATH.intValue()));
+					FRAME.lowest = Math.min(FRAME.lowest, ON_PATH.intValue());
+					continue;
+				}
+				final Long KNOWN = DONE.get(CHILD);
+				if (KNOWN != null) {
+					FRAME.sum += entry(KEY, KNOWN.longValue());
+					continue;
+				}
+				final Long CYCLIC_HASH = CYCLIC.get(CHILD);
+				if (CYCLIC_HASH != null) {
+					FRAME.sum += entry(KEY, CYCLIC_HASH.longValue());
+					FRAME.tainted = true;
+					continue;
+				}
+
+				FRAMES.add(new Frame(CHILD, node(CHILD), FRAME.DEPTH + 1));
+				PATH.put(CHILD, Integer.valueOf(FRAME.DEPTH + 1));
+				continue;
+			}
+
+			FRAMES.remove(FRAMES.size() - 1);
+			PATH.remove(FRAME.COMPOUND);
+			final long HASH = mix(FRAME.sum + NODE.SIZE * SEED_ENTRY);
+			// Only a hash not depending on the path above holds wherever the Compound is reached.
+			final boolean ESCAPES = FRAME.lowest < FRAME.DEPTH;
+			if (ESCAPES || FRAME.tainted)
+				CYCLIC.put(FRAME.COMPOUND, Long.valueOf(HASH));
+			else
+				DONE.put(FRAME.COMPOUND, Long.valueOf(HASH));
+
+			if (FRAMES.isEmpty())
+				return HASH;
+
+			final Frame PARENT = FRAMES.get(FRAMES.size() - 1);
+			PARENT.sum += entry(PARENT.NODE.KEY_HASHES[PARENT.child - 1], HASH);
+			PARENT.tainted |= FRAME.tainted;
+			if (ESCAPES)
+				PARENT.lowest = Math.min(PARENT.lowest, FRAME.lowest);
+		}
+	}
+
+	/**
+	 * Returns whether the given {@link Compound}s are structurally equal. Each
+	 * {@link Compound} reached in one graph must always correspond to the same
+	 * {@link Compound} in the other.
+	 */
+	public static boolean equal(Compound a, Compound b) {
+		final Map<Compound, Compound> FORWARD = new IdentityHashMap<Compound, Compound>();
+		final Map<Compound, Compound> BACKWARD = new IdentityHashMap<Compound, Compound>();
+		final ArrayDeque<Compound> PENDING = new ArrayDeque<Compound>();
+		PENDING.add(a);
+		PENDING.add(b);
+		while (!PENDING.isEmpty()) {
+			final Compound X = PENDING.poll();
+			final Compound Y = PENDING.poll();
+			final Compound MAPPED = FORWARD.get(X);
+			if (MAPPED != null) {
+				if (MAPPED != Y)
+					return false;
+				continue;
+			}
+			if (BACKWARD.containsKey(Y))
+				return false;
+			FORWARD.put(X, Y);
+			BACKWARD.put(Y, X);
+
+			final Node NODE_X = node(X);
+			final Node NODE_Y = node(Y);
+			if (NODE_X.SIZE != NODE_Y.SIZE || NODE_X.SCALARS != NODE_Y.SCALARS || NODE_X.CHILDREN.length != NODE_Y.CHILDREN.length)
+				return false;
+			if (!scalarsEqual(X, Y))
+				return false;
+			for (int c = 0; c != NODE_X.CHILDREN.length; c++) {
+				if (!NODE_X.KEYS[c].equals(NODE_Y.KEYS[c]))
+					return false;
+				PENDING.add(NODE_X.CHILDREN[c]);
+				PENDING.add(NODE_Y.CHILDREN[c]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether every element of the given {@link Compound} other than a
+	 * {@link Compound} is equal to the corresponding element of the other.
+	 */
+	private static boolean scalarsEqual(Compound x, final Compound y) {
+		final boolean[] EQUAL = { true };
+		try {
+			x.forEach(new CompoundVisitor(){
+
+				@Override
+				public void visit(CompoundKey k, Object o) {
+					final CompoundType TYPE = CompoundType.get(o);
+					if (TYPE.isPrimitive())
+						visitPrimitive(k, TYPE, TYPE.PRIMITIVE.unbox(o));
+					else if (TYPE != CompoundType.COMPOUND && (!y.has(k) || !equal(o, y.get(k))))
+						EQUAL[0] = false;
+				}
+
+				@Override
+				public void visitPrimitive(CompoundKey k, CompoundType t, long b) {
+					if (y.getType(k) != t || y.getPrimitive(k, t, ~b) != b)
+						EQUAL[0] = false;
+				}
+
+			});
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return EQUAL[0];
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Returns the {@link Node} of the given {@link Compound}, hashing its elements
+	 * if it has changed since they were last hashed.
+	 */
+	static Node node(Compound c) {
+		final int VERSION = c.version;
+		final Node CACHED = c.hash;
+		if (CACHED != null && CACHED.VERSION == VERSION)
+			return CACHED;
+
+		final long[] SUM = { 0L };
+		final int[] SIZE = { 0 };
+		final ArrayList<CompoundKey> KEYS = new ArrayList<CompoundKey>();
+		final ArrayList<Compound> CHILDREN = new ArrayList<Compound>();
+		try {
+			c.forEach(new CompoundVisitor(){
+
+				@Override
+				public void begin(int size) {
+					SIZE[0] = size;
+				}
+
+				@Override
+				public void visit(CompoundKey k, Object o) {
+					final CompoundType TYPE = CompoundType.get(o);
+					if (TYPE == CompoundType.COMPOUND) {
+						KEYS.add(k);
+						CHILDREN.add((Compound) o);
+					}else if (TYPE.isPrimitive()) {
+						visitPrimitive(k, TYPE, TYPE.PRIMITIVE.unbox(o));
+					}else{
+						SUM[0] += entry(hash(k.ID), element(TYPE, o));
+					}
+				}
+
+				@Override
+				public void visitPrimitive(CompoundKey k, CompoundType t, long b) {
+					SUM[0] += entry(hash(k.ID), mix(t.ID * SEED_ENTRY + b));
+				}
+
+			});
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		// Order Compound elements by the hash of their identifiers, which are unique.
+		final int COUNT = KEYS.size();
+		final CompoundKey[] KEY_ARRAY = KEYS.toArray(new CompoundKey[COUNT]);
+		final Compound[] CHILD_ARRAY = CHILDREN.toArray(new Compound[COUNT]);
+		final long[] KEY_HASHES = new long[COUNT];
+		for (int i = 0; i != COUNT; i++) {
+			final long KEY_HASH = hash(KEY_ARRAY[i].ID);
+			final CompoundKey KEY = KEY_ARRAY[i];
+			final Compound CHILD = CHILD_ARRAY[i];
+			int j = i;
+			for (; j != 0 && KEY_HASHES[j - 1] > KEY_HASH; j--) {
+				KEY_HASHES[j] = KEY_HASHES[j - 1];
+				KEY_ARRAY[j] = KEY_ARRAY[j - 1];
+				CHILD_ARRAY[j] = CHILD_ARRAY[j - 1];
+			}
+			KEY_HASHES[j] = KEY_HASH;
+			KEY_ARRAY[j] = KEY;
+			CHILD_ARRAY[j] = CHILD;
+		}
+
+		final Node NODE = new Node(VERSION, SIZE[0], SUM[0], KEY_ARRAY, KEY_HASHES, CHILD_ARRAY);
+		c.hash = NODE;
+		return NODE;
+	}
+
+	/**
+	 * Returns the {@link Compound} elements of the given {@link Compound}, in the same
+	 * order as {@link #keys(Compound)}.
+	 */
+	static Compound[] children(Compound c) {
+		return node(c).CHILDREN;
+	}
+
+	/**
+	 * Returns the identifiers corresponding to {@link #children(Compound)}.
+	 */
+	static CompoundKey[] keys(Compound c) {
+		return node(c).KEYS;
+	}
+
+	private static long element(CompoundType t, Object o) {
+		if (o == null)
+			return SEED_NULL;
+		if (o instanceof String)
+			return mix(t.ID * SEED_ENTRY + hash((String) o));
+		return mix(t.ID * SEED_ENTRY + hash(o.toString()));
+	}
+
+	private static long entry(long key, long element) {
+		return mix(key * SEED_ENTRY + element);
+	}
+
+	/**
+	 * Returns a 64 bit hash of the given {@link String}.
+	 */
+	private static long hash(String s) {
+		long hash = 0xCBF29CE484222325L;
+		for (int c = 0; c != s.length(); c++)
+			hash = (hash ^ s.charAt(c)) * 0x100000001B3L;
+		return mix(hash);
+	}
+
+	/**
+	 * Mixes the bits of the given value, as the finalizer of MurmurHash3.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB93FE1A85B53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
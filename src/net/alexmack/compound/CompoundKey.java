@@ -0,0 +1,118 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound;
+
+/**
+ * An identifier which has been made lower case and hashed ahead of time.
+ * Passing a {@link CompoundKey} to a {@link Compound} rather than a
+ * {@link String} skips that work on every access, so frequently used
+ * identifiers should be kept as constants.<br><br>
+ * Identifiers are made lower case one <code>char</code> at a time, so
+ * the result does not depend on the default {@link java.util.Locale}.
+ */
+public final class CompoundKey {
+
+	/**
+	 * The lower case identifier.
+	 */
+	public final String ID;
+
+	/**
+	 * Hash of {@link #ID}, equal to <code>ID.hashCode()</code>.
+	 */
+	public final int HASH;
+
+	private CompoundKey(String i) {
+		ID = i;
+		HASH = i.hashCode();
+	}
+
+	/**
+	 * Returns a {@link CompoundKey} for the given identifier.
+	 */
+	public static CompoundKey of(String i) {
+		return new CompoundKey(fold(i));
+	}
+
+	/**
+	 * Returns the given identifier in lower case. The given {@link String}
+	 * is returned, without allocating, if it is already lower case.
+	 */
+	public static String fold(String i) {
+		final int LENGTH = i.length();
+		for (int c = 0; c != LENGTH; c++) {
+			if (Character.toLowerCase(i.charAt(c)) != i.charAt(c)) {
+				final char[] CHARS = i.toCharArray();
+				for (int f = c; f != LENGTH; f++)
+					CHARS[f] = Character.toLowerCase(CHARS[f]);
+				return new String(CHARS);
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the hash of the given identifier once made lower case,
+	 * without making it lower case.
+	 */
+	public static int hash(String i) {
+		final int LENGTH = i.length();
+		int hash = 0;
+		for (int c = 0; c != LENGTH; c++)
+			hash = 31 * hash + Character.toLowerCase(i.charAt(c));
+		return hash;
+	}
+
+	/**
+	 * Returns whether the given identifier, once made lower case, is
+	 * equal to {@link #ID}, without making it lower case.
+	 */
+	public boolean matches(String i) {
+		if (i == ID)
+			return true;
+
+		final int LENGTH = ID.length();
+		if (i.length() != LENGTH)
+			return false;
+
+		for (int c = 0; c != LENGTH; c++)
+			if (Character.toLowerCase(i.charAt(c)) != ID.charAt(c))
+				return false;
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return HASH;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (!(o instanceof CompoundKey))
+			return false;
+
+		final CompoundKey KEY = (CompoundKey) o;
+		return KEY.HASH == HASH && KEY.ID.equals(ID);
+	}
+
+	@Override
+	public String toString() {
+		return ID;
+	}
+
+}
@@ -0,0 +1,142 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Pool of {@link Compound}s in which no two are structurally equal, as decided by
+ * {@link CompoundHash}. Interning a graph replaces every {@link Compound} element with
+ * the pooled {@link Compound} equal to it, adding those not yet pooled, so identical
+ * parts of graphs are stored and written by {@link CompoundIO} only once.<br><br>
+ * Interning changes the graph given, and pooled {@link Compound}s are shared by every
+ * graph interned since, so they must not be changed afterwards. A pooled {@link Compound}
+ * which has been changed is no longer returned in place of others. {@link ImmutableCompound}s
+ * are pooled, but elements are not replaced within them. {@link Compound}s stored in a
+ * {@link net.alexmack.compound.storage.CompoundArena} can only take elements from
+ * the same arena, so such graphs should only be interned with each other.
+ */
+public class CompoundPool {
+
+	/**
+	 * Pooled {@link Compound}s by structural hash.
+	 */
+	private final Map<Long, Object> POOL = new HashMap<Long, Object>();
+	private int size;
+
+	/**
+	 * Interns the given {@link Compound} and every {@link Compound} it contains, returning
+	 * the pooled {@link Compound} equal to the given {@link Compound}.
+	 */
+	public synchronized Compound intern(Compound c) {
+		final CompoundHash HASH = new CompoundHash();
+		// Pooled Compound for each Compound interned so far.
+		final Map<Compound, Compound> CANONICAL = new IdentityHashMap<Compound, Compound>();
+
+		// Walk the graph without recursion, interning each Compound after its elements.
+		final ArrayList<Compound> STACK = new ArrayList<Compound>();
+		final ArrayList<Integer> NEXT = new ArrayList<Integer>();
+		final Map<Compound, Boolean> SEEN = new IdentityHashMap<Compound, Boolean>();
+		STACK.add(c);
+		NEXT.add(Integer.valueOf(0));
+		SEEN.put(c, Boolean.TRUE);
+		while (!STACK.isEmpty()) {
+			final int TOP = STACK.size() - 1;
+			final Compound COMPOUND = STACK.get(TOP);
+			final Compound[] CHILDREN = CompoundHash.children(COMPOUND);
+			final int NEXT_CHILD = NEXT.get(TOP).intValue();
+			if (NEXT_CHILD != CHILDREN.length) {
+				NEXT.set(TOP, Integer.valueOf(NEXT_CHILD + 1));
+				final Compound CHILD = CHILDREN[NEXT_CHILD];
+				if (SEEN.put(CHILD, Boolean.TRUE) == null) {
+					STACK.add(CHILD);
+					NEXT.add(Integer.valueOf(0));
+				}
+				continue;
+			}
+			STACK.remove(TOP);
+			NEXT.remove(TOP);
+
+			// Replace elements already interned, Compounds in a cycle above may not be yet.
+			if (!(COMPOUND instanceof ImmutableCompound)) {
+				final CompoundKey[] KEYS = CompoundHash.keys(COMPOUND);
+				for (int k = 0; k != CHILDREN.length; k++) {
+					final Compound POOLED = CANONICAL.get(CHILDREN[k]);
+					if (POOLED != null && POOLED != CHILDREN[k])
+						COMPOUND.set(KEYS[k], POOLED);
+				}
+			}
+			CANONICAL.put(COMPOUND, pool(COMPOUND, HASH.of(COMPOUND)));
+		}
+		return CANONICAL.get(c);
+	}
+
+	/**
+	 * Returns the number of pooled {@link Compound}s.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Removes every pooled {@link Compound}.
+	 */
+	public synchronized void clear() {
+		POOL.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the pooled {@link Compound} equal to the given {@link Compound} with the
+	 * given hash, pooling the given {@link Compound} if there is none. Pooled {@link Compound}s
+	 * sharing a hash are kept in a list.
+	 */
+	@SuppressWarnings("unchecked")
+	private Compound pool(Compound c, long hash) {
+		final Long HASH = Long.valueOf(hash);
+		final Object POOLED = POOL.get(HASH);
+		if (POOLED == null) {
+			POOL.put(HASH, c);
+			size++;
+			return c;
+		}
+
+		if (POOLED instanceof Compound) {
+			if (POOLED == c || CompoundHash.equal((Compound) POOLED, c))
+				return (Compound) POOLED;
+			final ArrayList<Compound> LIST = new ArrayList<Compound>(2);
+			LIST.add((Compound) POOLED);
+			LIST.add(c);
+			POOL.put(HASH, LIST);
+			size++;
+			return c;
+		}
+
+		final ArrayList<Compound> LIST = (ArrayList<Compound>) POOLED;
+		for (final Compound EXISTING : LIST)
+			if (EXISTING == c || CompoundHash.equal(EXISTING, c))
+				return EXISTING;
+		LIST.add(c);
+		size++;
+		return c;
+	}
+
+}
@@ -0,0 +1,48 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound;
+
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * Visits every identifier and element of a {@link Compound}, passed to
+ * {@link Compound#forEach(CompoundVisitor)}. Elements are visited while the
+ * {@link Compound} is locked, if its storage locks, so the {@link Compound}
+ * must not be changed by the {@link CompoundVisitor}.
+ */
+public abstract class CompoundVisitor {
+
+	/**
+	 * Called once before any element is visited, with the number of elements
+	 * which will be visited.
+	 */
+	public void begin(int size) throws Exception {}
+
+	/**
+	 * Visits the given element corresponding to the given {@link CompoundKey}.
+	 */
+	public abstract void visit(CompoundKey k, Object o) throws Exception;
+
+	/**
+	 * Visits an element of the given primitive {@link CompoundType}, as bits used by
+	 * {@link CompoundType#PRIMITIVE}, corresponding to the given {@link CompoundKey}.
+	 * Boxes the element and calls {@link #visit(CompoundKey, Object)} unless overridden.
+	 */
+	public void visitPrimitive(CompoundKey k, CompoundType t, long b) throws Exception {
+		visit(k, t.PRIMITIVE.box(b));
+	}
+
+}
@@ -0,0 +1,94 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound;
+
+import net.alexmack.compound.storage.CompoundStorageImmutable;
+
+/**
+ * A {@link Compound} which can not be changed, safe to share between any
+ * number of threads without locking. Methods which would change it throw
+ * {@link UnsupportedOperationException}, instead the <code>with</code> and
+ * <code>without</code> methods return a new {@link ImmutableCompound}
+ * which shares all unchanged structure with this one.<br><br>
+ * Elements are not copied, so an {@link ImmutableCompound} may still
+ * contain {@link Compound} elements which can be changed, unless it was
+ * created by {@link Compound#snapshot()}.
+ */
+public class ImmutableCompound extends Compound {
+
+	private final CompoundStorageImmutable STORAGE;
+	
+	/**
+	 * Creates an empty {@link ImmutableCompound}.
+	 */
+	public ImmutableCompound() {
+		this(CompoundStorageImmutable.EMPTY);
+	}
+	
+	public ImmutableCompound(CompoundStorageImmutable s) {
+		super(s);
+		STORAGE = s;
+	}
+	
+	/**
+	 * Returns an {@link ImmutableCompound} in which the given identifier
+	 * corresponds to the given element.
+	 */
+	public ImmutableCompound with(String i, Object o) {
+		return new ImmutableCompound(STORAGE.with(i, o));
+	}
+	
+	/**
+	 * Returns an {@link ImmutableCompound} in which the given {@link CompoundKey}
+	 * corresponds to the given element.
+	 */
+	public ImmutableCompound with(CompoundKey k, Object o) {
+		return new ImmutableCompound(STORAGE.with(k, o));
+	}
+	
+	/**
+	 * Returns an {@link ImmutableCompound} without the element corresponding
+	 * to the given identifier.
+	 */
+	public ImmutableCompound without(String i) {
+		final CompoundStorageImmutable WITHOUT = STORAGE.without(i);
+		return WITHOUT == STORAGE ? this : new ImmutableCompound(WITHOUT);
+	}
+	
+	/**
+	 * Returns an {@link ImmutableCompound} without the element corresponding
+	 * to the given {@link CompoundKey}.
+	 */
+	public ImmutableCompound without(CompoundKey k) {
+		final CompoundStorageImmutable WITHOUT = STORAGE.without(k);
+		return WITHOUT == STORAGE ? this : new ImmutableCompound(WITHOUT);
+	}
+	
+	/**
+	 * Returns this {@link ImmutableCompound} if it was created by {@link Compound#snapshot()},
+	 * otherwise snapshots it and every reachable {@link Compound}.
+	 */
+	@Override
+	public ImmutableCompound snapshot() {
+		return STORAGE.isDeep() ? this : super.snapshot();
+	}
+	
+	@Override
+	protected ImmutableCompound clone() {
+		return this;
+	}
+	
+}
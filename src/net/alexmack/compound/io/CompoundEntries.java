@@ -0,0 +1,83 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.util.Arrays;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.storage.CompoundStorage;
+
+/**
+ * Collects the entries of a {@link Compound}, so that they can be read under the
+ * lock of its {@link CompoundStorage} and written once the lock is released.
+ * Reused for every {@link Compound} written, so only grows to the largest.
+ */
+final class CompoundEntries extends CompoundVisitor {
+
+	CompoundKey[] keys = new CompoundKey[16];
+	Object[] elements = new Object[16];
+	/**
+	 * {@link CompoundType} of each primitive element, <code>null</code> for others.
+	 */
+	CompoundType[] types = new CompoundType[16];
+	long[] bits = new long[16];
+	int size;
+
+	@Override
+	public void begin(int s) {
+		size = 0;
+		if (s > keys.length)
+			grow(s);
+	}
+
+	@Override
+	public void visit(CompoundKey k, Object o) {
+		add(k, o, null, 0L);
+	}
+
+	@Override
+	public void visitPrimitive(CompoundKey k, CompoundType t, long b) {
+		add(k, null, t, b);
+	}
+
+	/**
+	 * Forgets the collected entries, without keeping their elements reachable.
+	 */
+	void clear() {
+		Arrays.fill(elements, 0, size, null);
+		size = 0;
+	}
+
+	private void add(CompoundKey k, Object o, CompoundType t, long b) {
+		if (size == keys.length)
+			grow(size * 2);
+		keys[size] = k;
+		elements[size] = o;
+		types[size] = t;
+		bits[size] = b;
+		size++;
+	}
+
+	private void grow(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		elements = Arrays.copyOf(elements, capacity);
+		types = Arrays.copyOf(types, capacity);
+		bits = Arrays.copyOf(bits, capacity);
+	}
+
+}
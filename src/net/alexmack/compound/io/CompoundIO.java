@@ -18,19 +18,41 @@ package net.alexmack.compound.io;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundPool;
 import net.alexmack.compound.io.operator.CompoundInput;
+import net.alexmack.compound.io.operator.CompoundInputChannel;
+import net.alexmack.compound.io.operator.CompoundInputMapped;
 import net.alexmack.compound.io.operator.CompoundInputStream;
 import net.alexmack.compound.io.operator.CompoundInputString;
 import net.alexmack.compound.io.operator.CompoundOutput;
+import net.alexmack.compound.io.operator.CompoundOutputChannel;
 import net.alexmack.compound.io.operator.CompoundOutputStream;
 import net.alexmack.compound.io.operator.CompoundOutputString;
 import net.alexmack.compound.stack.CompoundStack;
 import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
 import net.alexmack.compound.stack.CompoundStackReverse;
+import net.alexmack.compound.storage.CompoundArena;
+import net.alexmack.compound.storage.CompoundIndex;
+import net.alexmack.compound.storage.CompoundView;
 
 /**
  * Provides methods for reading/writing {@link Compound} instances.
@@ -42,6 +64,11 @@ public class CompoundIO {
 	 */
 	public static final int RADIX = 32;
 	
+	/**
+	 * Stands for a removed element while the changes to a {@link Compound} are written.
+	 */
+	private static final Object REMOVED = new Object();
+	
 	/**
 	 * Returns the given {@link Compound} written as a formatted {@link String}.
 	 */
@@ -52,10 +79,160 @@ public class CompoundIO {
 	}
 	
 	/**
-	 * Writes the given {@link Compound} to the given {@link File}.
+	 * Writes the given {@link Compound} to the given {@link File}, see
+	 * {@link #write(Compound, File, boolean)}.
 	 */
 	public static void write(final Compound COMPOUND, final File FILE) throws Exception {
-		write(COMPOUND, new DataOutputStream(new FileOutputStream(FILE)));
+		write(COMPOUND, FILE, false);
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link File} through a {@link CompoundOutputChannel}.
+	 * The data is written to a temporary file beside it which then replaces the {@link File}, so that it
+	 * is never left partly written. If requested, the data is forced to the storage device first, so that
+	 * it survives a crash.
+	 */
+	public static void write(final Compound COMPOUND, final File FILE, final boolean FORCE) throws Exception {
+		writeFile(FILE, FORCE, new CompoundIOFile(){
+			
+			@Override
+			public void write(CompoundOutputChannel out) throws Exception {
+				CompoundIO.write(COMPOUND, out);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link File} without blocking, see
+	 * {@link #writeAsync(Compound, File, boolean, Executor)}.
+	 */
+	public static CompletableFuture<Void> writeAsync(final Compound COMPOUND, final File FILE, final Executor EXECUTOR) {
+		return writeAsync(COMPOUND, FILE, false, EXECUTOR);
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link File} as {@link #write(Compound, File, boolean)}
+	 * does, but without blocking. The {@link Compound} is encoded using the given {@link Executor} while
+	 * earlier data is written by an {@link AsynchronousFileChannel}, and the returned {@link CompletableFuture}
+	 * completes once the {@link File} has been replaced. The {@link Compound} must not be changed meanwhile,
+	 * so write a {@link Compound#snapshot()} of a {@link Compound} which may be.
+	 */
+	public static CompletableFuture<Void> writeAsync(final Compound COMPOUND, final File FILE, final boolean FORCE, final Executor EXECUTOR) {
+		return CompoundIOAsync.write(COMPOUND, FILE, FORCE, EXECUTOR);
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link File} as {@link #write(Compound, File, boolean)}
+	 * does, followed by an index of where each {@link Compound} is in the {@link File}. The {@link File} is
+	 * still read by {@link #read(File)}, and by {@link #readIndexed(File)} without reading every {@link Compound}.
+	 * See {@link CompoundIndex}.
+	 */
+	public static void writeIndexed(final Compound COMPOUND, final File FILE, final boolean FORCE) throws Exception {
+		writeFile(FILE, FORCE, new CompoundIOFile(){
+			
+			@Override
+			public void write(CompoundOutputChannel out) throws Exception {
+				final CompoundStack STACK = new CompoundStack();
+				final CompoundEntries ENTRIES = new CompoundEntries();
+				STACK.addRoot(COMPOUND);
+				// Offset of the body of every Compound, in address order after the root.
+				long[] offsets = new long[16];
+				int count = 1;
+				offsets[0] = out.position();
+				writeStacked(COMPOUND, out, STACK, ENTRIES);
+				while (STACK.nextItemExists()) {
+					out.writeBoolean(false);
+					final CompoundStackItem ITEM = STACK.nextItem();
+					writeAddress(ITEM.ADDRESS, out);
+					if (count == offsets.length)
+						offsets = Arrays.copyOf(offsets, count * 2);
+					offsets[count++] = out.position();
+					writeStacked(ITEM.COMPOUND, out, STACK, ENTRIES);
+				}
+				out.writeBoolean(true);
+				
+				final long INDEX = out.position();
+				for (int i = 0; i != count; i++)
+					out.writeLong(offsets[i]);
+				out.writeLong(INDEX);
+				out.writeLong(CompoundIndex.MAGIC);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Writes the given {@link Compound} with an index, see {@link #writeIndexed(Compound, File, boolean)}.
+	 */
+	public static void writeIndexed(final Compound COMPOUND, final File FILE) throws Exception {
+		writeIndexed(COMPOUND, FILE, false);
+	}
+	
+	/**
+	 * Writes data to a {@link CompoundOutputChannel} for {@link CompoundIO#writeFile(File, boolean, CompoundIOFile)}.
+	 */
+	private interface CompoundIOFile {
+		
+		void write(CompoundOutputChannel out) throws Exception;
+		
+	}
+	
+	/**
+	 * Writes to a temporary file beside the given {@link File} through a {@link CompoundOutputChannel}
+	 * using the given {@link CompoundIOFile}, then replaces the {@link File} with it, forcing the data
+	 * to the storage device first if requested.
+	 */
+	private static void writeFile(final File FILE, final boolean FORCE, final CompoundIOFile WRITER) throws Exception {
+		final Path TARGET = FILE.getAbsoluteFile().toPath();
+		final Path TEMPORARY = Files.createTempFile(TARGET.getParent(), "." + TARGET.getFileName(), ".tmp");
+		try {
+			final FileChannel CHANNEL = FileChannel.open(TEMPORARY, StandardOpenOption.WRITE);
+			try {
+				final CompoundOutputChannel OUTPUT = new CompoundOutputChannel(CHANNEL);
+				WRITER.write(OUTPUT);
+				OUTPUT.flush();
+				if (FORCE)
+					CHANNEL.force(true);
+			}finally{
+				CHANNEL.close();
+			}
+			replace(TEMPORARY, TARGET, FORCE);
+		}finally{
+			Files.deleteIfExists(TEMPORARY);
+		}
+	}
+	
+	/**
+	 * Replaces the given target file with the given temporary file, atomically where the
+	 * platform allows, forcing the change to the storage device if requested.
+	 */
+	static void replace(final Path TEMPORARY, final Path TARGET, final boolean FORCE) throws IOException {
+		try {
+			Files.move(TEMPORARY, TARGET, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}catch (AtomicMoveNotSupportedException e) {
+			Files.move(TEMPORARY, TARGET, StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		if (FORCE)
+			forceDirectory(TARGET.getParent());
+	}
+	
+	/**
+	 * Forces the entry of a renamed file in the given directory to the storage
+	 * device, where the platform allows a directory to be opened.
+	 */
+	private static void forceDirectory(final Path DIRECTORY) {
+		try {
+			final FileChannel CHANNEL = FileChannel.open(DIRECTORY, StandardOpenOption.READ);
+			try {
+				CHANNEL.force(true);
+			}finally{
+				CHANNEL.close();
+			}
+		}catch (IOException e) {
+			// Directories can not be opened on every platform.
+		}
 	}
 	
 	/**
@@ -67,48 +244,208 @@ public class CompoundIO {
 	
 	/**
 	 * Writes the given {@link Compound} to the given {@link CompoundOutput}.
+	 * To consistently write a {@link Compound} which is being changed by other
+	 * threads, write its {@link Compound#snapshot()}, in which every reachable
+	 * {@link Compound} is frozen and read without locking.
 	 */
 	public static void write(final Compound COMPOUND, final CompoundOutput OUTPUT) throws Exception {
 		// Create the stack to be used.
 		final CompoundStack STACK = new CompoundStack();
+		final CompoundEntries ENTRIES = new CompoundEntries();
 		// Define the stack root.
 		STACK.addRoot(COMPOUND);
+		OUTPUT.writeHeader();
 		// Write the root Compound.
-		writeStacked(COMPOUND, OUTPUT, STACK);
-		
+		writeStacked(COMPOUND, OUTPUT, STACK, ENTRIES);
+		// Write every Compound element.
+		writeQueued(OUTPUT, STACK, ENTRIES, false);
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link CompoundOutput} using the common
+	 * {@link ForkJoinPool}, see {@link #writeParallel(Compound, CompoundOutput, ForkJoinPool)}.
+	 */
+	public static void writeParallel(final Compound COMPOUND, final CompoundOutput OUTPUT) throws Exception {
+		writeParallel(COMPOUND, OUTPUT, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link CompoundOutput} exactly as
+	 * {@link #write(Compound, CompoundOutput)} does, encoding {@link Compound}s in parallel
+	 * using the given {@link ForkJoinPool}. Every {@link Compound} is found before any is
+	 * written, the graph must not be changed meanwhile, so write a {@link Compound#snapshot()}
+	 * of a {@link Compound} being changed by other threads. Output which is not
+	 * {@link CompoundOutput#isBinary()} is written sequentially.
+	 */
+	public static void writeParallel(final Compound COMPOUND, final CompoundOutput OUTPUT, final ForkJoinPool POOL) throws Exception {
+		if (OUTPUT.isBinary())
+			CompoundIOParallel.write(COMPOUND, OUTPUT, POOL);
+		else
+			write(COMPOUND, OUTPUT);
+	}
+	
+	/**
+	 * Interns the given {@link Compound} in the given {@link CompoundPool}, so that structurally
+	 * equal {@link Compound}s within it are written once, and writes the result to the given
+	 * {@link CompoundOutput}. Interning changes the graph, see {@link CompoundPool}.
+	 */
+	public static void write(final Compound COMPOUND, final CompoundOutput OUTPUT, final CompoundPool POOL) throws Exception {
+		write(POOL.intern(COMPOUND), OUTPUT);
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given {@link CompoundOutput} as {@link #write(Compound, CompoundOutput)}
+	 * does, and starts tracking changes to every {@link Compound} written. The given empty {@link CompoundStack} must
+	 * be kept, so that the changes can later be written by {@link #writeDelta(CompoundOutput, CompoundStack)}.
+	 */
+	public static void writeTracked(final Compound COMPOUND, final CompoundOutput OUTPUT, final CompoundStack STACK) throws Exception {
+		STACK.addRoot(COMPOUND);
+		COMPOUND.checkpoint(STACK);
+		final CompoundEntries ENTRIES = new CompoundEntries();
+		OUTPUT.writeHeader();
+		writeStacked(COMPOUND, OUTPUT, STACK, ENTRIES);
+		writeQueued(OUTPUT, STACK, ENTRIES, true);
+	}
+	
+	/**
+	 * Writes the elements set or removed since the last write of every {@link Compound} in the given
+	 * {@link CompoundStack}, as returned by {@link Compound#checkpoint(CompoundStack)}. Only the
+	 * {@link Compound}s which told the {@link CompoundStack} of a change are visited. {@link Compound}
+	 * elements not yet in the {@link CompoundStack} are written in full and tracked from then on. The
+	 * changes are applied to the {@link Compound}s read by {@link #readTracked(CompoundInput, CompoundStackReverse)}
+	 * using {@link #applyDelta(CompoundInput, CompoundStackReverse)}.
+	 */
+	public static void writeDelta(final CompoundOutput OUTPUT, final CompoundStack STACK) throws Exception {
+		final CompoundEntries ENTRIES = new CompoundEntries();
+		OUTPUT.writeHeader();
+		for (final CompoundStackItem ITEM : STACK.takeChanged()) {
+			// Take the changes and read each changed element once, all under one lock.
+			ITEM.COMPOUND.update(new Consumer<Compound>(){
+				
+				@Override
+				public void accept(Compound c) {
+					final CompoundKey[] CHANGES = c.checkpoint(STACK);
+					ENTRIES.begin(CHANGES.length);
+					for (final CompoundKey KEY : CHANGES) {
+						final Object VALUE = c.get(KEY);
+						ENTRIES.visit(KEY, VALUE == null && !c.has(KEY) ? REMOVED : VALUE);
+					}
+				}
+				
+			});
+			if (ENTRIES.size == 0)
+				continue;
+			
+			try {
+				// Indicates there is at least one more changed Compound.
+				OUTPUT.writeBoolean(false);
+				writeAddress(ITEM.ADDRESS, OUTPUT);
+				OUTPUT.writeInt(ENTRIES.size);
+				for (int e = 0; e != ENTRIES.size; e++) {
+					OUTPUT.writeIdentifier(ENTRIES.keys[e].ID);
+					// Indicates whether the element was removed.
+					final boolean WAS_REMOVED = ENTRIES.elements[e] == REMOVED;
+					OUTPUT.writeBoolean(WAS_REMOVED);
+					if (!WAS_REMOVED)
+						writeElement(ENTRIES.elements[e], OUTPUT, STACK);
+				}
+			}finally{
+				ENTRIES.clear();
+			}
+			OUTPUT.endBody();
+		}
+		// Indicates all changed Compounds have been written.
+		OUTPUT.writeBoolean(true);
+		// Write any Compound elements which are new.
+		writeQueued(OUTPUT, STACK, ENTRIES, true);
+	}
+	
+	/**
+	 * Writes every {@link Compound} waiting in the given {@link CompoundStack}, each preceded
+	 * by its address, followed by the end marker. Changes to each {@link Compound} are tracked
+	 * from just before it is written if requested.
+	 */
+	static void writeQueued(final CompoundOutput OUTPUT, final CompoundStack STACK, final CompoundEntries ENTRIES, final boolean TRACK) throws Exception {
 		// Keep writing Compounds until the stack is empty.
 		while (STACK.nextItemExists()) {
 			// Indicates there are is at least one more Compound.
 			OUTPUT.writeBoolean(false);
 			final CompoundStackItem ITEM = STACK.nextItem();
 			// Write the address assigned to the Compound being written.
-			OUTPUT.writeLong(ITEM.ADDRESS);
+			writeAddress(ITEM.ADDRESS, OUTPUT);
+			if (TRACK)
+				ITEM.COMPOUND.checkpoint(STACK);
 			// Write the Compound.
-			writeStacked(ITEM.COMPOUND, OUTPUT, STACK);
+			writeStacked(ITEM.COMPOUND, OUTPUT, STACK, ENTRIES);
 		}
 		// Indicates all Compounds have been written.
 		OUTPUT.writeBoolean(true);
+		OUTPUT.writeFooter();
 	}
 	
 	/**
 	 * Writes the given {@link Compound} to the given {@link CompoundOutput}, adding
 	 * any {@link Compound} elements to the given {@link CompoundStack} and instead
-	 * writing the assigned address.
-	 */
-	private static void writeStacked(final Compound COMPOUND, final CompoundOutput OUTPUT, final CompoundStack STACK) throws Exception {
-		final String[] IDENTIFIERS = COMPOUND.getAllIdentifiers();
-		OUTPUT.writeInt(IDENTIFIERS.length);
-		for (final String I : IDENTIFIERS) {
-			final Object VALUE = COMPOUND.get(I);
-			final CompoundType TYPE = CompoundType.get(VALUE);
-			OUTPUT.writeString(I);
-			OUTPUT.writeByte(TYPE.ID);
-			
-			if (TYPE == CompoundType.COMPOUND)
-				OUTPUT.writeLong(STACK.add((Compound) VALUE));
-			else if (TYPE.isValid())
-				TYPE.IO.write(OUTPUT, VALUE);
+	 * writing the assigned address. The entries are collected into the given
+	 * {@link CompoundEntries} first.
+	 */
+	static void writeStacked(final Compound COMPOUND, final CompoundOutput OUTPUT, final CompoundStack STACK, final CompoundEntries ENTRIES) throws Exception {
+		// Storage holding the body already encoded can copy it straight out.
+		if (OUTPUT.isBinary() && COMPOUND.getStorage().writeBody(OUTPUT, STACK)) {
+			OUTPUT.endBody();
+			return;
+		}
+		
+		// Collect the entries under the storage's lock, primitive elements without boxing,
+		// then write them once it is released so slow output never blocks other threads.
+		COMPOUND.forEach(ENTRIES);
+		try {
+			OUTPUT.writeInt(ENTRIES.size);
+			for (int e = 0; e != ENTRIES.size; e++) {
+				OUTPUT.writeIdentifier(ENTRIES.keys[e].ID);
+				final CompoundType TYPE = ENTRIES.types[e];
+				if (TYPE == null)
+					writeElement(ENTRIES.elements[e], OUTPUT, STACK);
+				else
+					writePrimitive(TYPE, ENTRIES.bits[e], OUTPUT);
+			}
+		}finally{
+			ENTRIES.clear();
 		}
+		OUTPUT.endBody();
+	}
+	
+	/**
+	 * Writes the type of the given element followed by the element, adding a {@link Compound}
+	 * element to the given {@link CompoundStack} and instead writing the assigned address.
+	 */
+	static void writeElement(final Object VALUE, final CompoundOutput OUTPUT, final CompoundStack STACK) throws Exception {
+		// Types added by later versions are widened for earlier ones.
+		final CompoundType TYPE = CompoundType.get(VALUE).forVersion(OUTPUT.getVersion());
+		OUTPUT.writeByte(TYPE.ID);
+		
+		if (TYPE == CompoundType.COMPOUND)
+			writeAddress(STACK.add((Compound) VALUE), OUTPUT);
+		else if (TYPE.isValid())
+			TYPE.IO.write(OUTPUT, VALUE);
+	}
+	
+	/**
+	 * Writes the type of a primitive element followed by the given bits, widening
+	 * the type if it was added by a later version than that being written.
+	 */
+	static void writePrimitive(final CompoundType STORED, final long BITS, final CompoundOutput OUTPUT) throws Exception {
+		final CompoundType TYPE = STORED.forVersion(OUTPUT.getVersion());
+		OUTPUT.writeByte(TYPE.ID);
+		TYPE.PRIMITIVE.writeBits(OUTPUT, TYPE.convert(STORED, BITS));
+	}
+	
+	/**
+	 * Writes the given address. Later versions write it relative to the first address
+	 * assigned by {@link CompoundStack}, so that it is small, and the root as <code>-1</code>.
+	 */
+	static void writeAddress(final long ADDRESS, final CompoundOutput OUTPUT) throws Exception {
+		OUTPUT.writeLong(OUTPUT.getVersion() >= 2 ? ADDRESS - Long.MIN_VALUE : ADDRESS);
 	}
 	
 	/**
@@ -120,10 +457,57 @@ public class CompoundIO {
 	}
 	
 	/**
-	 * Reads a {@link Compound} from the given {@link File}.
+	 * Reads a {@link Compound} from the given {@link File} through a {@link CompoundInputChannel}.
 	 */
 	public static Compound read(final File FILE) throws Exception {
-		return read(new DataInputStream(new FileInputStream(FILE)));
+		final FileChannel CHANNEL = FileChannel.open(FILE.toPath(), StandardOpenOption.READ);
+		try {
+			return read(new CompoundInputChannel(CHANNEL));
+		}finally{
+			CHANNEL.close();
+		}
+	}
+	
+	/**
+	 * Reads a {@link Compound} from the given {@link File} without blocking, returning a {@link CompletableFuture}
+	 * completed with it. The {@link File} is read ahead by an {@link AsynchronousFileChannel} while what has
+	 * been read is decoded using the given {@link Executor}.
+	 */
+	public static CompletableFuture<Compound> readAsync(final File FILE, final Executor EXECUTOR) {
+		return CompoundIOAsync.read(FILE, EXECUTOR);
+	}
+	
+	/**
+	 * Reads a {@link Compound} from the given {@link File} mapped into memory
+	 * by a {@link CompoundInputMapped}, which suits large files.
+	 */
+	public static Compound readMapped(final File FILE) throws Exception {
+		return read(new CompoundInputMapped(FILE));
+	}
+	
+	/**
+	 * Returns the root {@link Compound} in the given {@link File} written by {@link #writeIndexed(Compound, File)}.
+	 * Each {@link Compound} is read from the {@link File} only when first used, see {@link CompoundIndex}.
+	 */
+	public static Compound readIndexed(final File FILE) throws Exception {
+		return new CompoundIndex(FILE).getRoot();
+	}
+	
+	/**
+	 * Reads a {@link Compound} from the given {@link File} using the common {@link ForkJoinPool},
+	 * see {@link #readParallel(File, ForkJoinPool)}.
+	 */
+	public static Compound readParallel(final File FILE) throws Exception {
+		return readParallel(FILE, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Reads a {@link Compound} from the given {@link File} written by {@link #writeIndexed(Compound, File)},
+	 * mapped into memory, decoding batches of {@link Compound}s in parallel using the given {@link ForkJoinPool}.
+	 * A {@link File} without an index is read sequentially.
+	 */
+	public static Compound readParallel(final File FILE, final ForkJoinPool POOL) throws Exception {
+		return CompoundIOParallel.read(FILE, POOL);
 	}
 	
 	/**
@@ -134,42 +518,165 @@ public class CompoundIO {
 	}
 
 	/**
-	 * Reads a {@link Compound} from the given {@link CompoundInput}.
+	 * Reads a {@link Compound} from the given {@link CompoundInput}. A {@link CompoundInputStream}
+	 * detects whether the data is in the compact format, so either format is read.
 	 */
 	public static Compound read(final CompoundInput INPUT) throws Exception {
 		// Create the root Compound.
 		final Compound COMPOUND = new Compound();
-		// Create the stack to be used.
-		final CompoundStackReverse STACK = new CompoundStackReverse(COMPOUND);
-		// Populate the root Compound.
-		readInto(COMPOUND, INPUT, STACK);
-		
-		// Keep reading until there are no more Compounds to be read.
-		while (!INPUT.readBoolean()) {
-			// Read the address to be populated.
-			final long ADDRESS = INPUT.readLong();
-			// Populate the specified Compound.
-			readInto(STACK.get(Long.valueOf(ADDRESS)), INPUT, STACK);
-		}
-		
+		read(INPUT, new CompoundStackReverse(COMPOUND));
 		return COMPOUND;
 	}
 	
 	/**
-	 * Reads data from the given {@link CompoundInput} into the given {@link Compound} using
-	 * the given {@link CompoundStackReverse} to read {@link Compound} elements.
+	 * Reads a {@link Compound} from the given {@link CompoundInput} into the
+	 * given {@link CompoundArena}, so that it is stored off heap.
 	 */
-	private static void readInto(final Compound COMPOUND, final CompoundInput INPUT, final CompoundStackReverse STACK) throws Exception {
-		final int SIZE = INPUT.readInt();
-		for (int i = 0; i != SIZE; i++) {
-			final String IDENTIFIER = INPUT.readString();
-			final CompoundType TYPE = CompoundType.get(INPUT.readByte());
+	public static Compound read(final CompoundInput INPUT, final CompoundArena ARENA) throws Exception {
+		// Create the root Compound.
+		final Compound COMPOUND = ARENA.create();
+		read(INPUT, new CompoundStackReverse(COMPOUND){
+			
+			@Override
+			protected Compound create() {
+				return ARENA.create();
+			}
 			
-			if (TYPE == CompoundType.COMPOUND)
-				COMPOUND.set(IDENTIFIER, STACK.get(Long.valueOf(INPUT.readLong())));
-			else if (TYPE.isValid())
-				COMPOUND.set(IDENTIFIER, TYPE.IO.read(INPUT));
+		});
+		return COMPOUND;
+	}
+	
+	/**
+	 * Reads a {@link Compound} written by {@link #writeTracked(Compound, CompoundOutput, CompoundStack)}
+	 * into the root of the given {@link CompoundStackReverse}, which must be kept to apply changes
+	 * with {@link #applyDelta(CompoundInput, CompoundStackReverse)}.
+	 */
+	public static Compound readTracked(final CompoundInput INPUT, final CompoundStackReverse STACK) throws Exception {
+		read(INPUT, STACK);
+		return STACK.get(Long.valueOf(CompoundStackItem.ADDRESS_ROOT));
+	}
+	
+	/**
+	 * Applies changes written by {@link #writeDelta(CompoundOutput, CompoundStack)} to the
+	 * {@link Compound}s in the given {@link CompoundStackReverse}.
+	 */
+	public static void applyDelta(final CompoundInput INPUT, final CompoundStackReverse STACK) throws Exception {
+		final CompoundParser PARSER = new CompoundParser(INPUT.detect(), true);
+		final CompoundInput DETECTED = PARSER.getInput();
+		final Map<String, CompoundKey> KEYS = new HashMap<String, CompoundKey>();
+		// Apply changes until there are no more changed Compounds.
+		while (!DETECTED.readBoolean()) {
+			final long ADDRESS = CompoundParser.readAddress(DETECTED);
+			final Compound COMPOUND = STACK.get(Long.valueOf(ADDRESS));
+			final int SIZE = DETECTED.readInt();
+			for (int i = 0; i != SIZE; i++) {
+				final CompoundKey KEY = key(DETECTED.readIdentifier(), KEYS);
+				if (DETECTED.readBoolean()) {
+					COMPOUND.remove(KEY);
+				}else{
+					PARSER.element();
+					set(COMPOUND, KEY, PARSER, STACK);
+				}
+			}
+			DETECTED.endBody(ADDRESS);
+		}
+		
+		// Populate any new Compounds.
+		while (!DETECTED.readBoolean()) {
+			final long ADDRESS = CompoundParser.readAddress(DETECTED);
+			final Compound COMPOUND = STACK.get(Long.valueOf(ADDRESS));
+			final int SIZE = DETECTED.readInt();
+			for (int i = 0; i != SIZE; i++) {
+				final CompoundKey KEY = key(DETECTED.readIdentifier(), KEYS);
+				PARSER.element();
+				set(COMPOUND, KEY, PARSER, STACK);
+			}
+			DETECTED.endBody(ADDRESS);
+		}
+		DETECTED.readFooter();
+	}
+	
+	/**
+	 * Reads every {@link Compound} from the given {@link CompoundInput} with a {@link CompoundParser},
+	 * populating those returned by the given {@link CompoundStackReverse}, starting with the root.
+	 */
+	private static void read(final CompoundInput INPUT, final CompoundStackReverse STACK) throws Exception {
+		final CompoundParser PARSER = new CompoundParser(INPUT);
+		// Identifiers repeat between Compounds, share one CompoundKey for each.
+		final Map<String, CompoundKey> KEYS = new HashMap<String, CompoundKey>();
+		Compound compound = null;
+		for (CompoundParser.Event event = PARSER.next(); event != CompoundParser.Event.END; event = PARSER.next()) {
+			if (event == CompoundParser.Event.START_COMPOUND)
+				// Populate the specified Compound.
+				compound = STACK.get(Long.valueOf(PARSER.getAddress()));
+			else if (event != CompoundParser.Event.END_COMPOUND)
+				set(compound, key(PARSER.getIdentifier(), KEYS), PARSER, STACK);
+		}
+	}
+	
+	/**
+	 * Returns a {@link Compound} written to the given <code>byte</code> array, see
+	 * {@link #readLazy(ByteBuffer)}.
+	 * @throws IllegalArgumentException if the data is compact, compressed or checked.
+	 */
+	public static Compound readLazy(final byte[] BYTES) {
+		return readLazy(ByteBuffer.wrap(BYTES));
+	}
+	
+	/**
+	 * Returns a {@link Compound} written to the given {@link ByteBuffer}, from its position,
+	 * without decoding it. Elements are decoded from the buffer each time they are requested,
+	 * until the {@link Compound} containing them is changed. Only data written as by
+	 * {@link CompoundOutputStream} can be read lazily, as elements must be at fixed offsets.
+	 * @throws IllegalArgumentException if the data is compact, compressed or checked.
+	 */
+	public static Compound readLazy(final ByteBuffer BUFFER) {
+		return new CompoundView(BUFFER).getRoot();
+	}
+	
+	/**
+	 * Returns a {@link Compound} written to the given {@link File}, which is mapped into memory
+	 * and read as by {@link #readLazy(ByteBuffer)}. The {@link File} must not be changed while the
+	 * {@link Compound} is in use, and must be smaller than 2 GB.
+	 * @throws IllegalArgumentException if the data is compact, compressed or checked.
+	 */
+	public static Compound readLazy(final File FILE) throws Exception {
+		final FileChannel CHANNEL = FileChannel.open(FILE.toPath(), StandardOpenOption.READ);
+		try {
+			if (CHANNEL.size() > Integer.MAX_VALUE)
+				throw new IOException("Too large to read lazily: " + CHANNEL.size() + " bytes");
+			return readLazy(CHANNEL.map(FileChannel.MapMode.READ_ONLY, 0L, CHANNEL.size()));
+		}finally{
+			CHANNEL.close();
+		}
+	}
+	
+	/**
+	 * Sets the element last read by the given {@link CompoundParser} in the given {@link Compound}
+	 * as corresponding to the given {@link CompoundKey}, using the given {@link CompoundStackReverse}
+	 * for {@link Compound} elements.
+	 */
+	static void set(final Compound COMPOUND, final CompoundKey KEY, final CompoundParser PARSER, final CompoundStackReverse STACK) {
+		final CompoundType TYPE = PARSER.getType();
+		if (PARSER.getEvent() == CompoundParser.Event.REFERENCE)
+			COMPOUND.set(KEY, STACK.get(Long.valueOf(PARSER.getAddress())));
+		else if (PARSER.isPrimitive())
+			COMPOUND.setPrimitive(KEY, TYPE, PARSER.getBits());
+		else if (TYPE.isValid())
+			COMPOUND.set(KEY, PARSER.getValue());
+	}
+	
+	/**
+	 * Returns the {@link CompoundKey} in the given {@link Map} for the given identifier,
+	 * creating and adding one if there is none.
+	 */
+	static CompoundKey key(final String IDENTIFIER, final Map<String, CompoundKey> KEYS) {
+		CompoundKey key = KEYS.get(IDENTIFIER);
+		if (key == null) {
+			key = CompoundKey.of(IDENTIFIER);
+			KEYS.put(IDENTIFIER, key);
 		}
+		return key;
 	}
 	
 	/**
@@ -0,0 +1,103 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.io.File;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.operator.CompoundInputAsync;
+import net.alexmack.compound.io.operator.CompoundOutputAsync;
+
+/**
+ * Reads and writes {@link Compound}s in files for {@link CompoundIO} without blocking the caller.
+ * Encoding and decoding run on a given {@link Executor}, while the file is read ahead or written
+ * behind by an {@link AsynchronousFileChannel} in its default thread pool, so that the two overlap.
+ * The channel does not share the {@link Executor}, which may be too busy decoding to finish a read.
+ */
+class CompoundIOAsync {
+
+	/**
+	 * Returns a {@link CompletableFuture} completed with the {@link Compound} read from the
+	 * given {@link File} through a {@link CompoundInputAsync}, decoded using the given
+	 * {@link Executor}.
+	 */
+	static CompletableFuture<Compound> read(final File FILE, final Executor EXECUTOR) {
+		return CompletableFuture.supplyAsync(new Supplier<Compound>(){
+			
+			@Override
+			public Compound get() {
+				try {
+					final AsynchronousFileChannel CHANNEL = AsynchronousFileChannel.open(FILE.toPath(), StandardOpenOption.READ);
+					try {
+						return CompoundIO.read(new CompoundInputAsync(CHANNEL));
+					}finally{
+						CHANNEL.close();
+					}
+				}catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+			
+		}, EXECUTOR);
+	}
+	
+	/**
+	 * Returns a {@link CompletableFuture} completed once the given {@link Compound} has been
+	 * encoded using the given {@link Executor} and written through a {@link CompoundOutputAsync}
+	 * to a temporary file, which then replaces the given {@link File} as in
+	 * {@link CompoundIO#write(Compound, File, boolean)}.
+	 */
+	static CompletableFuture<Void> write(final Compound COMPOUND, final File FILE, final boolean FORCE, final Executor EXECUTOR) {
+		return CompletableFuture.supplyAsync(new Supplier<Void>(){
+			
+			@Override
+			public Void get() {
+				try {
+					final Path TARGET = FILE.getAbsoluteFile().toPath();
+					final Path TEMPORARY = Files.createTempFile(TARGET.getParent(), "." + TARGET.getFileName(), ".tmp");
+					try {
+						final AsynchronousFileChannel CHANNEL = AsynchronousFileChannel.open(TEMPORARY, StandardOpenOption.WRITE);
+						try {
+							final CompoundOutputAsync OUTPUT = new CompoundOutputAsync(CHANNEL);
+							CompoundIO.write(COMPOUND, OUTPUT);
+							OUTPUT.flush();
+							if (FORCE)
+								CHANNEL.force(true);
+						}finally{
+							CHANNEL.close();
+						}
+						CompoundIO.replace(TEMPORARY, TARGET, FORCE);
+					}finally{
+						Files.deleteIfExists(TEMPORARY);
+					}
+					return null;
+				}catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+			
+		}, EXECUTOR);
+	}
+	
+}
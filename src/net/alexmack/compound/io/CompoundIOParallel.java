@@ -0,0 +1,201 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.operator.CompoundInputMapped;
+import net.alexmack.compound.io.operator.CompoundOutput;
+import net.alexmack.compound.io.operator.CompoundOutputBuffer;
+import net.alexmack.compound.stack.CompoundStack;
+import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
+import net.alexmack.compound.stack.CompoundStackReverse;
+import net.alexmack.compound.stack.CompoundStackReverseConcurrent;
+import net.alexmack.compound.storage.CompoundIndex;
+
+/**
+ * Reads and writes {@link Compound}s for {@link CompoundIO} using a {@link ForkJoinPool}.<br><br>
+ * When writing, every {@link Compound} is first assigned an address in the order {@link CompoundIO}
+ * would, then batches of {@link Compound}s are encoded on the pool, each to its own buffer, and the
+ * buffers are written in address order.<br><br>
+ * When reading a file with an index, see {@link CompoundIndex}, batches of bodies are decoded on
+ * the pool, each from the offset given by the index, sharing a {@link CompoundStackReverseConcurrent}.
+ */
+class CompoundIOParallel {
+
+	/**
+	 * Number of {@link Compound}s encoded by each task.
+	 */
+	static final int BATCH = 512;
+	
+	/**
+	 * {@link CompoundStack} returning addresses already assigned, which may
+	 * so be used by many threads at once.
+	 */
+	private static class CompoundStackAssigned extends CompoundStack {
+		
+		private final Map<Compound, Long> ADDRESSES;
+		
+		CompoundStackAssigned(Map<Compound, Long> a) {
+			ADDRESSES = a;
+		}
+		
+		@Override
+		public long add(Compound c) {
+			final Long ADDRESS = ADDRESSES.get(c);
+			if (ADDRESS == null)
+				throw new IllegalStateException("Compound added while being written!");
+			return ADDRESS.longValue();
+		}
+		
+	}
+	
+	/**
+	 * Writes the given {@link Compound} to the given binary {@link CompoundOutput}
+	 * exactly as {@link CompoundIO#write(Compound, CompoundOutput)} would.
+	 */
+	static void write(final Compound COMPOUND, final CompoundOutput OUTPUT, final ForkJoinPool POOL) throws Exception {
+		// Assign every address first, in the order they would be written.
+		final Map<Compound, Long> ADDRESSES = new IdentityHashMap<Compound, Long>();
+		final ArrayList<Compound> COMPOUNDS = new ArrayList<Compound>();
+		ADDRESSES.put(COMPOUND, Long.valueOf(CompoundStackItem.ADDRESS_ROOT));
+		COMPOUNDS.add(COMPOUND);
+		final CompoundVisitor ASSIGN = new CompoundVisitor(){
+			
+			private long address = Long.MIN_VALUE;
+			
+			@Override
+			public void visit(CompoundKey k, Object o) {
+				if (o instanceof Compound && !ADDRESSES.containsKey(o)) {
+					ADDRESSES.put((Compound) o, Long.valueOf(address++));
+					COMPOUNDS.add((Compound) o);
+				}
+			}
+			
+			@Override
+			public void visitPrimitive(CompoundKey k, CompoundType t, long b) {}
+			
+		};
+		for (int c = 0; c != COMPOUNDS.size(); c++)
+			COMPOUNDS.get(c).forEach(ASSIGN);
+		
+		final CompoundStack STACK = new CompoundStackAssigned(ADDRESSES);
+		OUTPUT.writeHeader();
+		// Keep a few batches in flight for each thread, writing each as soon as it is first in line.
+		final ArrayDeque<ForkJoinTask<CompoundOutputBuffer>> TASKS = new ArrayDeque<ForkJoinTask<CompoundOutputBuffer>>();
+		final int IN_FLIGHT = POOL.getParallelism() * 4;
+		int next = 0;
+		while (next != COMPOUNDS.size() || !TASKS.isEmpty()) {
+			while (next != COMPOUNDS.size() && TASKS.size() < IN_FLIGHT) {
+				final int START = next, END = Math.min(COMPOUNDS.size(), next + BATCH);
+				TASKS.add(POOL.submit(new Callable<CompoundOutputBuffer>(){
+					
+					@Override
+					public CompoundOutputBuffer call() throws Exception {
+						final CompoundOutputBuffer BUFFER = new CompoundOutputBuffer();
+						final CompoundEntries ENTRIES = new CompoundEntries();
+						for (int c = START; c != END; c++) {
+							final Compound BATCHED = COMPOUNDS.get(c);
+							if (c != 0) {
+								// Indicates there are is at least one more Compound.
+								BUFFER.writeBoolean(false);
+								CompoundIO.writeAddress(ADDRESSES.get(BATCHED).longValue(), BUFFER);
+							}
+							CompoundIO.writeStacked(BATCHED, BUFFER, STACK, ENTRIES);
+						}
+						return BUFFER;
+					}
+					
+				}));
+				next = END;
+			}
+			OUTPUT.writeBytes(TASKS.poll().join().buffer());
+		}
+		// Indicates all Compounds have been written.
+		OUTPUT.writeBoolean(true);
+		OUTPUT.writeFooter();
+	}
+	
+	/**
+	 * Reads a {@link Compound} from the given {@link File}, decoding bodies in parallel if the
+	 * {@link File} has an index, otherwise reading it as {@link CompoundIO#read(CompoundInput)} would.
+	 */
+	static Compound read(final File FILE, final ForkJoinPool POOL) throws Exception {
+		final CompoundInputMapped INPUT = new CompoundInputMapped(FILE);
+		final long SIZE = INPUT.size();
+		long index = -1L;
+		if (SIZE >= 24) {
+			INPUT.position(SIZE - 16);
+			index = INPUT.readLong();
+			if (INPUT.readLong() != CompoundIndex.MAGIC)
+				index = -1L;
+		}
+		if (index < 0L || index > SIZE - 24) {
+			INPUT.position(0L);
+			return CompoundIO.read(INPUT);
+		}
+		
+		// The root is first in the index, followed by every other body in address order.
+		final long INDEX = index;
+		final long COUNT = (SIZE - 16 - INDEX) / 8;
+		final Compound ROOT = new Compound();
+		final CompoundStackReverse STACK = new CompoundStackReverseConcurrent(ROOT);
+		final List<Callable<Void>> TASKS = new ArrayList<Callable<Void>>();
+		for (long start = 0L; start < COUNT; start += BATCH) {
+			final long START = start, END = Math.min(COUNT, start + BATCH);
+			TASKS.add(new Callable<Void>(){
+				
+				@Override
+				public Void call() throws Exception {
+					final CompoundInputMapped BATCHED = INPUT.duplicate();
+					// Identifiers repeat between Compounds, share one CompoundKey for each.
+					final Map<String, CompoundKey> KEYS = new HashMap<String, CompoundKey>();
+					for (long e = START; e != END; e++) {
+						final long ADDRESS = e == 0L ? CompoundStackItem.ADDRESS_ROOT : Long.MIN_VALUE + e - 1;
+						BATCHED.position(INDEX + e * 8);
+						BATCHED.position(BATCHED.readLong());
+						final Compound COMPOUND = STACK.get(Long.valueOf(ADDRESS));
+						final CompoundParser PARSER = CompoundParser.body(BATCHED, ADDRESS);
+						for (CompoundParser.Event event = PARSER.next(); event != CompoundParser.Event.END; event = PARSER.next()) {
+							if (event == CompoundParser.Event.ENTRY || event == CompoundParser.Event.REFERENCE)
+								CompoundIO.set(COMPOUND, CompoundIO.key(PARSER.getIdentifier(), KEYS), PARSER, STACK);
+						}
+					}
+					return null;
+				}
+				
+			});
+		}
+		
+		for (final Future<Void> TASK : POOL.invokeAll(TASKS))
+			TASK.get();
+		return ROOT;
+	}
+	
+}
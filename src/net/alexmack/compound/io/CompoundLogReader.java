@@ -0,0 +1,212 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.operator.CompoundCRC32C;
+import net.alexmack.compound.io.operator.CompoundInputBuffer;
+
+/**
+ * Reads the records appended to a {@link File} by a {@link CompoundLogWriter} in order,
+ * from the first or from an offset saved from {@link #position()}. A record may be skipped
+ * without being read, by its length alone. A record not yet written in full is not read,
+ * so the {@link File} may be followed as records are appended by calling {@link #hasNext()}
+ * again later.
+ */
+public class CompoundLogReader implements Closeable {
+
+	private final FileChannel CHANNEL;
+	private final ByteBuffer HEADER = ByteBuffer.allocate(CompoundLogWriter.HEADER);
+	private final CompoundCRC32C CRC = new CompoundCRC32C();
+	private ByteBuffer data = ByteBuffer.allocate(256);
+	/**
+	 * Offset of the next record.
+	 */
+	private long position;
+	/**
+	 * Length and checksum of the data of the next record, the
+	 * length being <code>-1</code> until its header has been read.
+	 */
+	private int length = -1;
+	private int checksum;
+	
+	/**
+	 * Reads the given {@link File} from the first record.
+	 */
+	public CompoundLogReader(File f) throws IOException {
+		this(f, CompoundLogWriter.FIRST);
+	}
+	
+	/**
+	 * Reads the given {@link File} from the record at the given offset, as
+	 * returned by {@link #position()} or {@link CompoundLogWriter#append(Compound)}.
+	 */
+	public CompoundLogReader(File f, long offset) throws IOException {
+		this(open(f, offset), offset);
+	}
+	
+	/**
+	 * Reads the given {@link FileChannel}, already checked by {@link #check(FileChannel)}
+	 * and closed by {@link #close()}, from the record at the given offset.
+	 */
+	CompoundLogReader(FileChannel c, long offset) {
+		CHANNEL = c;
+		position = offset;
+	}
+	
+	/**
+	 * Returns whether the next record has been written in full.
+	 */
+	public boolean hasNext() throws IOException {
+		if (length >= 0)
+			return true;
+		
+		HEADER.clear();
+		if (!read(CHANNEL, HEADER, position))
+			return false;
+		final int LENGTH = HEADER.getInt(0);
+		if (LENGTH < 0)
+			throw new IOException("Invalid record at offset " + position + "!");
+		if (position + CompoundLogWriter.HEADER + LENGTH > CHANNEL.size())
+			return false;
+		
+		length = LENGTH;
+		checksum = HEADER.getInt(4);
+		return true;
+	}
+	
+	/**
+	 * Reads the next record, throwing an {@link IOException} if it has been corrupted.
+	 */
+	public Compound next() throws Exception {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		if (!load())
+			throw new IOException("Checksum mismatch in the record at offset " + position + "!");
+		final Compound COMPOUND = CompoundIO.read(new CompoundInputBuffer(data));
+		skip();
+		return COMPOUND;
+	}
+	
+	/**
+	 * Moves past the next record if it has been written in full and matches its
+	 * checksum, returning whether it did. Used to find where a {@link File} should
+	 * be truncated, so an invalid length also returns <code>false</code>.
+	 */
+	boolean skipValid() throws IOException {
+		HEADER.clear();
+		if (!read(CHANNEL, HEADER, position))
+			return false;
+		final int LENGTH = HEADER.getInt(0);
+		if (LENGTH < 0 || position + CompoundLogWriter.HEADER + LENGTH > CHANNEL.size())
+			return false;
+		
+		length = LENGTH;
+		checksum = HEADER.getInt(4);
+		if (!load()) {
+			length = -1;
+			return false;
+		}
+		skip();
+		return true;
+	}
+	
+	/**
+	 * Reads the data of the next record, whose header has been read, returning
+	 * whether it matches its checksum.
+	 */
+	private boolean load() throws IOException {
+		if (data.capacity() < length)
+			data = ByteBuffer.allocate(Math.max(data.capacity() * 2, length));
+		data.clear();
+		data.limit(length);
+		if (!read(CHANNEL, data, position + CompoundLogWriter.HEADER))
+			throw new IOException("Record at offset " + position + " has been truncated!");
+		data.flip();
+		
+		CRC.reset();
+		CRC.update(data.duplicate());
+		return (int) CRC.getValue() == checksum;
+	}
+	
+	/**
+	 * Moves past the next record without reading it.
+	 */
+	public void skip() throws IOException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		position += CompoundLogWriter.HEADER + length;
+		length = -1;
+	}
+	
+	/**
+	 * Returns the offset of the next record, from which a
+	 * {@link CompoundLogReader} may later continue.
+	 */
+	public long position() {
+		return position;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		CHANNEL.close();
+	}
+	
+	/**
+	 * Throws an {@link IOException} if the given {@link FileChannel} does not start with
+	 * {@link CompoundLogWriter#MAGIC}.
+	 */
+	static void check(FileChannel c) throws IOException {
+		final ByteBuffer MAGIC = ByteBuffer.allocate(8);
+		if (!read(c, MAGIC, 0L) || MAGIC.getLong(0) != CompoundLogWriter.MAGIC)
+			throw new IOException("Not a Compound log!");
+	}
+	
+	/**
+	 * Reads from the given offset of the given {@link FileChannel} until the given
+	 * {@link ByteBuffer} is full, returning <code>false</code> if it ends first.
+	 */
+	private static boolean read(FileChannel c, ByteBuffer b, long offset) throws IOException {
+		final long START = offset - b.position();
+		while (b.hasRemaining())
+			if (c.read(b, START + b.position()) == -1)
+				return false;
+		return true;
+	}
+	
+	private static FileChannel open(File f, long offset) throws IOException {
+		if (offset < CompoundLogWriter.FIRST)
+			throw new IllegalArgumentException("Invalid record offset: " + offset);
+		final FileChannel CHANNEL = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			check(CHANNEL);
+		}catch (IOException e) {
+			CHANNEL.close();
+			throw e;
+		}
+		return CHANNEL;
+	}
+	
+}
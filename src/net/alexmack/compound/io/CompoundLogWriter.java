@@ -0,0 +1,176 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.operator.CompoundCRC32C;
+import net.alexmack.compound.io.operator.CompoundOutputBuffer;
+import net.alexmack.compound.io.operator.CompoundOutputChannel;
+
+/**
+ * Appends {@link Compound}s to a {@link File} as records, each written by {@link CompoundIO}
+ * on its own, so that many may be kept in one {@link File} and read back in order by a
+ * {@link CompoundLogReader}. The {@link File} starts with {@link #MAGIC}, and each record is
+ * preceded by its length and {@link CompoundCRC32C} checksum:<br>
+ * <code>[{@link #MAGIC}]([length][checksum][data])*</code><br><br>
+ * Records are forced to the storage device together, every given number of records or on
+ * {@link #commit()}, so that many appends share the cost of each force.
+ */
+public class CompoundLogWriter implements Flushable, Closeable {
+
+	/**
+	 * Starts a {@link File} of records, spelling "CMPLOG01".
+	 */
+	public static final long MAGIC = 0x434D504C4F473031L;
+	
+	/**
+	 * Offset of the first record, after {@link #MAGIC}.
+	 */
+	public static final long FIRST = 8L;
+	
+	/**
+	 * Number of bytes preceding the data of each record.
+	 */
+	static final int HEADER = 8;
+	
+	private final FileChannel CHANNEL;
+	private final CompoundOutputChannel OUTPUT;
+	/**
+	 * Offset at which the {@link CompoundOutputChannel} started writing.
+	 */
+	private final long START;
+	private final int SYNC;
+	private final CompoundOutputBuffer ENCODED = new CompoundOutputBuffer();
+	private final CompoundCRC32C CRC = new CompoundCRC32C();
+	/**
+	 * Number of records appended since the last force.
+	 */
+	private int uncommitted;
+	
+	/**
+	 * Appends to the given {@link File}, forcing records only on {@link #commit()}.
+	 */
+	public CompoundLogWriter(File f) throws IOException {
+		this(f, 0);
+	}
+	
+	/**
+	 * Appends to the given {@link File}, creating it if it does not exist, and forces records
+	 * to the storage device every given number of records, or only on {@link #commit()} if
+	 * <code>0</code>. Every record is checked against its checksum, and the {@link File} is
+	 * truncated at the first which is incomplete or corrupted, as by a crash while it was
+	 * written, removing it and any records after it.
+	 */
+	public CompoundLogWriter(File f, int sync) throws IOException {
+		if (sync < 0)
+			throw new IllegalArgumentException("Invalid sync interval: " + sync);
+		SYNC = sync;
+		CHANNEL = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (CHANNEL.size() == 0L) {
+				final ByteBuffer MAGIC_BYTES = ByteBuffer.allocate(8).putLong(0, MAGIC);
+				while (MAGIC_BYTES.hasRemaining())
+					CHANNEL.write(MAGIC_BYTES);
+				START = FIRST;
+			}else{
+				// Find the end of the last complete record which matches its checksum.
+				CompoundLogReader.check(CHANNEL);
+				final CompoundLogReader READER = new CompoundLogReader(CHANNEL, FIRST);
+				while (READER.skipValid())
+					continue;
+				START = READER.position();
+				CHANNEL.truncate(START);
+			}
+			CHANNEL.position(START);
+		}catch (IOException e) {
+			CHANNEL.close();
+			throw e;
+		}
+		OUTPUT = new CompoundOutputChannel(CHANNEL);
+	}
+	
+	/**
+	 * Appends the given {@link Compound} as a record, returning its offset, from which
+	 * it may be read by a {@link CompoundLogReader}. The record is held until it is
+	 * written by {@link #flush()}, and forced by {@link #commit()}.
+	 */
+	public synchronized long append(Compound c) throws Exception {
+		ENCODED.reset();
+		CompoundIO.write(c, ENCODED);
+		final ByteBuffer DATA = ENCODED.buffer();
+		CRC.reset();
+		CRC.update(DATA.duplicate());
+		
+		final long OFFSET = position();
+		OUTPUT.writeInt(DATA.remaining());
+		OUTPUT.writeInt((int) CRC.getValue());
+		OUTPUT.writeBytes(DATA);
+		if (SYNC != 0 && ++uncommitted >= SYNC)
+			commit();
+		return OFFSET;
+	}
+	
+	/**
+	 * Returns the offset at which the next record will be appended.
+	 */
+	public synchronized long position() {
+		return START + OUTPUT.position();
+	}
+	
+	/**
+	 * Writes every record held to the {@link File}, where it may be read,
+	 * without forcing it to the storage device.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		OUTPUT.flush();
+	}
+	
+	/**
+	 * Writes every record held and forces every record to the storage device,
+	 * so that all records appended so far survive a crash.
+	 */
+	public synchronized void commit() throws IOException {
+		OUTPUT.flush();
+		CHANNEL.force(false);
+		uncommitted = 0;
+	}
+	
+	/**
+	 * Writes every record held, forcing them unless records are
+	 * only forced on {@link #commit()}, and closes the {@link File}.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (SYNC != 0)
+				commit();
+			else
+				flush();
+		}finally{
+			CHANNEL.close();
+		}
+	}
+	
+}
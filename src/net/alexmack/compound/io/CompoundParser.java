@@ -0,0 +1,275 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.io.IOException;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.operator.CompoundInput;
+import net.alexmack.compound.stack.CompoundStack;
+import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
+
+/**
+ * Reads data written by {@link CompoundIO} as a sequence of {@link Event}s, without
+ * creating any {@link Compound}s, so that data too large to be held in memory can be
+ * read. Each call to {@link #next()} reads only as far as the next {@link Event},
+ * details of which are returned by the getters until {@link #next()} is called again.
+ * <br><br>
+ * The body of every {@link Compound} is reported by {@link Event#START_COMPOUND}, an
+ * {@link Event#ENTRY} or {@link Event#REFERENCE} for each element, and then
+ * {@link Event#END_COMPOUND}, starting with the root. Addresses are those assigned
+ * by the {@link CompoundStack} which wrote the data. A {@link Compound} written in
+ * parts, such as by {@link CompoundWriter}, is started once for each part.
+ */
+public class CompoundParser {
+
+	/**
+	 * The kinds of {@link Event} reported by a {@link CompoundParser}.
+	 */
+	public enum Event {
+		/**
+		 * The body of the {@link Compound} with the address given by
+		 * {@link CompoundParser#getAddress()} starts, containing the number of
+		 * elements given by {@link CompoundParser#getSize()}.
+		 */
+		START_COMPOUND,
+		/**
+		 * An element other than a {@link Compound}, with the identifier given by
+		 * {@link CompoundParser#getIdentifier()} and the value given by
+		 * {@link CompoundParser#getValue()}.
+		 */
+		ENTRY,
+		/**
+		 * A {@link Compound} element, with the identifier given by {@link CompoundParser#getIdentifier()},
+		 * referring to the {@link Compound} with the address given by {@link CompoundParser#getAddress()}.
+		 */
+		REFERENCE,
+		/**
+		 * The body of the current {@link Compound} ends.
+		 */
+		END_COMPOUND,
+		/**
+		 * All data has been read. Returned by every later call to {@link CompoundParser#next()}.
+		 */
+		END
+	}
+	
+	private CompoundInput input;
+	private Event event;
+	private boolean detected;
+	/**
+	 * Whether only one body is read, see {@link #body(CompoundInput, long)}.
+	 */
+	private boolean single;
+	
+	/**
+	 * Elements left to be read from the current {@link Compound}.
+	 */
+	private int remaining;
+	/**
+	 * Address of the current {@link Compound}.
+	 */
+	private long body;
+	
+	private long address;
+	private int size;
+	private String identifier;
+	private CompoundType type;
+	private long bits;
+	private Object value;
+	private boolean primitive;
+	
+	/**
+	 * Reads data from the given {@link CompoundInput}, which may detect
+	 * its format, see {@link CompoundInput#detect()}.
+	 */
+	public CompoundParser(CompoundInput in) {
+		this(in, false);
+	}
+	
+	/**
+	 * Reads data from the given {@link CompoundInput}, which is
+	 * only asked to detect its format if it has not yet done so.
+	 */
+	CompoundParser(CompoundInput in, boolean d) {
+		input = in;
+		detected = d;
+	}
+	
+	/**
+	 * Returns a {@link CompoundParser} reading only the body of the {@link Compound} with the
+	 * given address, at which the given {@link CompoundInput} is positioned. The body is
+	 * reported as usual, followed by {@link Event#END}.
+	 */
+	public static CompoundParser body(CompoundInput in, long a) {
+		final CompoundParser PARSER = new CompoundParser(in, true);
+		PARSER.single = true;
+		PARSER.address = a;
+		return PARSER;
+	}
+	
+	/**
+	 * Reads and returns the next {@link Event}.
+	 */
+	public Event next() throws Exception {
+		if (event == Event.END)
+			return event;
+		
+		if (single) {
+			if (event == null)
+				return start(address);
+			else if (event == Event.END_COMPOUND)
+				return event = Event.END;
+		}
+		
+		if (!detected) {
+			// Read the header, if any, then the root.
+			input = input.detect();
+			detected = true;
+			return start(CompoundStackItem.ADDRESS_ROOT);
+		}
+		
+		if (event == Event.END_COMPOUND) {
+			// Every Compound after the root is preceded by its address.
+			if (input.readBoolean()) {
+				input.readFooter();
+				return event = Event.END;
+			}
+			return start(readAddress(input));
+		}
+		
+		if (remaining == 0) {
+			input.endBody(body);
+			return event = Event.END_COMPOUND;
+		}
+		
+		remaining--;
+		identifier = input.readIdentifier();
+		return element();
+	}
+	
+	/**
+	 * Returns the last {@link Event} read, or <code>null</code> if none has been.
+	 */
+	public Event getEvent() {
+		return event;
+	}
+	
+	/**
+	 * Returns the address of the {@link Compound} which starts, or is
+	 * referred to, as of the last {@link Event}.
+	 */
+	public long getAddress() {
+		return address;
+	}
+	
+	/**
+	 * Returns the number of elements of the {@link Compound} which starts as of the last {@link Event}.
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Returns the identifier of the element read as of the last {@link Event}.
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+	
+	/**
+	 * Returns the {@link CompoundType} of the element read as of the last {@link Event}.
+	 */
+	public CompoundType getType() {
+		return type;
+	}
+	
+	/**
+	 * Returns whether the element read as of the last {@link Event} is held as bits
+	 * of its {@link CompoundType}, so may be read with {@link #getBits()} without boxing.
+	 */
+	public boolean isPrimitive() {
+		return primitive;
+	}
+	
+	/**
+	 * Returns the bits of a primitive element, see {@link #isPrimitive()}.
+	 */
+	public long getBits() {
+		return bits;
+	}
+	
+	/**
+	 * Returns the element read as of the last {@link Event}, boxing primitive
+	 * elements. {@link Compound} elements are only given by {@link #getAddress()}.
+	 */
+	public Object getValue() {
+		if (primitive && value == null)
+			value = type.PRIMITIVE.box(bits);
+		return value;
+	}
+	
+	/**
+	 * Reads the start of the body of the {@link Compound} with the given address.
+	 */
+	private Event start(long a) throws Exception {
+		address = body = a;
+		size = remaining = input.readInt();
+		return event = Event.START_COMPOUND;
+	}
+	
+	/**
+	 * Reads a type and element, returning {@link Event#REFERENCE} for a
+	 * {@link Compound} element, otherwise {@link Event#ENTRY}.
+	 */
+	Event element() throws Exception {
+		event = Event.ENTRY;
+		final byte ID = input.readByte();
+		value = null;
+		primitive = false;
+		type = CompoundType.get(ID);
+		if (type == null || type.VERSION > input.getVersion())
+			throw new IOException("Unknown element type " + ID + "!");
+		
+		if (type == CompoundType.COMPOUND) {
+			address = readAddress(input);
+			return event = Event.REFERENCE;
+		}else if (type.isPrimitive()) {
+			bits = type.PRIMITIVE.readBits(input);
+			primitive = true;
+		}else if (type.isValid()) {
+			value = type.IO.read(input);
+		}
+		return Event.ENTRY;
+	}
+	
+	/**
+	 * Returns the {@link CompoundInput} being read, once its format has been detected.
+	 */
+	CompoundInput getInput() {
+		return input;
+	}
+	
+	/**
+	 * Reads an address written by {@link CompoundIO}. Later versions write it relative to the first
+	 * address assigned by {@link CompoundStack}, so that it is small, and the root as <code>-1</code>.
+	 */
+	static long readAddress(CompoundInput in) throws Exception {
+		final long ADDRESS = in.readLong();
+		return in.getVersion() >= 2 ? ADDRESS + Long.MIN_VALUE : ADDRESS;
+	}
+	
+}
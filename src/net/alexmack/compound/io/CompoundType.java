@@ -57,66 +57,106 @@ public enum CompoundType {
 	/**
 	 * Handles {@link Boolean} elements.
 	 */
-	BOOLEAN((byte)0x01, "bool", new CompoundTypeIO(){
+	BOOLEAN((byte)0x01, "bool", new CompoundTypeIOPrimitive(){
 
 		@Override
-		public void write(CompoundOutput out, Object val) throws Exception {
-			out.writeBoolean((Boolean) val);
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeBoolean(bits != 0L);
 		}
 
 		@Override
-		public Object read(CompoundInput in) throws Exception {
-			return in.readBoolean();
+		public long readBits(CompoundInput in) throws Exception {
+			return in.readBoolean() ? 1L : 0L;
+		}
+
+		@Override
+		public Object box(long bits) {
+			return Boolean.valueOf(bits != 0L);
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return CompoundCast.asBoolean(val) ? 1L : 0L;
 		}
 		
 	}),
 	
 	/**
-	 * Handles {@link Integer}, {@link Short} and {@link Byte} elements.
+	 * Handles {@link Integer} elements.
 	 */
-	INTEGER((byte)0x02, "intg", new CompoundTypeIO(){
+	INTEGER((byte)0x02, "intg", new CompoundTypeIOPrimitive(){
 
 		@Override
-		public void write(CompoundOutput out, Object val) throws Exception {
-			out.writeInt(CompoundCast.asInt(val));
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeInt((int) bits);
 		}
 
 		@Override
-		public Object read(CompoundInput in) throws Exception {
+		public long readBits(CompoundInput in) throws Exception {
 			return in.readInt();
 		}
+
+		@Override
+		public Object box(long bits) {
+			return Integer.valueOf((int) bits);
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return CompoundCast.asInt(val);
+		}
 		
 	}),
 	/**
 	 * Handles {@link Long} elements.
 	 */
-	INTEGER_LONG((byte)0x03, "intl", new CompoundTypeIO(){
+	INTEGER_LONG((byte)0x03, "intl", new CompoundTypeIOPrimitive(){
 
 		@Override
-		public void write(CompoundOutput out, Object val) throws Exception {
-			out.writeLong(CompoundCast.asLong(val));
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeLong(bits);
 		}
 
 		@Override
-		public Object read(CompoundInput in) throws Exception {
+		public long readBits(CompoundInput in) throws Exception {
 			return in.readLong();
 		}
+
+		@Override
+		public Object box(long bits) {
+			return Long.valueOf(bits);
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return CompoundCast.asLong(val);
+		}
 		
 	}),
 	
 	/**
-	 * Handles {@link Double} and {@link Float} elements.
+	 * Handles {@link Double} elements.
 	 */
-	DOUBLE((byte)0x04, "dobl", new CompoundTypeIO(){
+	DOUBLE((byte)0x04, "dobl", new CompoundTypeIOPrimitive(){
 
 		@Override
-		public void write(CompoundOutput out, Object val) throws Exception {
-			out.writeDouble(CompoundCast.asDouble(val));
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeDouble(Double.longBitsToDouble(bits));
 		}
 
 		@Override
-		public Object read(CompoundInput in) throws Exception {
-			return in.readDouble();
+		public long readBits(CompoundInput in) throws Exception {
+			return Double.doubleToRawLongBits(in.readDouble());
+		}
+
+		@Override
+		public Object box(long bits) {
+			return Double.valueOf(Double.longBitsToDouble(bits));
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return Double.doubleToRawLongBits(CompoundCast.asDouble(val));
 		}
 	}),
 	
@@ -167,6 +207,90 @@ public enum CompoundType {
 			return new BigDecimal(in.readString());
 		}
 		
+	}),
+	
+	/**
+	 * Handles {@link Float} elements, from format version <code>2</code>.
+	 * Earlier versions write them as {@link #DOUBLE}.
+	 */
+	FLOAT((byte)0x08, "flot", 2, DOUBLE, new CompoundTypeIOPrimitive(){
+
+		@Override
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeFloat(Float.intBitsToFloat((int) bits));
+		}
+
+		@Override
+		public long readBits(CompoundInput in) throws Exception {
+			return Float.floatToRawIntBits(in.readFloat());
+		}
+
+		@Override
+		public Object box(long bits) {
+			return Float.valueOf(Float.intBitsToFloat((int) bits));
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return Float.floatToRawIntBits(CompoundCast.asFloat(val));
+		}
+		
+	}),
+	
+	/**
+	 * Handles {@link Short} elements, from format version <code>2</code>.
+	 * Earlier versions write them as {@link #INTEGER}.
+	 */
+	SHORT((byte)0x09, "shrt", 2, INTEGER, new CompoundTypeIOPrimitive(){
+
+		@Override
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeInt((short) bits);
+		}
+
+		@Override
+		public long readBits(CompoundInput in) throws Exception {
+			return (short) in.readInt();
+		}
+
+		@Override
+		public Object box(long bits) {
+			return Short.valueOf((short) bits);
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return CompoundCast.asShort(val);
+		}
+		
+	}),
+	
+	/**
+	 * Handles {@link Byte} elements, from format version <code>2</code>.
+	 * Earlier versions write them as {@link #INTEGER}.
+	 */
+	BYTE((byte)0x0A, "byte", 2, INTEGER, new CompoundTypeIOPrimitive(){
+
+		@Override
+		public void writeBits(CompoundOutput out, long bits) throws Exception {
+			out.writeByte((byte) bits);
+		}
+
+		@Override
+		public long readBits(CompoundInput in) throws Exception {
+			return in.readByte();
+		}
+
+		@Override
+		public Object box(long bits) {
+			return Byte.valueOf((byte) bits);
+		}
+
+		@Override
+		public long unbox(Object val) {
+			return CompoundCast.asByte(val);
+		}
+		
 	});
 	
 	public final byte ID;
@@ -174,16 +298,77 @@ public enum CompoundType {
 	
 	public final CompoundTypeIO IO;
 	
+	/**
+	 * {@link #IO} if elements of this type can be stored unboxed,
+	 * otherwise <code>null</code>.
+	 */
+	public final CompoundTypeIOPrimitive PRIMITIVE;
+	
+	/**
+	 * The first format version which can hold elements of this type.
+	 */
+	public final int VERSION;
+	
+	/**
+	 * The type elements of this type are written as before {@link #VERSION}.
+	 */
+	private final CompoundType WIDER;
+	
 	CompoundType(byte i, String s, CompoundTypeIO io) {
+		this(i, s, 1, null, io);
+	}
+	
+	CompoundType(byte i, String s, int v, CompoundType w, CompoundTypeIO io) {
 		ID = i;
 		ID_STRING = s;
+		VERSION = v;
+		WIDER = w == null ? this : w;
 		IO = io;
+		PRIMITIVE = io instanceof CompoundTypeIOPrimitive ? (CompoundTypeIOPrimitive) io : null;
 	}
 	
 	public boolean isValid(){
 		return IO != null;
 	}
 	
+	public boolean isPrimitive(){
+		return PRIMITIVE != null;
+	}
+	
+	/**
+	 * Returns the type elements of this type are written as in the given format
+	 * version, which is this type unless it was added by a later version.
+	 */
+	public CompoundType forVersion(int v){
+		return v >= VERSION ? this : WIDER;
+	}
+	
+	/**
+	 * Returns the given bits, representing an element of the given type, as
+	 * bits representing an element of this type. Conversions follow those
+	 * of {@link CompoundCast}.
+	 */
+	public long convert(CompoundType t, long bits){
+		if (t == this)
+			return bits;
+		
+		// Integer bits are kept sign extended, so widening them keeps the bits.
+		final boolean INTEGRAL = t == BYTE || t == SHORT || t == INTEGER;
+		if (this == INTEGER_LONG && INTEGRAL)
+			return bits;
+		else if (this == INTEGER && (t == BYTE || t == SHORT))
+			return bits;
+		else if (this == SHORT && t == BYTE)
+			return bits;
+		else if (this == DOUBLE && INTEGRAL)
+			return Double.doubleToRawLongBits((int) bits);
+		else if (this == DOUBLE && t == FLOAT)
+			return Double.doubleToRawLongBits(Float.intBitsToFloat((int) bits));
+		else if (this == FLOAT && (t == BYTE || t == SHORT))
+			return Float.floatToRawIntBits((int) bits);
+		throw new RuntimeException(t.name() + " cannot be cast to " + name() + "!");
+	}
+	
 	public static CompoundType get(Object o){
 		if (o == null)
 			return NULL;
@@ -191,12 +376,18 @@ public enum CompoundType {
 			return COMPOUND;
 		else if (o instanceof Boolean)
 			return BOOLEAN;
-		else if (o instanceof Byte || o instanceof Short || o instanceof Integer)
+		else if (o instanceof Integer)
 			return INTEGER;
 		else if (o instanceof Long)
 			return INTEGER_LONG;
-		else if (o instanceof Float || o instanceof Double)
+		else if (o instanceof Double)
 			return DOUBLE;
+		else if (o instanceof Float)
+			return FLOAT;
+		else if (o instanceof Short)
+			return SHORT;
+		else if (o instanceof Byte)
+			return BYTE;
 		else if (o instanceof String)
 			return STRING;
 		else if (o instanceof BigInteger)
@@ -0,0 +1,58 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import net.alexmack.compound.io.operator.CompoundInput;
+import net.alexmack.compound.io.operator.CompoundOutput;
+
+/**
+ * {@link CompoundTypeIO} for elements which can be stored unboxed as
+ * the bits of a <code>long</code>, allowing them to be read and written
+ * without creating wrapper objects.
+ */
+public abstract class CompoundTypeIOPrimitive extends CompoundTypeIO {
+
+	/**
+	 * Writes the element represented by the given bits.
+	 */
+	public abstract void writeBits(CompoundOutput out, long bits) throws Exception;
+
+	/**
+	 * Reads an element, returning the bits representing it.
+	 */
+	public abstract long readBits(CompoundInput in) throws Exception;
+
+	/**
+	 * Returns the element represented by the given bits as a wrapper object.
+	 */
+	public abstract Object box(long bits);
+
+	/**
+	 * Returns the bits representing the given wrapper object.
+	 */
+	public abstract long unbox(Object val);
+
+	@Override
+	public void write(CompoundOutput out, Object val) throws Exception {
+		writeBits(out, unbox(val));
+	}
+
+	@Override
+	public Object read(CompoundInput in) throws Exception {
+		return box(readBits(in));
+	}
+
+}
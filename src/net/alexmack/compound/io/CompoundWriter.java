@@ -0,0 +1,218 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io;
+
+import java.util.ArrayList;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.operator.CompoundOutput;
+import net.alexmack.compound.stack.CompoundStack;
+import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
+
+/**
+ * Writes {@link Compound} data to a {@link CompoundOutput} as it is produced, without
+ * a {@link Compound} being built, so that large data can be written in little memory.
+ * The data is read by {@link CompoundIO} as if the {@link Compound}s had been written.
+ * <br><br>
+ * The root is started with {@link #beginCompound()}, after which elements are added with
+ * {@link #entry(String, Object)} and {@link Compound} elements with {@link #beginChild(String)},
+ * each ended with {@link #end()}. Ending the root finishes the data.<br><br>
+ * Elements of each {@link Compound} are held until it ends, or until {@link #getBuffered()}
+ * are held, then written as one body. A {@link Compound} may so be written as several bodies,
+ * each read in turn, and the root is written after the others if they are written first.
+ */
+public class CompoundWriter {
+
+	/**
+	 * Number of elements held for each {@link Compound} by default.
+	 */
+	public static final int BUFFERED = 1024;
+	
+	/**
+	 * A {@link Compound} which has been started but not ended.
+	 */
+	private static class CompoundWriterFrame {
+		
+		final long ADDRESS;
+		final ArrayList<String> IDENTIFIERS = new ArrayList<String>();
+		final ArrayList<Object> VALUES = new ArrayList<Object>();
+		
+		CompoundWriterFrame(long a) {
+			ADDRESS = a;
+		}
+		
+	}
+	
+	/**
+	 * Held in place of a {@link Compound} element being written by this {@link CompoundWriter}.
+	 */
+	private static class CompoundWriterChild {
+		
+		final long ADDRESS;
+		
+		CompoundWriterChild(long a) {
+			ADDRESS = a;
+		}
+		
+	}
+	
+	private final CompoundOutput OUTPUT;
+	private final int BUFFERED_MAX;
+	/**
+	 * Assigns addresses to {@link Compound}s started and given as elements.
+	 */
+	private final CompoundStack STACK = new CompoundStack();
+	private final ArrayList<CompoundWriterFrame> FRAMES = new ArrayList<CompoundWriterFrame>();
+	
+	private boolean started;
+	/**
+	 * Whether the body read as the root has been written.
+	 */
+	private boolean rooted;
+	private boolean finished;
+	
+	public CompoundWriter(CompoundOutput out) {
+		this(out, BUFFERED);
+	}
+	
+	/**
+	 * Writes to the given {@link CompoundOutput}, holding at most the given
+	 * number of elements of each {@link Compound} before writing them.
+	 */
+	public CompoundWriter(CompoundOutput out, int buffered) {
+		if (buffered < 1)
+			throw new IllegalArgumentException("At least one element must be buffered!");
+		OUTPUT = out;
+		BUFFERED_MAX = buffered;
+	}
+	
+	/**
+	 * Returns the most elements held for each {@link Compound} before they are written.
+	 */
+	public int getBuffered() {
+		return BUFFERED_MAX;
+	}
+	
+	/**
+	 * Starts the root {@link Compound}. Must be called once, first.
+	 */
+	public CompoundWriter beginCompound() throws Exception {
+		if (started)
+			throw new IllegalStateException("The root Compound has already been started!");
+		started = true;
+		OUTPUT.writeHeader();
+		FRAMES.add(new CompoundWriterFrame(CompoundStackItem.ADDRESS_ROOT));
+		return this;
+	}
+	
+	/**
+	 * Adds the given element to the current {@link Compound} as corresponding to the given
+	 * identifier. A {@link Compound} element is written in full after the root ends.
+	 */
+	public CompoundWriter entry(String i, Object o) throws Exception {
+		add(i, o);
+		return this;
+	}
+	
+	/**
+	 * Starts a {@link Compound} element of the current {@link Compound} corresponding to the given
+	 * identifier, which becomes the current {@link Compound} until {@link #end()} is called.
+	 */
+	public CompoundWriter beginChild(String i) throws Exception {
+		final long ADDRESS = STACK.createAddress();
+		add(i, new CompoundWriterChild(ADDRESS));
+		FRAMES.add(new CompoundWriterFrame(ADDRESS));
+		return this;
+	}
+	
+	/**
+	 * Ends the current {@link Compound}, writing the elements still held. Ending
+	 * the root also writes any {@link Compound} elements given, finishing the data.
+	 */
+	public CompoundWriter end() throws Exception {
+		final CompoundWriterFrame FRAME = current();
+		write(FRAME);
+		FRAMES.remove(FRAMES.size() - 1);
+		
+		if (FRAMES.isEmpty()) {
+			finished = true;
+			CompoundIO.writeQueued(OUTPUT, STACK, new CompoundEntries(), false);
+		}
+		return this;
+	}
+	
+	/**
+	 * Returns whether the root has ended, so all data has been written.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	private void add(String i, Object o) throws Exception {
+		final CompoundWriterFrame FRAME = current();
+		FRAME.IDENTIFIERS.add(i);
+		FRAME.VALUES.add(o);
+		if (FRAME.IDENTIFIERS.size() >= BUFFERED_MAX)
+			write(FRAME);
+	}
+	
+	private CompoundWriterFrame current() {
+		if (FRAMES.isEmpty())
+			throw new IllegalStateException(finished ? "The root Compound has ended!" : "No Compound has been started!");
+		return FRAMES.get(FRAMES.size() - 1);
+	}
+	
+	/**
+	 * Writes the elements held for the given {@link CompoundWriterFrame} as a body.
+	 */
+	private void write(CompoundWriterFrame f) throws Exception {
+		if (!rooted) {
+			rooted = true;
+			if (f.ADDRESS == CompoundStackItem.ADDRESS_ROOT) {
+				writeBody(f);
+				return;
+			}
+			// The root must be read first, leave it empty until it is written later.
+			OUTPUT.writeInt(0);
+			OUTPUT.endBody();
+		}else if (f.IDENTIFIERS.isEmpty()) {
+			return;
+		}
+		
+		// Indicates there is at least one more Compound.
+		OUTPUT.writeBoolean(false);
+		CompoundIO.writeAddress(f.ADDRESS, OUTPUT);
+		writeBody(f);
+	}
+	
+	private void writeBody(CompoundWriterFrame f) throws Exception {
+		OUTPUT.writeInt(f.IDENTIFIERS.size());
+		for (int e = 0; e != f.IDENTIFIERS.size(); e++) {
+			OUTPUT.writeIdentifier(f.IDENTIFIERS.get(e));
+			final Object VALUE = f.VALUES.get(e);
+			if (VALUE instanceof CompoundWriterChild) {
+				OUTPUT.writeByte(CompoundType.COMPOUND.ID);
+				CompoundIO.writeAddress(((CompoundWriterChild) VALUE).ADDRESS, OUTPUT);
+			}else{
+				CompoundIO.writeElement(VALUE, OUTPUT, STACK);
+			}
+		}
+		OUTPUT.endBody();
+		f.IDENTIFIERS.clear();
+		f.VALUES.clear();
+	}
+	
+}
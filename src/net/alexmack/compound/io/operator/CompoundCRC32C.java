@@ -0,0 +1,130 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Computes the CRC-32C (Castagnoli) checksum, as <code>java.util.zip.CRC32C</code> does on
+ * later versions of Java, eight bytes at a time. Values written by {@link CompoundOutput} may
+ * be added as they are, see {@link #updateInt(int)} and {@link #updateLong(long)}, so data is
+ * checked as it is encoded rather than in a second pass.
+ */
+public final class CompoundCRC32C implements Checksum {
+
+	/**
+	 * The reversed Castagnoli polynomial.
+	 */
+	private static final int POLYNOMIAL = 0x82F63B78;
+	
+	/**
+	 * Tables for each of eight bytes processed at once, the first being
+	 * the usual table for one byte.
+	 */
+	private static final int[][] TABLES = new int[8][256];
+	
+	static {
+		for (int i = 0; i != 256; i++) {
+			int crc = i;
+			for (int b = 0; b != 8; b++)
+				crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+			TABLES[0][i] = crc;
+		}
+		for (int t = 1; t != TABLES.length; t++)
+			for (int i = 0; i != 256; i++)
+				TABLES[t][i] = (TABLES[t - 1][i] >>> 8) ^ TABLES[0][TABLES[t - 1][i] & 0xFF];
+	}
+	
+	private static final int[] T0 = TABLES[0], T1 = TABLES[1], T2 = TABLES[2], T3 = TABLES[3];
+	private static final int[] T4 = TABLES[4], T5 = TABLES[5], T6 = TABLES[6], T7 = TABLES[7];
+	
+	/**
+	 * The checksum so far, inverted.
+	 */
+	private int crc = 0xFFFFFFFF;
+	
+	@Override
+	public void update(int b) {
+		crc = (crc >>> 8) ^ T0[(crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int c = crc;
+		final int END = off + len;
+		for (; off + 8 <= END; off += 8) {
+			final int LOW = c ^ ((b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | (b[off + 3] << 24));
+			final int HIGH = (b[off + 4] & 0xFF) | ((b[off + 5] & 0xFF) << 8) | ((b[off + 6] & 0xFF) << 16) | (b[off + 7] << 24);
+			c = step(LOW, HIGH);
+		}
+		for (; off != END; off++)
+			c = (c >>> 8) ^ T0[(c ^ b[off]) & 0xFF];
+		crc = c;
+	}
+	
+	/**
+	 * Adds the remaining bytes of the given {@link ByteBuffer}, which are consumed.
+	 */
+	public void update(ByteBuffer b) {
+		if (b.hasArray()) {
+			update(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
+			return;
+		}
+		while (b.remaining() >= 8)
+			updateLong(b.getLong());
+		while (b.hasRemaining())
+			update(b.get());
+	}
+	
+	/**
+	 * Adds the four bytes of the given <code>int</code>, most significant first,
+	 * as written by {@link CompoundOutputStream}.
+	 */
+	public void updateInt(int i) {
+		final int C = crc ^ Integer.reverseBytes(i);
+		crc = T3[C & 0xFF] ^ T2[(C >>> 8) & 0xFF] ^ T1[(C >>> 16) & 0xFF] ^ T0[C >>> 24];
+	}
+	
+	/**
+	 * Adds the eight bytes of the given <code>long</code>, most significant first,
+	 * as written by {@link CompoundOutputStream}.
+	 */
+	public void updateLong(long l) {
+		crc = step(crc ^ Integer.reverseBytes((int) (l >>> 32)), Integer.reverseBytes((int) l));
+	}
+
+	@Override
+	public long getValue() {
+		return ~crc & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+	
+	/**
+	 * Returns the inverted checksum after eight bytes, the first four of which
+	 * are given combined with the checksum so far.
+	 */
+	private static int step(int low, int high) {
+		return T7[low & 0xFF] ^ T6[(low >>> 8) & 0xFF] ^ T5[(low >>> 16) & 0xFF] ^ T4[low >>> 24]
+			^ T3[high & 0xFF] ^ T2[(high >>> 8) & 0xFF] ^ T1[(high >>> 16) & 0xFF] ^ T0[high >>> 24];
+	}
+	
+}
@@ -0,0 +1,80 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.IOException;
+
+/**
+ * Compresses blocks of bytes for {@link CompoundOutputCompressed}, and decompresses
+ * them for {@link CompoundInputCompressed}. Each {@link CompoundCodec} is identified
+ * in the data by its {@link #ID}, so that blocks are read with the {@link CompoundCodec}
+ * which wrote them. Implementations must be safe to use from many threads at once.
+ */
+public abstract class CompoundCodec {
+
+	/**
+	 * Identifies blocks which are stored without compression.
+	 */
+	public static final byte ID_STORED = 0x00;
+	
+	/**
+	 * Compresses with {@link java.util.zip.Deflater}, see {@link CompoundCodecDeflate}.
+	 */
+	public static final CompoundCodec DEFLATE = new CompoundCodecDeflate();
+	/**
+	 * Compresses quickly by finding repeated bytes, see {@link CompoundCodecLZ}.
+	 */
+	public static final CompoundCodec LZ = new CompoundCodecLZ();
+	
+	public final byte ID;
+	
+	/**
+	 * Creates a {@link CompoundCodec} with the given identifier, which must not be
+	 * {@link #ID_STORED} or that of any other {@link CompoundCodec} in use.
+	 */
+	protected CompoundCodec(byte id) {
+		if (id == ID_STORED)
+			throw new IllegalArgumentException("Identifier " + id + " is reserved!");
+		ID = id;
+	}
+	
+	/**
+	 * Returns the given number of bytes from the given array compressed, or
+	 * <code>null</code> if they could not be made smaller.
+	 */
+	public abstract byte[] compress(byte[] b, int length);
+	
+	/**
+	 * Decompresses the given number of bytes from the given array into the given array,
+	 * which is as long as the bytes were before compression, returning the number of bytes
+	 * decompressed. Throws an {@link IOException} if the bytes are malformed or would
+	 * decompress to more than the array holds.
+	 */
+	public abstract int decompress(byte[] b, int length, byte[] raw) throws IOException;
+	
+	/**
+	 * Returns the {@link CompoundCodec} supplied with this library with the
+	 * given identifier, or <code>null</code> if there is none.
+	 */
+	public static CompoundCodec get(byte id) {
+		if (id == DEFLATE.ID)
+			return DEFLATE;
+		else if (id == LZ.ID)
+			return LZ;
+		return null;
+	}
+	
+}
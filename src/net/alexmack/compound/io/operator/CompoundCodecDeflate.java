@@ -0,0 +1,87 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CompoundCodec} compressing with the DEFLATE algorithm of {@link Deflater},
+ * without a zlib header. Smaller than {@link CompoundCodecLZ}, but slower.
+ */
+public class CompoundCodecDeflate extends CompoundCodec {
+
+	private final int LEVEL;
+	
+	/**
+	 * Creates a {@link CompoundCodecDeflate} compressing at {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public CompoundCodecDeflate() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * Creates a {@link CompoundCodecDeflate} compressing at the given {@link Deflater} level.
+	 * Blocks written at any level are read by every {@link CompoundCodecDeflate}.
+	 */
+	public CompoundCodecDeflate(int level) {
+		super((byte) 0x01);
+		LEVEL = level;
+	}
+
+	@Override
+	public byte[] compress(byte[] b, int length) {
+		final Deflater DEFLATER = new Deflater(LEVEL, true);
+		try {
+			DEFLATER.setInput(b, 0, length);
+			DEFLATER.finish();
+			// Anything as large as the input is not worth keeping.
+			final byte[] COMPRESSED = new byte[length];
+			int size = 0;
+			while (!DEFLATER.finished() && size != COMPRESSED.length)
+				size += DEFLATER.deflate(COMPRESSED, size, COMPRESSED.length - size);
+			return DEFLATER.finished() ? Arrays.copyOf(COMPRESSED, size) : null;
+		}finally{
+			DEFLATER.end();
+		}
+	}
+
+	@Override
+	public int decompress(byte[] b, int length, byte[] raw) throws IOException {
+		final Inflater INFLATER = new Inflater(true);
+		try {
+			INFLATER.setInput(b, 0, length);
+			int size = 0;
+			while (size != raw.length && !INFLATER.finished()) {
+				final int INFLATED = INFLATER.inflate(raw, size, raw.length - size);
+				if (INFLATED == 0 && (INFLATER.needsInput() || INFLATER.needsDictionary()))
+					throw new IOException("Truncated DEFLATE block!");
+				size += INFLATED;
+			}
+			if (!INFLATER.finished() && INFLATER.inflate(new byte[1]) != 0)
+				throw new IOException("DEFLATE block longer than " + raw.length + " bytes!");
+			return size;
+		}catch (DataFormatException e) {
+			throw new IOException(e);
+		}finally{
+			INFLATER.end();
+		}
+	}
+
+}
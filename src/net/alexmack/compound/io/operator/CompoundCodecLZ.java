@@ -0,0 +1,153 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link CompoundCodec} replacing repeated runs of bytes with references to an earlier
+ * copy, in the manner of LZ4. Much faster than {@link CompoundCodecDeflate}, and suits
+ * {@link CompoundIO} data, in which identifiers and structure repeat often.<br><br>
+ * The block is a sequence of tokens, each of which gives a number of literal bytes to
+ * copy and then the offset back and length of a match to copy. The high and low four
+ * bits of the token give the literal length and the match length minus four, a value of
+ * <code>15</code> being followed by bytes added to it until one is not <code>255</code>.
+ * The literals follow, then the little endian two byte offset. The final token has
+ * only literals.
+ */
+public class CompoundCodecLZ extends CompoundCodec {
+
+	private static final int MATCH_MIN = 4;
+	private static final int OFFSET_MAX = 0xFFFF;
+	private static final int HASH_BITS = 14;
+	
+	public CompoundCodecLZ() {
+		super((byte) 0x02);
+	}
+
+	@Override
+	public byte[] compress(byte[] b, int length) {
+		// Position of the last run of four bytes seen with each hash.
+		final int[] TABLE = new int[1 << HASH_BITS];
+		Arrays.fill(TABLE, -1);
+		final byte[] OUT = new byte[length + length / 255 + 16];
+		int out = 0;
+		int anchor = 0;
+		int i = 0;
+		while (i + MATCH_MIN <= length) {
+			final int RUN = run(b, i);
+			final int HASH = (RUN * 0x9E3779B1) >>> (32 - HASH_BITS);
+			final int REFERENCE = TABLE[HASH];
+			TABLE[HASH] = i;
+			if (REFERENCE < 0 || i - REFERENCE > OFFSET_MAX || run(b, REFERENCE) != RUN) {
+				i++;
+				continue;
+			}
+			
+			int match = MATCH_MIN;
+			while (i + match < length && b[REFERENCE + match] == b[i + match])
+				match++;
+			
+			out = token(b, anchor, i - anchor, match - MATCH_MIN, OUT, out);
+			OUT[out++] = (byte) (i - REFERENCE);
+			OUT[out++] = (byte) ((i - REFERENCE) >>> 8);
+			out = length(match - MATCH_MIN, OUT, out);
+			i += match;
+			anchor = i;
+			if (out >= length)
+				return null;
+		}
+		out = token(b, anchor, length - anchor, 0, OUT, out);
+		return out < length ? Arrays.copyOf(OUT, out) : null;
+	}
+
+	@Override
+	public int decompress(byte[] b, int length, byte[] raw) throws IOException {
+		try {
+			int in = 0;
+			int out = 0;
+			while (in < length) {
+				final int TOKEN = b[in++] & 0xFF;
+				int literals = TOKEN >>> 4;
+				if (literals == 15) {
+					int extra;
+					do {
+						extra = b[in++] & 0xFF;
+						literals += extra;
+					} while (extra == 255);
+				}
+				System.arraycopy(b, in, raw, out, literals);
+				in += literals;
+				out += literals;
+				if (in == length)
+					break;
+				
+				final int OFFSET = (b[in] & 0xFF) | ((b[in + 1] & 0xFF) << 8);
+				in += 2;
+				int match = TOKEN & 0x0F;
+				if (match == 15) {
+					int extra;
+					do {
+						extra = b[in++] & 0xFF;
+						match += extra;
+					} while (extra == 255);
+				}
+				match += MATCH_MIN;
+				if (OFFSET == 0 || OFFSET > out)
+					throw new IOException("Invalid LZ offset " + OFFSET + "!");
+				// Matches may overlap what they produce, so are copied a byte at a time.
+				for (int m = 0; m != match; m++, out++)
+					raw[out] = raw[out - OFFSET];
+			}
+			return out;
+		}catch (IndexOutOfBoundsException e) {
+			throw new IOException("Malformed LZ block!", e);
+		}
+	}
+	
+	private static int run(byte[] b, int i) {
+		return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | (b[i + 3] << 24);
+	}
+	
+	/**
+	 * Writes a token and the given literals, returning the new output position.
+	 */
+	private static int token(byte[] b, int start, int literals, int match, byte[] out, int o) {
+		out[o++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(match, 15));
+		if (literals >= 15)
+			o = extra(literals - 15, out, o);
+		System.arraycopy(b, start, out, o, literals);
+		return o + literals;
+	}
+	
+	/**
+	 * Writes any extra bytes of the given match length, returning the new output position.
+	 */
+	private static int length(int match, byte[] out, int o) {
+		return match >= 15 ? extra(match - 15, out, o) : o;
+	}
+	
+	private static int extra(int remaining, byte[] out, int o) {
+		while (remaining >= 255) {
+			out[o++] = (byte) 255;
+			remaining -= 255;
+		}
+		out[o++] = (byte) remaining;
+		return o;
+	}
+
+}
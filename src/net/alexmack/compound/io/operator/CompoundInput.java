@@ -15,6 +15,13 @@
  */
 package net.alexmack.compound.io.operator;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.CompoundIO;
+
 /**
  * Reads data for {@link CompoundIO}.
  */
@@ -27,4 +34,65 @@ public abstract class CompoundInput {
 	public abstract double readDouble() throws Exception;
 	public abstract String readString() throws Exception;
 	
+	/**
+	 * Reads a <code>float</code> written by {@link CompoundOutput#writeFloat(float)}.
+	 */
+	public float readFloat() throws Exception {
+		return (float) readDouble();
+	}
+	
+	/**
+	 * Reads an identifier written by {@link CompoundOutput#writeIdentifier(String)}.
+	 */
+	public String readIdentifier() throws Exception {
+		return readString();
+	}
+	
+	/**
+	 * Reads anything written by {@link CompoundOutput#writeHeader()}, returning the
+	 * {@link CompoundInput} which reads the rest of the data. Called by {@link CompoundIO}
+	 * before reading, this may be used to detect the format of the data.
+	 */
+	public CompoundInput detect() throws Exception {
+		return this;
+	}
+	
+	/**
+	 * Returns a {@link CompoundInputCompact}, {@link CompoundInputCompressed} or {@link CompoundInputChecked}
+	 * if the given first byte of the data starts the header written by {@link CompoundOutputCompact},
+	 * {@link CompoundOutputCompressed} or {@link CompoundOutputChecked}, otherwise <code>null</code>.
+	 * The returned {@link CompoundInput} reads the data, header included, from the given {@link InputStream}
+	 * once {@link #detect()} is called. The {@link InputStream} may be <code>null</code> if it is not.
+	 */
+	public static CompoundInput forHeader(int first, InputStream in) {
+		if (first == CompoundOutputCompact.MAGIC >>> 16)
+			return new CompoundInputCompact(in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in));
+		if (first == CompoundOutputCompressed.MAGIC >>> 16)
+			return new CompoundInputCompressed(in);
+		if (first == CompoundOutputChecked.MAGIC >>> 16)
+			return new CompoundInputChecked(in);
+		return null;
+	}
+	
+	/**
+	 * Reads anything written by {@link CompoundOutput#endBody()}. Called by {@link CompoundIO}
+	 * after the body of the {@link Compound} with the given address, this may be used to
+	 * check it, throwing an {@link IOException} if it has been corrupted.
+	 */
+	public void endBody(long address) throws Exception {}
+	
+	/**
+	 * Reads anything written by {@link CompoundOutput#writeFooter()}. Called by {@link CompoundIO}
+	 * once the marker ending the data has been read, this may be used to check it, throwing an
+	 * {@link IOException} if it has been corrupted.
+	 */
+	public void readFooter() throws Exception {}
+	
+	/**
+	 * Returns the version of the format read, see {@link CompoundOutput#getVersion()}.
+	 */
+	public int getVersion() {
+		return 1;
+	}
+	
 }
@@ -0,0 +1,188 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.concurrent.Future;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Reads data from an {@link AsynchronousFileChannel} for {@link CompoundIO} through two
+ * {@link ByteBuffer}s, the next part of the file being read into one while the other is
+ * decoded, so that decoding only waits if the channel falls behind. Data written by
+ * {@link CompoundOutputCompact} is detected, as by {@link CompoundInputStream}.
+ */
+public class CompoundInputAsync extends CompoundInput {
+
+	/**
+	 * Space before the bytes read into each buffer, to which the last few bytes of
+	 * the other are copied when a value spans both. No value read at once is longer.
+	 */
+	private static final int RESERVE = 8;
+	
+	public final AsynchronousFileChannel CHANNEL;
+	/**
+	 * The buffer being decoded, and the buffer being read into.
+	 */
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(RESERVE + CompoundOutputChannel.CAPACITY);
+	private ByteBuffer next = ByteBuffer.allocateDirect(RESERVE + CompoundOutputChannel.CAPACITY);
+	private Future<Integer> pending;
+	/**
+	 * Position in the file of the next byte to be read into a buffer.
+	 */
+	private long position;
+	
+	public CompoundInputAsync(AsynchronousFileChannel c) {
+		this(c, 0L);
+	}
+	
+	/**
+	 * Reads from the given {@link AsynchronousFileChannel} from the given position,
+	 * starting to read ahead immediately.
+	 */
+	public CompoundInputAsync(AsynchronousFileChannel c, long position) {
+		CHANNEL = c;
+		this.position = position;
+		buffer.position(RESERVE).limit(RESERVE);
+		readAhead();
+	}
+	
+	@Override
+	public byte readByte() throws Exception {
+		return ensure(1).get();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		return ensure(4).getInt();
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		return ensure(8).getLong();
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return ensure(8).getDouble();
+	}
+
+	@Override
+	public String readString() throws Exception {
+		final byte[] BYTES = new byte[ensure(2).getShort() & 0xFFFF];
+		for (int b = 0; b != BYTES.length;) {
+			final int LENGTH = Math.min(BYTES.length - b, ensure(1).remaining());
+			buffer.get(BYTES, b, LENGTH);
+			b += LENGTH;
+		}
+		
+		final ByteBuffer ENCODED = ByteBuffer.wrap(BYTES);
+		final char[] CHARS = new char[BYTES.length];
+		int c = 0;
+		while (ENCODED.hasRemaining())
+			CHARS[c++] = CompoundInputBuffer.decode(ENCODED);
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Returns a {@link CompoundInputCompact}, {@link CompoundInputCompressed} or
+	 * {@link CompoundInputChecked} reading the rest of the data if it was written by
+	 * {@link CompoundOutputCompact}, {@link CompoundOutputCompressed} or
+	 * {@link CompoundOutputChecked}, otherwise this.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		final int FIRST = fill(1) ? buffer.get(buffer.position()) & 0xFF : -1;
+		final CompoundInput HEADED = forHeader(FIRST, stream());
+		return HEADED == null ? this : HEADED.detect();
+	}
+
+	/**
+	 * Returns an {@link InputStream} reading the rest of the data through the same
+	 * {@link ByteBuffer}s. Nothing else may be read once it is used.
+	 */
+	public InputStream stream() {
+		return new InputStream(){
+			
+			@Override
+			public int read() throws IOException {
+				return fill(1) ? buffer.get() & 0xFF : -1;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				if (!fill(1))
+					return -1;
+				
+				final int LENGTH = Math.min(len, buffer.remaining());
+				buffer.get(b, off, LENGTH);
+				return LENGTH;
+			}
+			
+		};
+	}
+
+	private void readAhead() {
+		next.clear().position(RESERVE);
+		pending = CHANNEL.read(next, position);
+	}
+
+	/**
+	 * Switches to the buffer read ahead until at least the given number of bytes are
+	 * held, returning <code>false</code> if the file ends first.
+	 */
+	private boolean fill(int length) throws IOException {
+		while (buffer.remaining() < length) {
+			if (pending == null)
+				return false;
+			final int READ = CompoundOutputAsync.get(pending);
+			pending = null;
+			if (READ == -1)
+				return false;
+			
+			position += READ;
+			next.flip();
+			// Carry over what is left of the last buffer.
+			final int LEFT = buffer.remaining();
+			next.position(RESERVE - LEFT);
+			next.duplicate().put(buffer);
+			final ByteBuffer READY = next;
+			next = buffer;
+			buffer = READY;
+			readAhead();
+		}
+		return true;
+	}
+
+	private ByteBuffer ensure(int length) throws IOException {
+		if (!fill(length))
+			throw new EOFException();
+		return buffer;
+	}
+
+}
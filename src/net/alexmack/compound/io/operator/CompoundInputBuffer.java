@@ -0,0 +1,108 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads data from a {@link ByteBuffer} for {@link CompoundIO}, starting at
+ * its position. Data must be encoded as by {@link CompoundOutputStream}.
+ */
+public class CompoundInputBuffer extends CompoundInput {
+
+	/**
+	 * The {@link ByteBuffer} being read from.
+	 */
+	public final ByteBuffer BUFFER;
+
+	public CompoundInputBuffer(ByteBuffer b) {
+		BUFFER = b;
+	}
+
+	@Override
+	public byte readByte() throws Exception {
+		return BUFFER.get();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		return BUFFER.getInt();
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		return BUFFER.getLong();
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return BUFFER.getDouble();
+	}
+
+	@Override
+	public String readString() throws Exception {
+		final int LENGTH = BUFFER.getShort() & 0xFFFF;
+		final int END = BUFFER.position() + LENGTH;
+		final char[] CHARS = new char[LENGTH];
+		int c = 0;
+		while (BUFFER.position() != END)
+			CHARS[c++] = decode(BUFFER);
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Decodes one <code>char</code> written by {@link CompoundOutputStream#writeString(String)}
+	 * from the given {@link ByteBuffer}.
+	 */
+	public static char decode(ByteBuffer b) throws UTFDataFormatException {
+		final int FIRST = b.get() & 0xFF;
+		switch (FIRST >> 4) {
+		case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+			return (char) FIRST;
+		case 12: case 13:
+			return (char) (((FIRST & 0x1F) << 6) | (b.get() & 0x3F));
+		case 14:
+			return (char) (((FIRST & 0x0F) << 12) | ((b.get() & 0x3F) << 6) | (b.get() & 0x3F));
+		default:
+			throw new UTFDataFormatException("Malformed input around byte " + (b.position() - 1));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes the given {@link String} takes when written by
+	 * {@link CompoundOutputStream#writeString(String)}, excluding the length.
+	 */
+	public static int encodedLength(String s) {
+		int length = 0;
+		for (int c = 0; c != s.length(); c++) {
+			final char CHAR = s.charAt(c);
+			if (CHAR >= 0x0001 && CHAR <= 0x007F)
+				length++;
+			else if (CHAR <= 0x07FF)
+				length += 2;
+			else
+				length += 3;
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,156 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Reads data from a {@link ReadableByteChannel} for {@link CompoundIO}, through a
+ * {@link ByteBuffer} which is filled from the channel each time it is emptied. Data
+ * written by {@link CompoundOutputCompact} is detected, as by {@link CompoundInputStream}.
+ */
+public class CompoundInputChannel extends CompoundInput {
+
+	public final ReadableByteChannel CHANNEL;
+	private final ByteBuffer BUFFER;
+	
+	public CompoundInputChannel(ReadableByteChannel c) {
+		this(c, ByteBuffer.allocateDirect(CompoundOutputChannel.CAPACITY));
+	}
+	
+	/**
+	 * Reads from the given {@link ReadableByteChannel} through the given {@link ByteBuffer},
+	 * which is cleared first and may be used again once reading is finished.
+	 */
+	public CompoundInputChannel(ReadableByteChannel c, ByteBuffer b) {
+		if (b.capacity() < 8)
+			throw new IllegalArgumentException("Buffer too small: " + b.capacity() + " bytes");
+		CHANNEL = c;
+		BUFFER = b;
+		BUFFER.clear();
+		BUFFER.flip();
+	}
+	
+	@Override
+	public byte readByte() throws Exception {
+		return ensure(1).get();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		return ensure(4).getInt();
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		return ensure(8).getLong();
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return ensure(8).getDouble();
+	}
+
+	@Override
+	public String readString() throws Exception {
+		final byte[] BYTES = new byte[ensure(2).getShort() & 0xFFFF];
+		for (int b = 0; b != BYTES.length;) {
+			final int LENGTH = Math.min(BYTES.length - b, ensure(1).remaining());
+			BUFFER.get(BYTES, b, LENGTH);
+			b += LENGTH;
+		}
+		
+		final ByteBuffer ENCODED = ByteBuffer.wrap(BYTES);
+		final char[] CHARS = new char[BYTES.length];
+		int c = 0;
+		while (ENCODED.hasRemaining())
+			CHARS[c++] = CompoundInputBuffer.decode(ENCODED);
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Returns a {@link CompoundInputCompact}, {@link CompoundInputCompressed} or
+	 * {@link CompoundInputChecked} reading the rest of the data if it was written by
+	 * {@link CompoundOutputCompact}, {@link CompoundOutputCompressed} or
+	 * {@link CompoundOutputChecked}, otherwise this.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		final int FIRST = fill(1) ? BUFFER.get(BUFFER.position()) & 0xFF : -1;
+		final CompoundInput HEADED = forHeader(FIRST, stream());
+		return HEADED == null ? this : HEADED.detect();
+	}
+
+	/**
+	 * Returns an {@link InputStream} reading the rest of the data through the same
+	 * {@link ByteBuffer}. Nothing else may be read once it is used.
+	 */
+	public InputStream stream() {
+		return new InputStream(){
+			
+			@Override
+			public int read() throws IOException {
+				return fill(1) ? BUFFER.get() & 0xFF : -1;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				if (!fill(1))
+					return -1;
+				
+				final int LENGTH = Math.min(len, BUFFER.remaining());
+				BUFFER.get(b, off, LENGTH);
+				return LENGTH;
+			}
+			
+		};
+	}
+
+	/**
+	 * Reads from the {@link ReadableByteChannel} until at least the given number of
+	 * bytes are held, returning <code>false</code> if the channel ends first.
+	 */
+	private boolean fill(int length) throws IOException {
+		while (BUFFER.remaining() < length) {
+			BUFFER.compact();
+			final int READ = CHANNEL.read(BUFFER);
+			BUFFER.flip();
+			if (READ == -1)
+				return false;
+		}
+		return true;
+	}
+
+	private ByteBuffer ensure(int length) throws IOException {
+		if (!fill(length))
+			throw new EOFException();
+		return BUFFER;
+	}
+
+}
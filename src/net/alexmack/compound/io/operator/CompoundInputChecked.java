@@ -0,0 +1,206 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
+
+/**
+ * Reads data written by {@link CompoundOutputChecked} from an {@link InputStream} for
+ * {@link CompoundIO}. Each frame is read whole and its checksum verified before any of it
+ * is decoded, so corrupted data is never parsed. A frame which fails is reported in an
+ * {@link IOException} by the address of the {@link Compound} it follows, as is the last
+ * {@link Compound} read in full if the data ends early.
+ */
+public class CompoundInputChecked extends CompoundInput {
+
+	public final InputStream STREAM;
+	private final CompoundCRC32C CRC = new CompoundCRC32C();
+	private final byte[] HEADER = new byte[4];
+	/**
+	 * The frame being read, verified once read in full.
+	 */
+	private ByteBuffer frame = ByteBuffer.allocate(256);
+	/**
+	 * Whether any {@link Compound} has been read in full, and the address of the last.
+	 */
+	private boolean verified;
+	private long address;
+	
+	public CompoundInputChecked(InputStream in) {
+		STREAM = in;
+		frame.flip();
+	}
+	
+	@Override
+	public byte readByte() throws Exception {
+		return ensure(1).get();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		return ensure(4).getInt();
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		return ensure(8).getLong();
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return ensure(8).getDouble();
+	}
+
+	@Override
+	public String readString() throws Exception {
+		final int LENGTH = ensure(2).getShort() & 0xFFFF;
+		final ByteBuffer ENCODED = ensure(LENGTH).slice();
+		ENCODED.limit(LENGTH);
+		frame.position(frame.position() + LENGTH);
+		
+		final char[] CHARS = new char[LENGTH];
+		int c = 0;
+		while (ENCODED.hasRemaining())
+			CHARS[c++] = CompoundInputBuffer.decode(ENCODED);
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Reads the header written by {@link CompoundOutputChecked}, throwing
+	 * an {@link IOException} if it is missing or of another version.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		fill(HEADER, 0, 4);
+		final int HEADER_INT = ByteBuffer.wrap(HEADER).getInt();
+		if (HEADER_INT >>> 8 != CompoundOutputChecked.MAGIC)
+			throw new IOException("Not checked Compound data!");
+		if ((HEADER_INT & 0xFF) != CompoundOutputChecked.VERSION)
+			throw new IOException("Unsupported checked Compound version " + (HEADER_INT & 0xFF) + "!");
+		return this;
+	}
+
+	/**
+	 * Ends the body of the {@link Compound} with the given address, which
+	 * must also end its frame.
+	 */
+	@Override
+	public void endBody(long address) throws Exception {
+		if (frame.hasRemaining())
+			throw new IOException("Frame length mismatch in " + describe(address) + "!");
+		verified = true;
+		this.address = address;
+	}
+
+	/**
+	 * Checks that the markers ending the data also end the last frame.
+	 */
+	@Override
+	public void readFooter() throws Exception {
+		if (frame.hasRemaining())
+			throw new IOException("Frame length mismatch after " + following() + "!");
+	}
+
+	/**
+	 * Returns the current frame with at least the given number of bytes remaining,
+	 * reading and verifying the next frame if the current one has been read.
+	 */
+	private ByteBuffer ensure(int length) throws IOException {
+		if (!frame.hasRemaining())
+			next();
+		if (frame.remaining() < length)
+			throw new IOException("Value overruns the frame after " + following() + "!");
+		return frame;
+	}
+
+	/**
+	 * Reads the next frame and verifies its checksum.
+	 */
+	private void next() throws IOException {
+		fill(HEADER, 0, 4);
+		final int LENGTH = ByteBuffer.wrap(HEADER).getInt();
+		if (LENGTH <= 0)
+			throw new IOException("Invalid frame length " + LENGTH + " after " + following() + "!");
+		
+		// Grow only as data arrives, so a corrupted length can not allocate much more than the data.
+		frame.clear();
+		int read = 0;
+		try {
+			while (read != LENGTH) {
+				if (frame.capacity() == read) {
+					final ByteBuffer GROWN = ByteBuffer.allocate((int) Math.min(LENGTH, frame.capacity() * 2L));
+					GROWN.put(frame.array(), frame.arrayOffset(), read);
+					frame = GROWN;
+				}
+				final int CHUNK = Math.min(LENGTH, frame.capacity()) - read;
+				fill(frame.array(), frame.arrayOffset() + read, CHUNK);
+				read += CHUNK;
+			}
+			fill(HEADER, 0, 4);
+		}catch (EOFException e) {
+			frame.limit(0);
+			throw new EOFException("Data ends within the frame after " + following() + ", or its length " + LENGTH + " is corrupt!");
+		}
+		frame.limit(LENGTH);
+		frame.position(0);
+		
+		CRC.reset();
+		CRC.updateInt(LENGTH);
+		CRC.update(frame.array(), frame.arrayOffset(), LENGTH);
+		if ((int) CRC.getValue() != ByteBuffer.wrap(HEADER).getInt()) {
+			frame.limit(0);
+			throw new IOException("Checksum mismatch after " + following() + "!");
+		}
+	}
+
+	/**
+	 * Reads exactly the given number of bytes, throwing an {@link EOFException}
+	 * naming the last {@link Compound} read if the data ends first.
+	 */
+	private void fill(byte[] b, int off, int len) throws IOException {
+		while (len != 0) {
+			final int READ = STREAM.read(b, off, len);
+			if (READ == -1)
+				throw new EOFException(verified ? "Data ends after " + describe(address) + "!" : "Data ends within the root Compound!");
+			off += READ;
+			len -= READ;
+		}
+	}
+
+	/**
+	 * Describes where the current frame starts, after the last {@link Compound} read in full.
+	 */
+	private String following() {
+		return verified ? describe(address) : "the header";
+	}
+
+	private static String describe(long a) {
+		return a == CompoundStackItem.ADDRESS_ROOT ? "the root Compound" : "the Compound at address " + a;
+	}
+
+}
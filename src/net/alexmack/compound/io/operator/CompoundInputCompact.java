@@ -0,0 +1,158 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Reads data written by {@link CompoundOutputCompact} from a
+ * {@link DataInputStream} for {@link CompoundIO}.
+ */
+public class CompoundInputCompact extends CompoundInput {
+
+	/**
+	 * The {@link DataInputStream} being read from.
+	 */
+	public final DataInputStream STREAM;
+	
+	private int version = CompoundOutputCompact.VERSION;
+	
+	/**
+	 * Every identifier read since the header, by index, when
+	 * identifiers are written to a dictionary.
+	 */
+	private final List<String> DICTIONARY = new ArrayList<String>();
+	
+	public CompoundInputCompact(DataInputStream i) {
+		STREAM = i;
+	}
+	
+	@Override
+	public byte readByte() throws Exception {
+		return STREAM.readByte();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		final long V = readVarint();
+		if ((V >>> 32) != 0L)
+			throw new IOException("Varint too long for an int: " + Long.toHexString(V));
+		
+		final int I = (int) V;
+		return (I >>> 1) ^ -(I & 1);
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		final long V = readVarint();
+		return (V >>> 1) ^ -(V & 1L);
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return STREAM.readDouble();
+	}
+
+	@Override
+	public float readFloat() throws Exception {
+		return STREAM.readFloat();
+	}
+
+	@Override
+	public String readString() throws Exception {
+		final long LENGTH = readVarint();
+		if (LENGTH > Integer.MAX_VALUE)
+			throw new IOException("String too long: " + LENGTH + " bytes");
+		
+		final byte[] BYTES = new byte[(int) LENGTH];
+		STREAM.readFully(BYTES);
+		final ByteBuffer BUFFER = ByteBuffer.wrap(BYTES);
+		final char[] CHARS = new char[BYTES.length];
+		int c = 0;
+		while (BUFFER.hasRemaining())
+			CHARS[c++] = CompoundInputBuffer.decode(BUFFER);
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Reads an identifier, returning the same {@link String} each time an
+	 * identifier is read from the dictionary.
+	 */
+	@Override
+	public String readIdentifier() throws Exception {
+		if (version < CompoundOutputCompact.VERSION_DICTIONARY)
+			return readString();
+		
+		final long INDEX = readVarint();
+		if (INDEX == 0L) {
+			final String IDENTIFIER = readString();
+			DICTIONARY.add(IDENTIFIER);
+			return IDENTIFIER;
+		}else if (INDEX > DICTIONARY.size()) {
+			throw new IOException("Identifier " + INDEX + " not in dictionary!");
+		}
+		return DICTIONARY.get((int) INDEX - 1);
+	}
+
+	/**
+	 * Reads the header written by {@link CompoundOutputCompact#writeHeader()},
+	 * throwing an {@link IOException} if it is missing or of a later version.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		final int MAGIC = (STREAM.readUnsignedByte() << 16) | (STREAM.readUnsignedByte() << 8) | STREAM.readUnsignedByte();
+		if (MAGIC != CompoundOutputCompact.MAGIC)
+			throw new IOException("Not compact Compound data!");
+		
+		version = STREAM.readUnsignedByte();
+		if (version < 2 || version > CompoundOutputCompact.VERSION_DICTIONARY)
+			throw new IOException("Unsupported compact Compound version " + version + "!");
+		DICTIONARY.clear();
+		return this;
+	}
+
+	@Override
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Reads an unsigned value written seven bits at a time from the lowest,
+	 * where every byte but the last has its top bit set.
+	 */
+	private long readVarint() throws Exception {
+		long v = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int B = STREAM.readUnsignedByte();
+			v |= (long) (B & 0x7F) << shift;
+			if ((B & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed varint!");
+	}
+
+}
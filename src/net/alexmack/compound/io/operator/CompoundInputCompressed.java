@@ -0,0 +1,234 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Reads data written by {@link CompoundOutputCompressed} from an {@link InputStream}
+ * for {@link CompoundIO}, decompressing one block at a time. Blocks written by a
+ * {@link CompoundCodec} not supplied with this library are read with the
+ * {@link CompoundCodec}s given. The length of each block is checked before it is
+ * read, so corrupted data throws an {@link IOException} rather than allocating
+ * more than {@link CompoundOutputCompressed#BLOCK_MAX} bytes.<br><br>
+ * Blocks are found only by reading the length of each in turn, so the data can be
+ * passed over with {@link #skip(long)} but not read from an earlier position.
+ */
+public class CompoundInputCompressed extends CompoundInput {
+
+	public final DataInputStream STREAM;
+	private final CompoundCodec[] CODECS;
+	
+	/**
+	 * The block being read from.
+	 */
+	private ByteBuffer block = ByteBuffer.allocate(0);
+	private boolean started;
+	private boolean ended;
+	
+	public CompoundInputCompressed(InputStream in, CompoundCodec... codecs) {
+		STREAM = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+		CODECS = codecs;
+	}
+	
+	@Override
+	public byte readByte() throws Exception {
+		return ensure(1).get();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		return ensure(4).getInt();
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		return ensure(8).getLong();
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return ensure(8).getDouble();
+	}
+
+	@Override
+	public String readString() throws Exception {
+		final byte[] BYTES = new byte[ensure(2).getShort() & 0xFFFF];
+		for (int b = 0; b != BYTES.length;) {
+			final int LENGTH = Math.min(BYTES.length - b, ensure(1).remaining());
+			block.get(BYTES, b, LENGTH);
+			b += LENGTH;
+		}
+		
+		final ByteBuffer ENCODED = ByteBuffer.wrap(BYTES);
+		final char[] CHARS = new char[BYTES.length];
+		int c = 0;
+		while (ENCODED.hasRemaining())
+			CHARS[c++] = CompoundInputBuffer.decode(ENCODED);
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Reads the header written by {@link CompoundOutputCompressed}, throwing
+	 * an {@link IOException} if it is missing or of a later version.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		start();
+		return this;
+	}
+
+	/**
+	 * Skips forward the given number of bytes of decompressed data, skipping whole
+	 * blocks without decompressing them. Returns the number of bytes skipped, which
+	 * is less than requested only if the data ends first.
+	 */
+	public long skip(long n) throws IOException {
+		long skipped = Math.min(n, block.remaining());
+		block.position(block.position() + (int) skipped);
+		while (skipped != n && !ended) {
+			final int RAW = header();
+			if (RAW == 0)
+				break;
+			
+			final int STORED = stored(RAW);
+			final byte ID = STREAM.readByte();
+			if (n - skipped >= RAW) {
+				skipFully(STORED);
+				skipped += RAW;
+			}else{
+				block = ByteBuffer.wrap(decompress(RAW, STORED, ID));
+				block.position((int) (n - skipped));
+				skipped = n;
+			}
+		}
+		return skipped;
+	}
+
+	private void start() throws IOException {
+		if (started)
+			return;
+		started = true;
+		final int MAGIC = (STREAM.readUnsignedByte() << 16) | (STREAM.readUnsignedByte() << 8) | STREAM.readUnsignedByte();
+		if (MAGIC != CompoundOutputCompressed.MAGIC)
+			throw new IOException("Not compressed Compound data!");
+		final int VERSION = STREAM.readUnsignedByte();
+		if (VERSION > CompoundOutputCompressed.VERSION)
+			throw new IOException("Unsupported compressed Compound version " + VERSION + "!");
+	}
+
+	/**
+	 * Reads the length before compression of the next block, which is <code>0</code>
+	 * at the end of the data.
+	 */
+	private int header() throws IOException {
+		start();
+		final int RAW = STREAM.readInt();
+		if (RAW == 0) {
+			ended = true;
+			STREAM.readInt();
+			STREAM.readByte();
+		}
+		return RAW;
+	}
+
+	/**
+	 * Reads the length as stored of the block with the given length before
+	 * compression, throwing an {@link IOException} if either is impossible.
+	 */
+	private int stored(int raw) throws IOException {
+		if (raw < 0 || raw > CompoundOutputCompressed.BLOCK_MAX)
+			throw new IOException("Invalid block length " + raw + "!");
+		final int STORED = STREAM.readInt();
+		// Blocks which do not shrink are stored as they are.
+		if (STORED <= 0 || STORED > raw)
+			throw new IOException("Invalid stored length " + STORED + " of a block of " + raw + " bytes!");
+		return STORED;
+	}
+
+	private byte[] decompress(int raw, int stored, byte id) throws IOException {
+		final byte[] STORED = new byte[stored];
+		STREAM.readFully(STORED);
+		if (id == CompoundCodec.ID_STORED) {
+			if (stored != raw)
+				throw new IOException("Stored block of " + stored + " bytes, not " + raw + "!");
+			return STORED;
+		}
+		
+		final byte[] RAW = new byte[raw];
+		final int DECOMPRESSED = codec(id).decompress(STORED, stored, RAW);
+		if (DECOMPRESSED != raw)
+			throw new IOException("Block decompressed to " + DECOMPRESSED + " bytes, not " + raw + "!");
+		return RAW;
+	}
+
+	private CompoundCodec codec(byte id) throws IOException {
+		for (final CompoundCodec CODEC : CODECS)
+			if (CODEC.ID == id)
+				return CODEC;
+		final CompoundCodec CODEC = CompoundCodec.get(id);
+		if (CODEC == null)
+			throw new IOException("Unknown codec " + id + "!");
+		return CODEC;
+	}
+
+	private void skipFully(int length) throws IOException {
+		for (int s = 0; s != length;) {
+			final int SKIPPED = STREAM.skipBytes(length - s);
+			if (SKIPPED == 0) {
+				// Skipping may stop short without the stream having ended.
+				STREAM.readByte();
+				s++;
+			}
+			s += SKIPPED;
+		}
+	}
+
+	/**
+	 * Decompresses blocks until at least the given number of bytes are held.
+	 */
+	private ByteBuffer ensure(int length) throws IOException {
+		while (block.remaining() < length) {
+			final int RAW = ended ? 0 : header();
+			if (RAW == 0)
+				throw new EOFException();
+			final int STORED = stored(RAW);
+			final byte ID = STREAM.readByte();
+			final byte[] NEXT = decompress(RAW, STORED, ID);
+			if (block.hasRemaining()) {
+				// A value crosses between blocks, join the rest of one to the next.
+				final ByteBuffer JOINED = ByteBuffer.allocate(block.remaining() + NEXT.length);
+				JOINED.put(block).put(NEXT).flip();
+				block = JOINED;
+			}else{
+				block = ByteBuffer.wrap(NEXT);
+			}
+		}
+		return block;
+	}
+
+}
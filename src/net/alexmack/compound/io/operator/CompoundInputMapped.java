@@ -0,0 +1,263 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Reads data from a file mapped into memory for {@link CompoundIO}, without copying it
+ * through read calls. Files larger than one {@link MappedByteBuffer} can hold are mapped
+ * in chunks, of {@link #CHUNK} bytes by default, values crossing between chunks are read
+ * a byte at a time. Data written by {@link CompoundOutputCompact} is detected, as by
+ * {@link CompoundInputStream}.<br><br>
+ * The mapping remains until it is garbage collected, the file should not be changed meanwhile.
+ */
+public class CompoundInputMapped extends CompoundInput {
+
+	/**
+	 * Number of bytes mapped by each {@link MappedByteBuffer} by default.
+	 */
+	public static final int CHUNK = 1 << 30;
+	
+	/**
+	 * Number of bytes mapped by each {@link MappedByteBuffer}.
+	 */
+	private final int CHUNK_SIZE;
+	private final MappedByteBuffer[] CHUNKS;
+	private final long SIZE;
+	
+	/**
+	 * The chunk being read from, and its index.
+	 */
+	private ByteBuffer chunk;
+	private int index;
+	
+	/**
+	 * Maps the given {@link File}, which is closed again once mapped.
+	 */
+	public CompoundInputMapped(File f) throws IOException {
+		this(open(f), CHUNK, true);
+	}
+	
+	/**
+	 * Maps the whole of the given {@link FileChannel}, which is left open.
+	 */
+	public CompoundInputMapped(FileChannel c) throws IOException {
+		this(c, CHUNK, false);
+	}
+	
+	/**
+	 * Maps the whole of the given {@link FileChannel}, which is left open,
+	 * in chunks of the given number of bytes.
+	 */
+	public CompoundInputMapped(FileChannel c, int chunk) throws IOException {
+		this(c, chunk, false);
+	}
+	
+	private CompoundInputMapped(FileChannel c, int chunk, boolean close) throws IOException {
+		if (chunk < 1)
+			throw new IllegalArgumentException("Chunks must not be empty!");
+		CHUNK_SIZE = chunk;
+		try {
+			SIZE = c.size();
+			CHUNKS = new MappedByteBuffer[(int) ((SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i != CHUNKS.length; i++) {
+				final long START = (long) i * CHUNK_SIZE;
+				CHUNKS[i] = c.map(FileChannel.MapMode.READ_ONLY, START, Math.min(CHUNK_SIZE, SIZE - START));
+			}
+		}finally{
+			if (close)
+				c.close();
+		}
+		position(0L);
+	}
+	
+	private CompoundInputMapped(CompoundInputMapped m) {
+		CHUNK_SIZE = m.CHUNK_SIZE;
+		CHUNKS = m.CHUNKS;
+		SIZE = m.SIZE;
+		position(m.position());
+	}
+	
+	/**
+	 * Returns a {@link CompoundInputMapped} reading the same mapping from the same position,
+	 * which is then moved independently, so that each thread may read with its own.
+	 */
+	public CompoundInputMapped duplicate() {
+		return new CompoundInputMapped(this);
+	}
+	
+	private static FileChannel open(File f) throws IOException {
+		return FileChannel.open(f.toPath(), StandardOpenOption.READ);
+	}
+	
+	/**
+	 * Returns the size of the mapped file in bytes.
+	 */
+	public long size() {
+		return SIZE;
+	}
+	
+	/**
+	 * Returns the offset in the file of the next byte to be read.
+	 */
+	public long position() {
+		return (long) index * CHUNK_SIZE + chunk.position();
+	}
+	
+	/**
+	 * Moves to the given offset in the file, from which the next byte is read.
+	 */
+	public void position(long p) {
+		if (p < 0L || p > SIZE)
+			throw new IllegalArgumentException("Position " + p + " outside of " + SIZE + " bytes");
+		
+		index = (int) (p / CHUNK_SIZE);
+		if (index == CHUNKS.length) {
+			// The end of the last chunk, or of an empty file.
+			index = Math.max(0, index - 1);
+		}
+		chunk = CHUNKS.length == 0 ? ByteBuffer.allocate(0) : CHUNKS[index].duplicate();
+		chunk.position((int) (p - (long) index * CHUNK_SIZE));
+	}
+	
+	@Override
+	public byte readByte() throws Exception {
+		return ensure(1) ? chunk.get() : next().get();
+	}
+
+	@Override
+	public boolean readBoolean() throws Exception {
+		return readByte() == 1;
+	}
+
+	@Override
+	public int readInt() throws Exception {
+		if (ensure(4))
+			return chunk.getInt();
+		return ((readByte() & 0xFF) << 24) | ((readByte() & 0xFF) << 16) | ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+	}
+
+	@Override
+	public long readLong() throws Exception {
+		if (ensure(8))
+			return chunk.getLong();
+		return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public double readDouble() throws Exception {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	/**
+	 * Reads a {@link String}, decoding it straight from the mapped file
+	 * unless it crosses between chunks.
+	 */
+	@Override
+	public String readString() throws Exception {
+		final int LENGTH = ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+		final char[] CHARS = new char[LENGTH];
+		int c = 0;
+		if (ensure(LENGTH)) {
+			final int END = chunk.position() + LENGTH;
+			while (chunk.position() != END)
+				CHARS[c++] = CompoundInputBuffer.decode(chunk);
+		}else{
+			final byte[] BYTES = new byte[LENGTH];
+			for (int b = 0; b != LENGTH; b++)
+				BYTES[b] = readByte();
+			final ByteBuffer ENCODED = ByteBuffer.wrap(BYTES);
+			while (ENCODED.hasRemaining())
+				CHARS[c++] = CompoundInputBuffer.decode(ENCODED);
+		}
+		return new String(CHARS, 0, c);
+	}
+
+	/**
+	 * Returns a {@link CompoundInputCompact}, {@link CompoundInputCompressed} or
+	 * {@link CompoundInputChecked} reading the rest of the data if it was written by
+	 * {@link CompoundOutputCompact}, {@link CompoundOutputCompressed} or
+	 * {@link CompoundOutputChecked}, otherwise this.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		if (position() == SIZE)
+			return this;
+		
+		final long START = position();
+		final int FIRST = readByte() & 0xFF;
+		position(START);
+		final CompoundInput HEADED = forHeader(FIRST, stream());
+		return HEADED == null ? this : HEADED.detect();
+	}
+
+	/**
+	 * Returns an {@link InputStream} reading the rest of the mapped file from the position
+	 * of this {@link CompoundInputMapped}, which is moved as it is read.
+	 */
+	public InputStream stream() {
+		return new InputStream(){
+			
+			@Override
+			public int read() throws IOException {
+				return position() == SIZE ? -1 : (ensure(1) ? chunk.get() : next().get()) & 0xFF;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				if (position() == SIZE)
+					return -1;
+				
+				if (!chunk.hasRemaining())
+					next();
+				final int LENGTH = Math.min(len, chunk.remaining());
+				chunk.get(b, off, LENGTH);
+				return LENGTH;
+			}
+			
+		};
+	}
+
+	/**
+	 * Returns whether the given number of bytes remain in the current chunk.
+	 */
+	private boolean ensure(int length) {
+		return chunk.remaining() >= length;
+	}
+	
+	/**
+	 * Moves to the start of the next chunk, once the current one has been read.
+	 */
+	private ByteBuffer next() throws IOException {
+		if (index + 1 >= CHUNKS.length)
+			throw new EOFException();
+		chunk = CHUNKS[++index].duplicate();
+		return chunk;
+	}
+
+}
@@ -16,6 +16,7 @@
 package net.alexmack.compound.io.operator;
 
 import java.io.DataInputStream;
+import java.io.PushbackInputStream;
 
 /**
  * Reads data from a {@link DataInputStream} for {@link CompoundIO}.
@@ -61,4 +62,23 @@ public class CompoundInputStream extends CompoundInput {
 		return STREAM.readUTF();
 	}
 
+	/**
+	 * Detects data written by {@link CompoundOutputCompact}, {@link CompoundOutputCompressed} or
+	 * {@link CompoundOutputChecked} from its header, returning a {@link CompoundInputCompact},
+	 * {@link CompoundInputCompressed} or {@link CompoundInputChecked} to read it. Otherwise the data is read as written
+	 * by {@link CompoundOutputStream}. The first byte is read ahead to decide, so this
+	 * {@link CompoundInputStream} must not be used afterwards.
+	 */
+	@Override
+	public CompoundInput detect() throws Exception {
+		final PushbackInputStream PUSHBACK = new PushbackInputStream(STREAM, 1);
+		final int FIRST = PUSHBACK.read();
+		if (FIRST != -1)
+			PUSHBACK.unread(FIRST);
+		
+		final DataInputStream DETECTED = new DataInputStream(PUSHBACK);
+		final CompoundInput HEADED = forHeader(FIRST, DETECTED);
+		return HEADED == null ? new CompoundInputStream(DETECTED) : HEADED.detect();
+	}
+
 }
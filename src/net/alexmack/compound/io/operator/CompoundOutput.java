@@ -15,6 +15,11 @@
  */
 package net.alexmack.compound.io.operator;
 
+import java.nio.ByteBuffer;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.CompoundIO;
+
 /**
  * Writes data for {@link CompoundIO}.
  */
@@ -27,4 +32,66 @@ public abstract class CompoundOutput {
 	public abstract void writeDouble(double d) throws Exception;
 	public abstract void writeString(String s) throws Exception;
 	
+	/**
+	 * Writes the given <code>float</code>, widened to a <code>double</code>
+	 * unless the format can hold it as it is.
+	 */
+	public void writeFloat(float f) throws Exception {
+		writeDouble(f);
+	}
+	
+	/**
+	 * Writes the given identifier, which is likely to be repeated. Written as by
+	 * {@link #writeString(String)} unless the format refers back to identifiers
+	 * already written.
+	 */
+	public void writeIdentifier(String s) throws Exception {
+		writeString(s);
+	}
+	
+	/**
+	 * Writes anything which must start the data, such as a format version.
+	 */
+	public void writeHeader() throws Exception {}
+	
+	/**
+	 * Writes anything which must end the body of each {@link Compound}, or each
+	 * set of changes to one, such as a checksum.
+	 */
+	public void endBody() throws Exception {}
+	
+	/**
+	 * Writes anything which must end the data, such as a checksum of the
+	 * markers written after the last body.
+	 */
+	public void writeFooter() throws Exception {}
+	
+	/**
+	 * Returns the version of the format written. Version <code>1</code> is that of
+	 * {@link CompoundOutputStream}, later versions are written by {@link CompoundIO}
+	 * with smaller addresses and without widening {@link Float}, {@link Short}
+	 * and {@link Byte} elements.
+	 */
+	public int getVersion() {
+		return 1;
+	}
+	
+	/**
+	 * Returns whether this {@link CompoundOutput} encodes data exactly as
+	 * {@link CompoundOutputStream} does, allowing already encoded data to
+	 * be written with {@link #writeBytes(ByteBuffer)}.
+	 */
+	public boolean isBinary() {
+		return false;
+	}
+	
+	/**
+	 * Writes the remaining bytes of the given {@link ByteBuffer}, which must
+	 * already be encoded as by {@link CompoundOutputStream}. Only supported
+	 * if {@link #isBinary()} returns <code>true</code>.
+	 */
+	public void writeBytes(ByteBuffer b) throws Exception {
+		throw new UnsupportedOperationException(getClass().getName() + " is not binary!");
+	}
+	
 }
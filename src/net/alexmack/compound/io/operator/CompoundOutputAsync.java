@@ -0,0 +1,189 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Writes data to an {@link AsynchronousFileChannel} for {@link CompoundIO} through two
+ * {@link ByteBuffer}s, one being filled while the other is written, so that encoding is
+ * only held up if the channel falls behind. Data is encoded exactly as by
+ * {@link CompoundOutputStream}. {@link #flush()} must be called once everything has
+ * been written.
+ */
+public class CompoundOutputAsync extends CompoundOutput implements Flushable {
+
+	public final AsynchronousFileChannel CHANNEL;
+	/**
+	 * The buffer being filled, and the buffer being written.
+	 */
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(CompoundOutputChannel.CAPACITY);
+	private ByteBuffer writing = ByteBuffer.allocateDirect(CompoundOutputChannel.CAPACITY);
+	private Future<Integer> pending;
+	/**
+	 * Position in the file of the first byte held, and of the first byte still being written.
+	 */
+	private long offset;
+	private long writingOffset;
+	
+	public CompoundOutputAsync(AsynchronousFileChannel c) {
+		this(c, 0L);
+	}
+	
+	/**
+	 * Writes to the given {@link AsynchronousFileChannel} from the given position.
+	 */
+	public CompoundOutputAsync(AsynchronousFileChannel c, long position) {
+		CHANNEL = c;
+		offset = position;
+	}
+	
+	@Override
+	public void writeByte(byte b) throws Exception {
+		ensure(1).put(b);
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws Exception {
+		writeByte(b ? (byte)1 : (byte)0);
+	}
+
+	@Override
+	public void writeInt(int i) throws Exception {
+		ensure(4).putInt(i);
+	}
+
+	@Override
+	public void writeLong(long l) throws Exception {
+		ensure(8).putLong(l);
+	}
+
+	@Override
+	public void writeDouble(double d) throws Exception {
+		writeLong(Double.doubleToLongBits(d));
+	}
+
+	@Override
+	public void writeString(String s) throws Exception {
+		final int LENGTH = CompoundInputBuffer.encodedLength(s);
+		if (LENGTH > 0xFFFF)
+			throw new UTFDataFormatException("Encoded string too long: " + LENGTH + " bytes");
+
+		ensure(2).putShort((short) LENGTH);
+		for (int c = 0; c != s.length(); c++) {
+			final char CHAR = s.charAt(c);
+			if (CHAR >= 0x0001 && CHAR <= 0x007F) {
+				ensure(1).put((byte) CHAR);
+			}else if (CHAR <= 0x07FF) {
+				ensure(2).put((byte) (0xC0 | (CHAR >> 6))).put((byte) (0x80 | (CHAR & 0x3F)));
+			}else{
+				ensure(3).put((byte) (0xE0 | (CHAR >> 12))).put((byte) (0x80 | ((CHAR >> 6) & 0x3F))).put((byte) (0x80 | (CHAR & 0x3F)));
+			}
+		}
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public void writeBytes(ByteBuffer b) throws Exception {
+		while (b.remaining() > buffer.remaining()) {
+			final ByteBuffer PART = b.duplicate();
+			PART.limit(PART.position() + buffer.remaining());
+			buffer.put(PART);
+			b.position(PART.position());
+			swap();
+		}
+		buffer.put(b);
+	}
+
+	/**
+	 * Returns the position in the file after the last byte written, including those still held.
+	 */
+	public long position() {
+		return offset + buffer.position();
+	}
+
+	/**
+	 * Writes everything held, waiting until it has been written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (buffer.position() != 0)
+			swap();
+		await();
+	}
+
+	/**
+	 * Starts writing the buffer being filled, once the last has been written,
+	 * and fills the other meanwhile.
+	 */
+	private void swap() throws IOException {
+		await();
+		final ByteBuffer FILLED = buffer;
+		buffer = writing;
+		writing = FILLED;
+		writing.flip();
+		writingOffset = offset;
+		offset += writing.remaining();
+		pending = CHANNEL.write(writing, writingOffset);
+		buffer.clear();
+	}
+
+	/**
+	 * Waits until the buffer being written has been written in full.
+	 */
+	private void await() throws IOException {
+		while (pending != null) {
+			writingOffset += get(pending);
+			pending = writing.hasRemaining() ? CHANNEL.write(writing, writingOffset) : null;
+		}
+	}
+
+	private ByteBuffer ensure(int length) throws IOException {
+		if (buffer.remaining() < length)
+			swap();
+		return buffer;
+	}
+
+	/**
+	 * Waits for the given read or write, throwing any {@link IOException} it failed with.
+	 */
+	static int get(Future<Integer> f) throws IOException {
+		try {
+			return f.get().intValue();
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes data to a {@link ByteBuffer} for {@link CompoundIO}, which grows as
+ * required. Data is encoded exactly as by {@link CompoundOutputStream}.
+ */
+public class CompoundOutputBuffer extends CompoundOutput {
+
+	private ByteBuffer buffer;
+
+	public CompoundOutputBuffer() {
+		this(256);
+	}
+
+	public CompoundOutputBuffer(int capacity) {
+		buffer = ByteBuffer.allocate(capacity);
+	}
+
+	@Override
+	public void writeByte(byte b) throws Exception {
+		ensure(1).put(b);
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws Exception {
+		writeByte(b ? (byte)1 : (byte)0);
+	}
+
+	@Override
+	public void writeInt(int i) throws Exception {
+		ensure(4).putInt(i);
+	}
+
+	@Override
+	public void writeLong(long l) throws Exception {
+		ensure(8).putLong(l);
+	}
+
+	@Override
+	public void writeDouble(double d) throws Exception {
+		writeLong(Double.doubleToLongBits(d));
+	}
+
+	@Override
+	public void writeString(String s) throws Exception {
+		final int LENGTH = CompoundInputBuffer.encodedLength(s);
+		if (LENGTH > 0xFFFF)
+			throw new UTFDataFormatException("Encoded string too long: " + LENGTH + " bytes");
+
+		final ByteBuffer BUFFER = ensure(2 + LENGTH);
+		BUFFER.putShort((short) LENGTH);
+		for (int c = 0; c != s.length(); c++) {
+			final char CHAR = s.charAt(c);
+			if (CHAR >= 0x0001 && CHAR <= 0x007F) {
+				BUFFER.put((byte) CHAR);
+			}else if (CHAR <= 0x07FF) {
+				BUFFER.put((byte) (0xC0 | (CHAR >> 6)));
+				BUFFER.put((byte) (0x80 | (CHAR & 0x3F)));
+			}else{
+				BUFFER.put((byte) (0xE0 | (CHAR >> 12)));
+				BUFFER.put((byte) (0x80 | ((CHAR >> 6) & 0x3F)));
+				BUFFER.put((byte) (0x80 | (CHAR & 0x3F)));
+			}
+		}
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public void writeBytes(ByteBuffer b) throws Exception {
+		ensure(b.remaining()).put(b);
+	}
+
+	/**
+	 * Returns the number of bytes written.
+	 */
+	public int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Discards everything written, keeping the allocated capacity.
+	 */
+	public void reset() {
+		buffer.clear();
+	}
+
+	/**
+	 * Returns a read-only view of the bytes written, valid until more are written.
+	 */
+	public ByteBuffer buffer() {
+		final ByteBuffer BUFFER = buffer.duplicate();
+		BUFFER.flip();
+		return BUFFER.asReadOnlyBuffer();
+	}
+
+	public byte[] bytes() {
+		final byte[] BYTES = new byte[buffer.position()];
+		buffer().get(BYTES);
+		return BYTES;
+	}
+
+	private ByteBuffer ensure(int length) {
+		if (buffer.remaining() < length) {
+			final ByteBuffer GROWN = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+			buffer.flip();
+			GROWN.put(buffer);
+			buffer = GROWN;
+		}
+		return buffer;
+	}
+
+}
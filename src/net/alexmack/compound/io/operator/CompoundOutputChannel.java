@@ -0,0 +1,148 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Writes data to a {@link WritableByteChannel} for {@link CompoundIO}, through a
+ * {@link ByteBuffer} which is written to the channel each time it fills. Data is
+ * encoded exactly as by {@link CompoundOutputStream}. {@link #flush()} must be
+ * called once everything has been written.
+ */
+public class CompoundOutputChannel extends CompoundOutput implements Flushable {
+
+	/**
+	 * Capacity of the {@link ByteBuffer} used if none is given.
+	 */
+	public static final int CAPACITY = 1 << 16;
+	
+	public final WritableByteChannel CHANNEL;
+	private final ByteBuffer BUFFER;
+	/**
+	 * Number of bytes written to the {@link WritableByteChannel}.
+	 */
+	private long written;
+	
+	public CompoundOutputChannel(WritableByteChannel c) {
+		this(c, ByteBuffer.allocateDirect(CAPACITY));
+	}
+	
+	/**
+	 * Writes to the given {@link WritableByteChannel} through the given {@link ByteBuffer},
+	 * which is cleared first and may be used again once this has been flushed.
+	 */
+	public CompoundOutputChannel(WritableByteChannel c, ByteBuffer b) {
+		if (b.capacity() < 8)
+			throw new IllegalArgumentException("Buffer too small: " + b.capacity() + " bytes");
+		CHANNEL = c;
+		BUFFER = b;
+		BUFFER.clear();
+	}
+	
+	@Override
+	public void writeByte(byte b) throws Exception {
+		ensure(1).put(b);
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws Exception {
+		writeByte(b ? (byte)1 : (byte)0);
+	}
+
+	@Override
+	public void writeInt(int i) throws Exception {
+		ensure(4).putInt(i);
+	}
+
+	@Override
+	public void writeLong(long l) throws Exception {
+		ensure(8).putLong(l);
+	}
+
+	@Override
+	public void writeDouble(double d) throws Exception {
+		writeLong(Double.doubleToLongBits(d));
+	}
+
+	@Override
+	public void writeString(String s) throws Exception {
+		final int LENGTH = CompoundInputBuffer.encodedLength(s);
+		if (LENGTH > 0xFFFF)
+			throw new UTFDataFormatException("Encoded string too long: " + LENGTH + " bytes");
+
+		ensure(2).putShort((short) LENGTH);
+		for (int c = 0; c != s.length(); c++) {
+			final char CHAR = s.charAt(c);
+			if (CHAR >= 0x0001 && CHAR <= 0x007F) {
+				ensure(1).put((byte) CHAR);
+			}else if (CHAR <= 0x07FF) {
+				ensure(2).put((byte) (0xC0 | (CHAR >> 6))).put((byte) (0x80 | (CHAR & 0x3F)));
+			}else{
+				ensure(3).put((byte) (0xE0 | (CHAR >> 12))).put((byte) (0x80 | ((CHAR >> 6) & 0x3F))).put((byte) (0x80 | (CHAR & 0x3F)));
+			}
+		}
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public void writeBytes(ByteBuffer b) throws Exception {
+		if (b.remaining() <= BUFFER.remaining()) {
+			BUFFER.put(b);
+			return;
+		}
+		
+		// Too much to hold, write what is held then the bytes given directly.
+		flush();
+		while (b.hasRemaining())
+			written += CHANNEL.write(b);
+	}
+
+	/**
+	 * Returns the number of bytes written so far, including those still held.
+	 */
+	public long position() {
+		return written + BUFFER.position();
+	}
+
+	/**
+	 * Writes everything held to the {@link WritableByteChannel}.
+	 */
+	@Override
+	public void flush() throws IOException {
+		BUFFER.flip();
+		while (BUFFER.hasRemaining())
+			written += CHANNEL.write(BUFFER);
+		BUFFER.clear();
+	}
+
+	private ByteBuffer ensure(int length) throws IOException {
+		if (BUFFER.remaining() < length)
+			flush();
+		return BUFFER;
+	}
+
+}
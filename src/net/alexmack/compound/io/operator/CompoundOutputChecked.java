@@ -0,0 +1,123 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.nio.ByteBuffer;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Writes data for {@link CompoundIO} encoded as by {@link CompoundOutputStream} to another
+ * binary {@link CompoundOutput} in frames, each the data written up to and including the body
+ * of a {@link Compound}, or the end of the data. Each frame is preceded by its length and
+ * followed by the {@link CompoundCRC32C} checksum of both, so every byte after the header is
+ * checked, including the address before each body and the markers between them:<br>
+ * <code>[header]([length][data][checksum])*</code><br><br>
+ * The data starts with a header, so that it is recognised by {@link CompoundInputStream} and read
+ * with {@link CompoundInputChecked}, which verifies each frame before decoding any of it and
+ * reports the address of any {@link Compound} corrupted. As the data is framed this is not
+ * {@link #isBinary()}, so encoded bodies are not copied in whole.
+ */
+public class CompoundOutputChecked extends CompoundOutput {
+
+	/**
+	 * The first three bytes of the header, followed by the version.
+	 */
+	public static final int MAGIC = 0xC2434B;
+	
+	public static final int VERSION = 2;
+	
+	private final CompoundOutput OUTPUT;
+	private final CompoundCRC32C CRC = new CompoundCRC32C();
+	/**
+	 * Holds the frame being written, so that its length is known.
+	 */
+	private final CompoundOutputBuffer FRAME = new CompoundOutputBuffer();
+	
+	public CompoundOutputChecked(CompoundOutput out) {
+		if (!out.isBinary())
+			throw new IllegalArgumentException(out.getClass().getName() + " is not binary!");
+		OUTPUT = out;
+	}
+	
+	@Override
+	public void writeByte(byte b) throws Exception {
+		FRAME.writeByte(b);
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws Exception {
+		FRAME.writeBoolean(b);
+	}
+
+	@Override
+	public void writeInt(int i) throws Exception {
+		FRAME.writeInt(i);
+	}
+
+	@Override
+	public void writeLong(long l) throws Exception {
+		FRAME.writeLong(l);
+	}
+
+	@Override
+	public void writeDouble(double d) throws Exception {
+		FRAME.writeDouble(d);
+	}
+
+	@Override
+	public void writeString(String s) throws Exception {
+		FRAME.writeString(s);
+	}
+
+	@Override
+	public void writeHeader() throws Exception {
+		OUTPUT.writeBytes(ByteBuffer.wrap(new byte[]{(byte) (MAGIC >> 16), (byte) (MAGIC >> 8), (byte) MAGIC, (byte) VERSION}));
+		FRAME.reset();
+	}
+
+	/**
+	 * Writes the frame ending with the body of a {@link Compound}.
+	 */
+	@Override
+	public void endBody() throws Exception {
+		frame();
+	}
+
+	/**
+	 * Writes the last frame, holding the markers which end the data.
+	 */
+	@Override
+	public void writeFooter() throws Exception {
+		frame();
+	}
+
+	/**
+	 * Writes everything held as a frame.
+	 */
+	private void frame() throws Exception {
+		final ByteBuffer DATA = FRAME.buffer();
+		CRC.reset();
+		CRC.updateInt(DATA.remaining());
+		CRC.update(DATA.duplicate());
+		OUTPUT.writeInt(DATA.remaining());
+		OUTPUT.writeBytes(DATA);
+		OUTPUT.writeInt((int) CRC.getValue());
+		FRAME.reset();
+	}
+
+}
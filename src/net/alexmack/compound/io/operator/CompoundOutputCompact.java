@@ -0,0 +1,176 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Writes data to a {@link DataOutputStream} for {@link CompoundIO} in the compact
+ * format, version {@link #VERSION}. Integers are written as zigzag LEB128 varints,
+ * so small values of either sign take one byte, and {@link String}s are preceded
+ * by a varint length. The data starts with a header, so that it is recognised by
+ * {@link CompoundInputStream} and read with {@link CompoundInputCompact}.<br><br>
+ * Optionally identifiers are written to a dictionary, the first time each is written
+ * since the header, and are afterwards written as their index in it. This is version
+ * {@link #VERSION_DICTIONARY} of the format.
+ */
+public class CompoundOutputCompact extends CompoundOutput {
+
+	/**
+	 * The version of the compact format written.
+	 */
+	public static final int VERSION = 2;
+	
+	/**
+	 * The version of the compact format written with an identifier dictionary.
+	 */
+	public static final int VERSION_DICTIONARY = 3;
+	
+	/**
+	 * The first three bytes of the header, followed by the version. The first byte
+	 * can not start data written by {@link CompoundOutputStream}, which would have
+	 * a negative number of elements.
+	 */
+	public static final int MAGIC = 0xC0434D;
+	
+	public final DataOutputStream STREAM;
+	
+	/**
+	 * Index of every identifier written since the header, or <code>null</code>
+	 * if identifiers are not written to a dictionary.
+	 */
+	private final Map<String, Integer> DICTIONARY;
+	
+	public CompoundOutputCompact(DataOutputStream s) {
+		this(s, false);
+	}
+	
+	/**
+	 * Writes to the given {@link DataOutputStream}, writing identifiers
+	 * to a dictionary if requested.
+	 */
+	public CompoundOutputCompact(DataOutputStream s, boolean dictionary) {
+		STREAM = s;
+		DICTIONARY = dictionary ? new HashMap<String, Integer>() : null;
+	}
+	
+	@Override
+	public void writeByte(byte b) throws Exception {
+		STREAM.writeByte(b);
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws Exception {
+		writeByte(b ? (byte)1 : (byte)0);
+	}
+
+	@Override
+	public void writeInt(int i) throws Exception {
+		writeVarint(((i << 1) ^ (i >> 31)) & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public void writeLong(long l) throws Exception {
+		writeVarint((l << 1) ^ (l >> 63));
+	}
+
+	@Override
+	public void writeDouble(double d) throws Exception {
+		STREAM.writeDouble(d);
+	}
+
+	@Override
+	public void writeFloat(float f) throws Exception {
+		STREAM.writeFloat(f);
+	}
+
+	@Override
+	public void writeString(String s) throws Exception {
+		// Encoded as by DataOutputStream.writeUTF, without its length limit.
+		final byte[] BYTES = new byte[CompoundInputBuffer.encodedLength(s)];
+		int b = 0;
+		for (int c = 0; c != s.length(); c++) {
+			final char CHAR = s.charAt(c);
+			if (CHAR >= 0x0001 && CHAR <= 0x007F) {
+				BYTES[b++] = (byte) CHAR;
+			}else if (CHAR <= 0x07FF) {
+				BYTES[b++] = (byte) (0xC0 | (CHAR >> 6));
+				BYTES[b++] = (byte) (0x80 | (CHAR & 0x3F));
+			}else{
+				BYTES[b++] = (byte) (0xE0 | (CHAR >> 12));
+				BYTES[b++] = (byte) (0x80 | ((CHAR >> 6) & 0x3F));
+				BYTES[b++] = (byte) (0x80 | (CHAR & 0x3F));
+			}
+		}
+		writeVarint(BYTES.length);
+		STREAM.write(BYTES);
+	}
+
+	/**
+	 * Writes the index of the given identifier plus one if it has been written since the
+	 * header, otherwise <code>0</code> followed by the identifier, when using a dictionary.
+	 */
+	@Override
+	public void writeIdentifier(String s) throws Exception {
+		if (DICTIONARY == null) {
+			writeString(s);
+			return;
+		}
+		
+		final Integer INDEX = DICTIONARY.get(s);
+		if (INDEX != null) {
+			writeVarint(INDEX.intValue() + 1);
+		}else{
+			writeVarint(0L);
+			writeString(s);
+			DICTIONARY.put(s, Integer.valueOf(DICTIONARY.size()));
+		}
+	}
+
+	@Override
+	public void writeHeader() throws Exception {
+		// Each header starts a new dictionary, as reading starts from a header.
+		if (DICTIONARY != null)
+			DICTIONARY.clear();
+		
+		STREAM.writeByte(MAGIC >> 16);
+		STREAM.writeByte(MAGIC >> 8);
+		STREAM.writeByte(MAGIC);
+		STREAM.writeByte(getVersion());
+	}
+
+	@Override
+	public int getVersion() {
+		return DICTIONARY != null ? VERSION_DICTIONARY : VERSION;
+	}
+
+	/**
+	 * Writes the given value, treated as unsigned, seven bits at a time from the
+	 * lowest, setting the top bit of every byte but the last.
+	 */
+	private void writeVarint(long v) throws Exception {
+		while ((v & ~0x7FL) != 0L) {
+			STREAM.writeByte((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		STREAM.writeByte((int) v);
+	}
+
+}
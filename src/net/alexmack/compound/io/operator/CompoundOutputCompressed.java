@@ -0,0 +1,256 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.io.operator;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.alexmack.compound.io.CompoundIO;
+
+/**
+ * Writes data for {@link CompoundIO} encoded as by {@link CompoundOutputStream}, in blocks
+ * compressed by a {@link CompoundCodec}, to another binary {@link CompoundOutput}. Blocks
+ * are compressed as they fill, in parallel if an {@link ExecutorService} is given, and
+ * {@link #finish()} must be called once everything has been written.<br><br>
+ * The data starts with a header, so that it is recognised by {@link CompoundInputStream}
+ * and read with {@link CompoundInputCompressed}. Each block is preceded by its length before
+ * and after compression and the {@link CompoundCodec#ID} which compressed it, so blocks may
+ * be skipped without being decompressed. A block of length <code>0</code> ends the data.
+ */
+public class CompoundOutputCompressed extends CompoundOutput implements Flushable {
+
+	/**
+	 * Number of bytes in each block by default.
+	 */
+	public static final int BLOCK = 1 << 16;
+	
+	/**
+	 * Largest number of bytes allowed in each block, so that a corrupted
+	 * block length can not make {@link CompoundInputCompressed} allocate more.
+	 */
+	public static final int BLOCK_MAX = 1 << 24;
+	
+	/**
+	 * The first three bytes of the header, followed by the version.
+	 */
+	public static final int MAGIC = 0xC1435A;
+	
+	public static final int VERSION = 1;
+	
+	private final CompoundOutput OUTPUT;
+	private final CompoundCodec CODEC;
+	private final ExecutorService EXECUTOR;
+	/**
+	 * Blocks being compressed by the {@link ExecutorService}, in order.
+	 */
+	private final ArrayDeque<Future<byte[]>> PENDING = new ArrayDeque<Future<byte[]>>();
+	private final int BLOCK_SIZE;
+	
+	private byte[] block;
+	private int size;
+	private boolean started;
+	
+	public CompoundOutputCompressed(CompoundOutput out, CompoundCodec c) {
+		this(out, c, BLOCK, null);
+	}
+	
+	/**
+	 * Writes to the given binary {@link CompoundOutput} in blocks of the given number of bytes,
+	 * at most {@link #BLOCK_MAX}, compressed by the given {@link CompoundCodec}, using the given {@link ExecutorService}
+	 * to compress blocks in parallel unless it is <code>null</code>.
+	 */
+	public CompoundOutputCompressed(CompoundOutput out, CompoundCodec c, int blockSize, ExecutorService e) {
+		if (!out.isBinary())
+			throw new IllegalArgumentException(out.getClass().getName() + " is not binary!");
+		if (blockSize < 8)
+			throw new IllegalArgumentException("Block too small: " + blockSize + " bytes");
+		if (blockSize > BLOCK_MAX)
+			throw new IllegalArgumentException("Block too large: " + blockSize + " bytes");
+		OUTPUT = out;
+		CODEC = c;
+		BLOCK_SIZE = blockSize;
+		EXECUTOR = e;
+		block = new byte[blockSize];
+	}
+	
+	@Override
+	public void writeByte(byte b) throws Exception {
+		ensure(1);
+		block[size++] = b;
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws Exception {
+		writeByte(b ? (byte)1 : (byte)0);
+	}
+
+	@Override
+	public void writeInt(int i) throws Exception {
+		ensure(4);
+		block[size++] = (byte) (i >>> 24);
+		block[size++] = (byte) (i >>> 16);
+		block[size++] = (byte) (i >>> 8);
+		block[size++] = (byte) i;
+	}
+
+	@Override
+	public void writeLong(long l) throws Exception {
+		writeInt((int) (l >>> 32));
+		writeInt((int) l);
+	}
+
+	@Override
+	public void writeDouble(double d) throws Exception {
+		writeLong(Double.doubleToLongBits(d));
+	}
+
+	@Override
+	public void writeString(String s) throws Exception {
+		final int LENGTH = CompoundInputBuffer.encodedLength(s);
+		if (LENGTH > 0xFFFF)
+			throw new UTFDataFormatException("Encoded string too long: " + LENGTH + " bytes");
+
+		ensure(2);
+		block[size++] = (byte) (LENGTH >>> 8);
+		block[size++] = (byte) LENGTH;
+		for (int c = 0; c != s.length(); c++) {
+			final char CHAR = s.charAt(c);
+			if (CHAR >= 0x0001 && CHAR <= 0x007F) {
+				ensure(1);
+				block[size++] = (byte) CHAR;
+			}else if (CHAR <= 0x07FF) {
+				ensure(2);
+				block[size++] = (byte) (0xC0 | (CHAR >> 6));
+				block[size++] = (byte) (0x80 | (CHAR & 0x3F));
+			}else{
+				ensure(3);
+				block[size++] = (byte) (0xE0 | (CHAR >> 12));
+				block[size++] = (byte) (0x80 | ((CHAR >> 6) & 0x3F));
+				block[size++] = (byte) (0x80 | (CHAR & 0x3F));
+			}
+		}
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public void writeBytes(ByteBuffer b) throws Exception {
+		while (b.hasRemaining()) {
+			ensure(1);
+			final int LENGTH = Math.min(b.remaining(), BLOCK_SIZE - size);
+			b.get(block, size, LENGTH);
+			size += LENGTH;
+		}
+	}
+
+	/**
+	 * Compresses and writes the block being filled, if it is not empty, and every block
+	 * still being compressed. Flushes the {@link CompoundOutput} written to if it can be.
+	 */
+	@Override
+	public void flush() throws IOException {
+		try {
+			if (size != 0)
+				compress();
+			while (!PENDING.isEmpty())
+				OUTPUT.writeBytes(ByteBuffer.wrap(PENDING.poll().get()));
+			if (OUTPUT instanceof Flushable)
+				((Flushable) OUTPUT).flush();
+		}catch (IOException e) {
+			throw e;
+		}catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes everything remaining followed by the end of the data.
+	 */
+	public void finish() throws Exception {
+		if (size != 0)
+			compress();
+		start();
+		while (!PENDING.isEmpty())
+			OUTPUT.writeBytes(ByteBuffer.wrap(PENDING.poll().get()));
+		// An empty block ends the data.
+		OUTPUT.writeBytes(ByteBuffer.wrap(new byte[9]));
+		flush();
+	}
+
+	private void ensure(int length) throws Exception {
+		if (size + length > BLOCK_SIZE)
+			compress();
+	}
+
+	private void start() throws Exception {
+		if (started)
+			return;
+		started = true;
+		OUTPUT.writeBytes(ByteBuffer.wrap(new byte[]{(byte) (MAGIC >> 16), (byte) (MAGIC >> 8), (byte) MAGIC, (byte) VERSION}));
+	}
+
+	/**
+	 * Compresses the block being filled and writes it, or hands it to the
+	 * {@link ExecutorService} to be written once compressed.
+	 */
+	private void compress() throws Exception {
+		start();
+		if (EXECUTOR == null) {
+			OUTPUT.writeBytes(ByteBuffer.wrap(frame(CODEC, block, size)));
+			size = 0;
+			return;
+		}
+		
+		final byte[] BLOCK_FULL = block;
+		final int SIZE = size;
+		PENDING.add(EXECUTOR.submit(new Callable<byte[]>(){
+			
+			@Override
+			public byte[] call() {
+				return frame(CODEC, BLOCK_FULL, SIZE);
+			}
+			
+		}));
+		block = new byte[BLOCK_SIZE];
+		size = 0;
+		// Write blocks in order as they complete, keeping only a few waiting.
+		while (PENDING.size() > Runtime.getRuntime().availableProcessors() * 2 || (!PENDING.isEmpty() && PENDING.peek().isDone()))
+			OUTPUT.writeBytes(ByteBuffer.wrap(PENDING.poll().get()));
+	}
+
+	/**
+	 * Returns the given number of bytes from the given block compressed by the given
+	 * {@link CompoundCodec}, or stored if that is no smaller, preceded by a block header.
+	 */
+	private static byte[] frame(CompoundCodec c, byte[] b, int length) {
+		final byte[] COMPRESSED = c.compress(b, length);
+		final int STORED = COMPRESSED == null ? length : COMPRESSED.length;
+		final ByteBuffer FRAME = ByteBuffer.allocate(9 + STORED);
+		FRAME.putInt(length).putInt(STORED).put(COMPRESSED == null ? CompoundCodec.ID_STORED : c.ID);
+		FRAME.put(COMPRESSED == null ? b : COMPRESSED, 0, STORED);
+		return FRAME.array();
+	}
+
+}
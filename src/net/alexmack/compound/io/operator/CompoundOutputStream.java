@@ -16,6 +16,7 @@
 package net.alexmack.compound.io.operator;
 
 import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
 
 import net.alexmack.compound.io.CompoundIO;
 
@@ -60,4 +61,25 @@ public class CompoundOutputStream extends CompoundOutput {
 		STREAM.writeUTF(s);
 	}
 
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	@Override
+	public void writeBytes(ByteBuffer b) throws Exception {
+		if (b.hasArray()) {
+			STREAM.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
+			return;
+		}
+		
+		final byte[] CHUNK = new byte[Math.min(b.remaining(), 8192)];
+		while (b.hasRemaining()) {
+			final int LENGTH = Math.min(b.remaining(), CHUNK.length);
+			b.get(CHUNK, 0, LENGTH);
+			STREAM.write(CHUNK, 0, LENGTH);
+		}
+	}
+
 }
@@ -16,11 +16,12 @@
 package net.alexmack.compound.stack;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.UUID;
 
 import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.CompoundIO;
 
 /**
  * Contains {@link CompoundStackItem} instances, each mapped to
@@ -53,7 +54,15 @@ public class CompoundStack {
 	private long address = Long.MIN_VALUE;
 	
 	private final ArrayList<CompoundStackItem> ITEMS = new ArrayList<CompoundStack.CompoundStackItem>();
-	private final Map<UUID, CompoundStackItem> ITEMS_UUID = new HashMap<UUID, CompoundStack.CompoundStackItem>();
+	/**
+	 * Every {@link CompoundStackItem} added, mapped by {@link Compound} reference.
+	 */
+	private final Map<Compound, CompoundStackItem> ITEMS_IDENTITY = new IdentityHashMap<Compound, CompoundStack.CompoundStackItem>();
+	/**
+	 * {@link Compound}s changed since they were last checkpointed with this
+	 * {@link CompoundStack}, see {@link Compound#checkpoint(CompoundStack)}.
+	 */
+	private final ArrayList<Compound> CHANGED = new ArrayList<Compound>();
 	
 	/**
 	 * Creates a unique address to be used by a {@link CompoundStackItem}
@@ -70,12 +79,13 @@ public class CompoundStack {
 	 * {@link CompoundStackItem}.
 	 */
 	public long add(Compound c){
-		if (ITEMS_UUID.containsKey(c.ID))
-			return ITEMS_UUID.get(c.ID).ADDRESS;
+		final CompoundStackItem EXISTING = ITEMS_IDENTITY.get(c);
+		if (EXISTING != null)
+			return EXISTING.ADDRESS;
 		
 		final CompoundStackItem ITEM  = new CompoundStackItem(createAddress(), c);
 		ITEMS.add(ITEM);
-		ITEMS_UUID.put(c.ID, ITEM);
+		ITEMS_IDENTITY.put(c, ITEM);
 		return ITEM.ADDRESS;
 	}
 	
@@ -85,7 +95,46 @@ public class CompoundStack {
 	 */
 	public void addRoot(Compound c){
 		final CompoundStackItem ITEM = new CompoundStackItem(CompoundStackItem.ADDRESS_ROOT, c);
-		ITEMS_UUID.put(c.ID, ITEM);
+		ITEMS_IDENTITY.put(c, ITEM);
+	}
+	
+	/**
+	 * Returns every {@link CompoundStackItem} added, including the root and
+	 * those already processed.
+	 */
+	public Collection<CompoundStackItem> getItems(){
+		return new ArrayList<CompoundStackItem>(ITEMS_IDENTITY.values());
+	}
+	
+	/**
+	 * Records that the given {@link Compound} has changed since it was last checkpointed
+	 * with this {@link CompoundStack}. Called by the {@link Compound}, from any thread.
+	 */
+	public void changed(Compound c){
+		synchronized (CHANGED) {
+			CHANGED.add(c);
+		}
+	}
+	
+	/**
+	 * Returns the {@link CompoundStackItem} of every {@link Compound} recorded by
+	 * {@link #changed(Compound)} since the last call, as used by {@link CompoundIO#writeDelta}.
+	 * Each must be checkpointed again, or later changes to it are not recorded.
+	 */
+	public Collection<CompoundStackItem> takeChanged(){
+		final Compound[] COMPOUNDS;
+		synchronized (CHANGED) {
+			COMPOUNDS = CHANGED.toArray(new Compound[CHANGED.size()]);
+			CHANGED.clear();
+		}
+		
+		final ArrayList<CompoundStackItem> CHANGED_ITEMS = new ArrayList<CompoundStackItem>(COMPOUNDS.length);
+		for (final Compound COMPOUND : COMPOUNDS) {
+			final CompoundStackItem ITEM = ITEMS_IDENTITY.get(COMPOUND);
+			if (ITEM != null)
+				CHANGED_ITEMS.add(ITEM);
+		}
+		return CHANGED_ITEMS;
 	}
 	
 	/**
@@ -17,6 +17,7 @@ package net.alexmack.compound.stack;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 import net.alexmack.compound.Compound;
 import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
@@ -32,11 +33,32 @@ public class CompoundStackReverse {
 	/**
 	 * {@link Compound} instances mapped by address.
 	 */
-	private final Map<Long, Compound> STACK = new HashMap<Long, Compound>();
+	protected final Map<Long, Compound> STACK;
 	private final Compound ROOT;
+	/**
+	 * Creates the {@link Compound} for an address not yet in {@link #STACK}.
+	 */
+	private final Function<Long, Compound> CREATE = new Function<Long, Compound>(){
+		
+		@Override
+		public Compound apply(Long a) {
+			return create();
+		}
+		
+	};
 	
 	public CompoundStackReverse(Compound r){
+		this(r, new HashMap<Long, Compound>());
+	}
+	
+	/**
+	 * Maps {@link Compound}s by address in the given empty {@link Map}, so that a subclass
+	 * can choose one suited to how it is used, such as a {@link java.util.concurrent.ConcurrentMap}
+	 * to be used by many threads at once.
+	 */
+	protected CompoundStackReverse(Compound r, Map<Long, Compound> m){
 		ROOT = r;
+		STACK = m;
 	}
 	
 	/**
@@ -48,10 +70,16 @@ public class CompoundStackReverse {
 		if (a.longValue() == CompoundStackItem.ADDRESS_ROOT)
 			return ROOT;
 		
-		if (!STACK.containsKey(a))
-			STACK.put(a, new Compound());
-		
-		return STACK.get(a);
+		return STACK.computeIfAbsent(a, CREATE);
+	}
+	
+	/**
+	 * Creates the {@link Compound} to be assigned a new address, called once
+	 * for each. Override to control how {@link Compound}s being read are stored.
+	 * Must not call {@link #get(Long)}.
+	 */
+	protected Compound create(){
+		return new Compound();
 	}
 	
 }
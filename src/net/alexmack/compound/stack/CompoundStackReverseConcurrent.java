@@ -0,0 +1,32 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.stack;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.alexmack.compound.Compound;
+
+/**
+ * {@link CompoundStackReverse} which may be used by many threads at once,
+ * each address being given exactly one {@link Compound}, created once.
+ */
+public class CompoundStackReverseConcurrent extends CompoundStackReverse {
+
+	public CompoundStackReverseConcurrent(Compound r) {
+		super(r, new ConcurrentHashMap<Long, Compound>());
+	}
+	
+}
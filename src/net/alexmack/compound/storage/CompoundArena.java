@@ -0,0 +1,284 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.io.Closeable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.io.operator.CompoundInputBuffer;
+import net.alexmack.compound.io.operator.CompoundOutputBuffer;
+
+/**
+ * Direct memory in which {@link Compound}s created by {@link #create()} store
+ * their identifiers and elements, using {@link CompoundStorageOffHeap}. Such
+ * {@link Compound}s add almost nothing to the heap, so large numbers of them
+ * do not slow down garbage collection.<br><br>
+ * Memory is allocated in blocks rounded up to a power of two. Changing an element
+ * so that its encoding changes length, such as a {@link String}, copies the whole
+ * body of its {@link Compound} to a new block and frees the old one, which is
+ * reused by the next allocation of the same size, see {@link #reclaimable()}.
+ * Cells are never freed, and the direct buffer never shrinks until the whole
+ * {@link CompoundArena} is closed, after which none of its {@link Compound}s can
+ * be used. The direct buffer itself is freed once it has been collected.<br><br>
+ * The buffer is replaced whenever it grows, so every access to its
+ * {@link Compound}s locks the whole {@link CompoundArena}. It is best suited
+ * to large amounts of data read by few threads which rarely changes.
+ */
+public class CompoundArena implements Closeable {
+
+	/**
+	 * Offset of an empty body, shared by every new {@link Compound}.
+	 */
+	static final int EMPTY_BODY = 0;
+
+	/**
+	 * Bytes taken by a cell, holding the offset and length of a body.
+	 */
+	static final int CELL_LENGTH = 8;
+
+	/**
+	 * Size class of the smallest block, that of a cell.
+	 */
+	private static final int MIN_CLASS = 3;
+
+	/**
+	 * Size class of the largest block.
+	 */
+	private static final int MAX_CLASS = 30;
+
+	/**
+	 * Weakly references the {@link Compound} using a cell, so that the same
+	 * instance is returned for the cell while it is in use.
+	 */
+	private static class CompoundReference extends WeakReference<Compound> {
+
+		private final int CELL;
+
+		private CompoundReference(Compound c, int cell, ReferenceQueue<Compound> q) {
+			super(c, q);
+			CELL = cell;
+		}
+
+	}
+
+	private final Map<Integer, CompoundReference> COMPOUNDS = new HashMap<Integer, CompoundReference>();
+	private final ReferenceQueue<Compound> QUEUE = new ReferenceQueue<Compound>();
+	private final CompoundOutputBuffer SCRATCH = new CompoundOutputBuffer();
+
+	/**
+	 * Offsets of the freed blocks of each size class, used as stacks.
+	 */
+	private final int[][] FREE = new int[MAX_CLASS + 1][];
+	private final int[] FREE_COUNT = new int[MAX_CLASS + 1];
+
+	private ByteBuffer buffer;
+	private CompoundInputBuffer input;
+	private int used;
+	private int reclaimable;
+
+	public CompoundArena() {
+		this(1 << 16);
+	}
+
+	/**
+	 * Creates a {@link CompoundArena} with the given initial capacity in bytes.
+	 */
+	public CompoundArena(int capacity) {
+		buffer = ByteBuffer.allocateDirect(Math.max(capacity, 64));
+		buffer.putInt(EMPTY_BODY, 0);
+		used = 4;
+	}
+
+	/**
+	 * Creates an empty {@link Compound} stored in this {@link CompoundArena}.
+	 */
+	public synchronized Compound create() {
+		final int CELL = allocate(CELL_LENGTH);
+		buffer.putInt(CELL, EMPTY_BODY);
+		buffer.putInt(CELL + 4, 4);
+		return compound(CELL);
+	}
+
+	/**
+	 * Returns the number of bytes allocated, including those which are
+	 * {@link #reclaimable()}.
+	 */
+	public synchronized int size() {
+		return used;
+	}
+
+	/**
+	 * Returns the number of bytes in blocks which have been freed by changes
+	 * and not yet reused.
+	 */
+	public synchronized int reclaimable() {
+		return reclaimable;
+	}
+
+	public synchronized boolean isClosed() {
+		return buffer == null;
+	}
+
+	/**
+	 * Drops the direct buffer of this {@link CompoundArena}, whose memory is released
+	 * once the buffer is collected, as is done for a buffer replaced when growing. It is
+	 * not freed at once, as buffers sliced from it may still be being written. None of
+	 * its {@link Compound}s can be used afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		buffer = null;
+		input = null;
+		COMPOUNDS.clear();
+		Arrays.fill(FREE, null);
+		Arrays.fill(FREE_COUNT, 0);
+		reclaimable = 0;
+	}
+
+	/**
+	 * Returns the {@link Compound} using the given cell.
+	 */
+	synchronized Compound compound(int cell) {
+		for (Reference<? extends Compound> r; (r = QUEUE.poll()) != null;) {
+			final CompoundReference REFERENCE = (CompoundReference) r;
+			if (COMPOUNDS.get(REFERENCE.CELL) == REFERENCE)
+				COMPOUNDS.remove(REFERENCE.CELL);
+		}
+
+		final CompoundReference REFERENCE = COMPOUNDS.get(cell);
+		Compound compound = REFERENCE == null ? null : REFERENCE.get();
+		if (compound == null) {
+			compound = new Compound(new CompoundStorageOffHeap(this, cell));
+			COMPOUNDS.put(cell, new CompoundReference(compound, cell, QUEUE));
+		}
+		return compound;
+	}
+
+	/**
+	 * Makes the given {@link Compound} the one returned for the given cell,
+	 * unless one is already in use.
+	 */
+	synchronized void register(int cell, Compound c) {
+		final CompoundReference REFERENCE = COMPOUNDS.get(cell);
+		if (REFERENCE == null || REFERENCE.get() == null)
+			COMPOUNDS.put(cell, new CompoundReference(c, cell, QUEUE));
+	}
+
+	/**
+	 * Allocates a block of at least the given number of bytes, returning its offset.
+	 * A freed block of the same size class is reused if there is one. The buffer
+	 * is replaced when it grows, so {@link #buffer()} must be called again.
+	 */
+	int allocate(int length) {
+		final ByteBuffer BUFFER = buffer();
+		final int CLASS = sizeClass(length);
+		if (FREE_COUNT[CLASS] != 0) {
+			reclaimable -= 1 << CLASS;
+			return FREE[CLASS][--FREE_COUNT[CLASS]];
+		}
+
+		final int BLOCK = 1 << CLASS;
+		if (BUFFER.capacity() - used < BLOCK) {
+			if (Integer.MAX_VALUE - used < BLOCK)
+				throw new IllegalStateException("CompoundArena full!");
+
+			final int CAPACITY = (int) Math.min(Integer.MAX_VALUE, Math.max(BUFFER.capacity() * 2L, (long) used + BLOCK));
+			final ByteBuffer USED = BUFFER.duplicate();
+			USED.position(0);
+			USED.limit(used);
+			buffer = ByteBuffer.allocateDirect(CAPACITY);
+			buffer.put(USED);
+			buffer.clear();
+			input = null;
+		}
+
+		final int OFFSET = used;
+		used += BLOCK;
+		return OFFSET;
+	}
+
+	/**
+	 * Frees the block allocated for the given number of bytes at the given offset,
+	 * so that {@link #allocate(int)} can reuse it.
+	 */
+	void free(int offset, int length) {
+		if (offset == EMPTY_BODY)
+			return;
+		final int CLASS = sizeClass(length);
+		if (FREE[CLASS] == null)
+			FREE[CLASS] = new int[8];
+		else if (FREE_COUNT[CLASS] == FREE[CLASS].length)
+			FREE[CLASS] = Arrays.copyOf(FREE[CLASS], FREE_COUNT[CLASS] * 2);
+		FREE[CLASS][FREE_COUNT[CLASS]++] = offset;
+		reclaimable += 1 << CLASS;
+	}
+
+	/**
+	 * Returns the size class of a block holding the given number of bytes, the
+	 * power of two of its length.
+	 */
+	private static int sizeClass(int length) {
+		final int CLASS = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(length - 1));
+		if (CLASS > MAX_CLASS)
+			throw new IllegalStateException("CompoundArena full!");
+		return CLASS;
+	}
+
+	/**
+	 * Returns the buffer holding all data of this {@link CompoundArena}.
+	 */
+	ByteBuffer buffer() {
+		if (buffer == null)
+			throw new IllegalStateException("CompoundArena closed!");
+		return buffer;
+	}
+
+	/**
+	 * Returns a {@link CompoundInputBuffer} reading from the given offset.
+	 */
+	CompoundInputBuffer input(int offset) {
+		if (input == null)
+			input = new CompoundInputBuffer(buffer().duplicate());
+		input.BUFFER.position(offset);
+		return input;
+	}
+
+	/**
+	 * Returns an emptied {@link CompoundOutputBuffer} for encoding entries.
+	 */
+	CompoundOutputBuffer scratch() {
+		SCRATCH.reset();
+		return SCRATCH;
+	}
+
+	/**
+	 * Returns a view of the bytes between the given offsets.
+	 */
+	ByteBuffer slice(int start, int end) {
+		final ByteBuffer SLICE = buffer().duplicate();
+		SLICE.limit(end);
+		SLICE.position(start);
+		return SLICE;
+	}
+
+}
@@ -0,0 +1,97 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.nio.ByteBuffer;
+
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * Navigates bodies encoded as written by {@link CompoundIO}, using absolute
+ * offsets into a {@link ByteBuffer}. A body is the number of entries, followed
+ * by each entry as its identifier, the {@link CompoundType#ID} and the value.
+ */
+final class CompoundEncoding {
+
+	private CompoundEncoding() {}
+
+	/**
+	 * Returns the offset of the value of the entry at the given offset, just after its type.
+	 */
+	static int value(ByteBuffer b, int entry) {
+		return entry + 2 + (b.getShort(entry) & 0xFFFF) + 1;
+	}
+
+	/**
+	 * Returns the {@link CompoundType} of the value at the given offset.
+	 */
+	static CompoundType type(ByteBuffer b, int value) {
+		return CompoundType.get(b.get(value - 1));
+	}
+
+	/**
+	 * Returns the offset of the entry following the entry at the given offset.
+	 */
+	static int skip(ByteBuffer b, int entry) {
+		final int VALUE = value(b, entry);
+		switch (type(b, VALUE)) {
+		case BOOLEAN:
+			return VALUE + 1;
+		case INTEGER:
+			return VALUE + 4;
+		case INTEGER_LONG:
+		case DOUBLE:
+		case COMPOUND:
+			return VALUE + 8;
+		case STRING:
+		case BIG_INTEGER:
+		case BIG_DECIMAL:
+			return VALUE + 2 + (b.getShort(VALUE) & 0xFFFF);
+		default:
+			return VALUE;
+		}
+	}
+
+	/**
+	 * Returns whether the identifier encoded at the given offset is equal to
+	 * the given identifier made lower case, without decoding it.
+	 */
+	static boolean matches(ByteBuffer b, int offset, String i) {
+		final int END = offset + 2 + (b.getShort(offset) & 0xFFFF);
+		int p = offset + 2;
+		for (int c = 0; c != i.length(); c++) {
+			if (p == END)
+				return false;
+			final int FIRST = b.get(p) & 0xFF;
+			final char CHAR;
+			if (FIRST < 0x80) {
+				CHAR = (char) FIRST;
+				p++;
+			}else if (FIRST < 0xE0) {
+				CHAR = (char) (((FIRST & 0x1F) << 6) | (b.get(p + 1) & 0x3F));
+				p += 2;
+			}else{
+				CHAR = (char) (((FIRST & 0x0F) << 12) | ((b.get(p + 1) & 0x3F) << 6) | (b.get(p + 2) & 0x3F));
+				p += 3;
+			}
+			if (CHAR != Character.toLowerCase(i.charAt(c)))
+				return false;
+		}
+		return p == END;
+	}
+
+}
@@ -0,0 +1,158 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundParser;
+import net.alexmack.compound.io.operator.CompoundInputMapped;
+import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
+
+/**
+ * {@link Compound}s in a {@link File} written by {@link CompoundIO#writeIndexed(Compound, File)},
+ * each read from the {@link File} only when it is first used. The {@link File} holds the data as
+ * written by {@link CompoundIO#write(Compound, File)}, followed by the offset of the body of
+ * every {@link Compound} in address order and then a trailer:<br>
+ * <code>[data][root offset][offset]*[index offset][{@link #MAGIC}]</code><br><br>
+ * The {@link File} is mapped into memory and must not be changed while the {@link Compound}s
+ * are in use. Each {@link Compound} is read into a {@link CompoundStorageSynchronized} by a
+ * {@link CompoundStorageIndexed}, with its {@link Compound} elements found by address.
+ */
+public class CompoundIndex {
+
+	/**
+	 * Ends a {@link File} with an index, spelling "CMPINDEX".
+	 */
+	public static final long MAGIC = 0x434D50494E444558L;
+	
+	private final CompoundInputMapped INPUT;
+	/**
+	 * Offset of the offset of the root body, followed by that of every other body.
+	 */
+	private final long INDEX;
+	private final long COUNT;
+	
+	/**
+	 * {@link Compound}s reached so far by address.
+	 */
+	private final Map<Long, Compound> COMPOUNDS = new HashMap<Long, Compound>();
+	/**
+	 * Identifiers read so far, sharing one {@link CompoundKey} for each.
+	 */
+	private final Map<String, CompoundKey> KEYS = new HashMap<String, CompoundKey>();
+	private final Compound ROOT;
+	
+	/**
+	 * Maps the given {@link File} and reads its trailer, throwing an
+	 * {@link IOException} if it has no index.
+	 */
+	public CompoundIndex(File f) throws Exception {
+		INPUT = new CompoundInputMapped(f);
+		final long SIZE = INPUT.size();
+		long offset = -1L;
+		if (SIZE >= 24) {
+			INPUT.position(SIZE - 16);
+			offset = INPUT.readLong();
+			if (INPUT.readLong() != MAGIC)
+				offset = -1L;
+		}
+		if (offset < 0L || offset > SIZE - 24)
+			throw new IOException("No Compound index in " + f);
+		
+		INDEX = offset;
+		COUNT = (SIZE - 24 - offset) / 8;
+		ROOT = new Compound(new CompoundStorageIndexed(this, CompoundStackItem.ADDRESS_ROOT));
+	}
+	
+	/**
+	 * Returns the root {@link Compound}.
+	 */
+	public Compound getRoot() {
+		return ROOT;
+	}
+	
+	/**
+	 * Returns the number of {@link Compound}s in the {@link File}, including the root.
+	 */
+	public long size() {
+		return COUNT + 1;
+	}
+	
+	/**
+	 * Returns the {@link Compound} with the given address. As when reading with
+	 * {@link CompoundIO}, a {@link Compound} which was not written is empty.
+	 */
+	synchronized Compound compound(long address) {
+		if (address == CompoundStackItem.ADDRESS_ROOT)
+			return ROOT;
+		
+		final Long ADDRESS = Long.valueOf(address);
+		Compound compound = COMPOUNDS.get(ADDRESS);
+		if (compound == null) {
+			compound = new Compound(new CompoundStorageIndexed(this, address));
+			COMPOUNDS.put(ADDRESS, compound);
+		}
+		return compound;
+	}
+	
+	/**
+	 * Reads the body of the {@link Compound} with the given address into a new {@link CompoundStorage}.
+	 */
+	synchronized CompoundStorage load(long address) {
+		final CompoundStorage STORAGE = new CompoundStorageSynchronized();
+		// Addresses count up from the minimum, the root is first in the index.
+		final long ENTRY = address == CompoundStackItem.ADDRESS_ROOT ? 0L : address - Long.MIN_VALUE + 1;
+		if (ENTRY < 0L || ENTRY > COUNT)
+			return STORAGE;
+		
+		try {
+			INPUT.position(INDEX + ENTRY * 8);
+			INPUT.position(INPUT.readLong());
+			final CompoundParser PARSER = CompoundParser.body(INPUT, address);
+			for (CompoundParser.Event event = PARSER.next(); event != CompoundParser.Event.END; event = PARSER.next()) {
+				if (event == CompoundParser.Event.START_COMPOUND || event == CompoundParser.Event.END_COMPOUND)
+					continue;
+				
+				final CompoundKey KEY = key(PARSER.getIdentifier());
+				if (event == CompoundParser.Event.REFERENCE)
+					STORAGE.set(KEY, compound(PARSER.getAddress()));
+				else if (PARSER.isPrimitive())
+					STORAGE.setPrimitive(KEY, PARSER.getType(), PARSER.getBits());
+				else if (PARSER.getType().isValid())
+					STORAGE.set(KEY, PARSER.getValue());
+			}
+		}catch (Exception e) {
+			throw new RuntimeException("Failed to read Compound " + address + "!", e);
+		}
+		return STORAGE;
+	}
+	
+	private CompoundKey key(String identifier) {
+		CompoundKey key = KEYS.get(identifier);
+		if (key == null) {
+			key = CompoundKey.of(identifier);
+			KEYS.put(identifier, key);
+		}
+		return key;
+	}
+	
+}
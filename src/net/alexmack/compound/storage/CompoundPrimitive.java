@@ -0,0 +1,103 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * An unboxed element stored by a {@link CompoundStorage}, as the bits
+ * used by {@link CompoundType#PRIMITIVE}. Never returned as an element.
+ */
+final class CompoundPrimitive {
+
+	/**
+	 * Instances with no bits, indexed by {@link CompoundType#ordinal()}, for
+	 * marking elements whose bits are stored elsewhere.
+	 */
+	private static final CompoundPrimitive[] MARKERS = new CompoundPrimitive[CompoundType.values().length];
+
+	static {
+		for (final CompoundType TYPE : CompoundType.values())
+			if (TYPE.isPrimitive())
+				MARKERS[TYPE.ordinal()] = new CompoundPrimitive(TYPE, 0L);
+	}
+
+	final CompoundType TYPE;
+	final long BITS;
+
+	CompoundPrimitive(CompoundType t, long b) {
+		TYPE = t;
+		BITS = b;
+	}
+
+	/**
+	 * Returns the shared instance marking an element of the given type
+	 * whose bits are stored elsewhere.
+	 */
+	static CompoundPrimitive marker(CompoundType t) {
+		return MARKERS[t.ordinal()];
+	}
+
+	/**
+	 * Returns the given element as a wrapper object, if it is a {@link CompoundPrimitive}.
+	 */
+	static Object box(Object o) {
+		if (o instanceof CompoundPrimitive) {
+			final CompoundPrimitive PRIMITIVE = (CompoundPrimitive) o;
+			return PRIMITIVE.TYPE.PRIMITIVE.box(PRIMITIVE.BITS);
+		}
+		return o;
+	}
+
+	/**
+	 * Returns the {@link CompoundType} of the given element.
+	 */
+	static CompoundType type(Object o) {
+		if (o instanceof CompoundPrimitive)
+			return ((CompoundPrimitive) o).TYPE;
+		return CompoundType.get(o);
+	}
+
+	/**
+	 * Visits the given stored element with the given {@link CompoundVisitor},
+	 * as bits if it is a {@link CompoundPrimitive}.
+	 */
+	static void visit(CompoundVisitor v, CompoundKey k, Object o) throws Exception {
+		if (o instanceof CompoundPrimitive) {
+			final CompoundPrimitive PRIMITIVE = (CompoundPrimitive) o;
+			v.visitPrimitive(k, PRIMITIVE.TYPE, PRIMITIVE.BITS);
+		}else{
+			v.visit(k, o);
+		}
+	}
+
+	/**
+	 * Returns the given element as bits of the given {@link CompoundType}, or
+	 * the given default bits if the element is <code>null</code>.
+	 */
+	static long bits(Object o, CompoundType t, long d) {
+		if (o == null)
+			return d;
+		if (o instanceof CompoundPrimitive) {
+			final CompoundPrimitive PRIMITIVE = (CompoundPrimitive) o;
+			return t.convert(PRIMITIVE.TYPE, PRIMITIVE.BITS);
+		}
+		return t.PRIMITIVE.unbox(o);
+	}
+
+}
@@ -0,0 +1,188 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundType;
+import net.alexmack.compound.io.operator.CompoundOutput;
+import net.alexmack.compound.stack.CompoundStack;
+
+/**
+ * Stores the identifiers and elements of a {@link Compound}. Identifiers
+ * are case-insensitive, {@link String} identifiers are given as passed to
+ * the {@link Compound} and must be matched as if made lower case by
+ * {@link CompoundKey#fold(String)}.<br><br>
+ * Elements of a {@link CompoundType} which {@link CompoundType#isPrimitive()}
+ * may be set as bits, which must be stored without boxing. Such elements are
+ * still returned as wrapper objects by {@link #get(String)}.<br><br>
+ * Implementations decide how concurrent access is handled, allowing
+ * a {@link Compound} to be tuned for the way it is used.
+ */
+public abstract class CompoundStorage {
+
+	/**
+	 * Returns the element corresponding to the given identifier, or
+	 * <code>null</code> if there is no such element.
+	 */
+	public abstract Object get(String i);
+
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey}, or
+	 * <code>null</code> if there is no such element.
+	 */
+	public abstract Object get(CompoundKey k);
+
+	/**
+	 * Returns whether an element, including <code>null</code>, corresponds
+	 * to the given identifier.
+	 */
+	public abstract boolean has(String i);
+
+	/**
+	 * Returns whether an element, including <code>null</code>, corresponds
+	 * to the given {@link CompoundKey}.
+	 */
+	public abstract boolean has(CompoundKey k);
+
+	/**
+	 * Removes the element corresponding to the given identifier, if there is one.
+	 */
+	public abstract void remove(String i);
+
+	/**
+	 * Removes the element corresponding to the given {@link CompoundKey}, if there is one.
+	 */
+	public abstract void remove(CompoundKey k);
+
+	/**
+	 * Sets the element corresponding to the given identifier.
+	 */
+	public abstract void set(String i, Object o);
+
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey}.
+	 */
+	public abstract void set(CompoundKey k, Object o);
+
+	/**
+	 * Returns the {@link CompoundType} of the element corresponding to the
+	 * given identifier, or <code>null</code> if there is no such element.
+	 */
+	public abstract CompoundType getType(String i);
+
+	/**
+	 * Returns the {@link CompoundType} of the element corresponding to the
+	 * given {@link CompoundKey}, or <code>null</code> if there is no such element.
+	 */
+	public abstract CompoundType getType(CompoundKey k);
+
+	/**
+	 * Returns the element corresponding to the given identifier as bits of the given
+	 * primitive {@link CompoundType}, or the given default bits if the element is
+	 * <code>null</code> or there is no such element.
+	 */
+	public abstract long getPrimitive(String i, CompoundType t, long d);
+
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey} as bits of the
+	 * given primitive {@link CompoundType}, or the given default bits if the element is
+	 * <code>null</code> or there is no such element.
+	 */
+	public abstract long getPrimitive(CompoundKey k, CompoundType t, long d);
+
+	/**
+	 * Sets the element corresponding to the given identifier to the given bits
+	 * of the given primitive {@link CompoundType}.
+	 */
+	public abstract void setPrimitive(String i, CompoundType t, long b);
+
+	/**
+	 * Sets the element corresponding to the given {@link CompoundKey} to the
+	 * given bits of the given primitive {@link CompoundType}.
+	 */
+	public abstract void setPrimitive(CompoundKey k, CompoundType t, long b);
+
+	/**
+	 * Returns all elements corresponding to identifiers.
+	 */
+	public abstract Object[] getAllElements();
+
+	/**
+	 * Returns all identifiers with corresponding elements.
+	 */
+	public abstract String[] getAllIdentifiers();
+
+	/**
+	 * Returns {@link CompoundKey}s for all identifiers with corresponding elements.
+	 */
+	public abstract CompoundKey[] getAllKeys();
+
+	/**
+	 * Visits every identifier and element with the given {@link CompoundVisitor}.
+	 * Primitive elements are visited as bits. By default each entry is read
+	 * separately, so changes made meanwhile by other threads may or may not be
+	 * seen; storage which locks visits every entry under its lock, and storage
+	 * reading an immutable structure visits that structure as it was.
+	 */
+	public void forEach(CompoundVisitor v) throws Exception {
+		final CompoundKey[] KEYS = getAllKeys();
+		v.begin(KEYS.length);
+		for (final CompoundKey KEY : KEYS) {
+			final CompoundType TYPE = getType(KEY);
+			if (TYPE != null && TYPE.isPrimitive())
+				v.visitPrimitive(KEY, TYPE, getPrimitive(KEY, TYPE, 0L));
+			else
+				v.visit(KEY, get(KEY));
+		}
+	}
+
+	/**
+	 * Runs the given {@link Runnable}, which makes a number of changes. Storage which
+	 * locks holds its lock throughout, so the changes are seen together, and
+	 * {@link CompoundStoragePersistent} makes them all at once. Otherwise, as in
+	 * {@link CompoundStorageConcurrent}, the changes are made one at a time.
+	 */
+	public void update(Runnable r) {
+		r.run();
+	}
+
+	/**
+	 * Returns a new {@link CompoundStorage} of the same kind, containing
+	 * the same identifiers and elements. A {@link CompoundStorage} which
+	 * can not be changed may return itself.
+	 */
+	public abstract CompoundStorage copy();
+
+	/**
+	 * Returns a {@link CompoundStorageImmutable} containing the identifiers
+	 * and elements of this {@link CompoundStorage} at the time of calling.
+	 */
+	public abstract CompoundStorageImmutable snapshot();
+
+	/**
+	 * Writes the identifiers and elements of this {@link CompoundStorage} to the given
+	 * binary {@link CompoundOutput} exactly as {@link CompoundIO} would, adding {@link Compound}
+	 * elements to the given {@link CompoundStack}. Returns <code>false</code>, having written
+	 * nothing, if this {@link CompoundStorage} can not do so faster than {@link CompoundIO}.
+	 */
+	public boolean writeBody(CompoundOutput out, CompoundStack stack) throws Exception {
+		return false;
+	}
+
+}
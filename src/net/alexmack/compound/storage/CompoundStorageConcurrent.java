@@ -0,0 +1,223 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * {@link CompoundStorage} backed by a {@link ConcurrentHashMap}. Reads never
+ * lock and writes only contend with writes to the same bin, making this
+ * suited to instances shared between many threads.<br><br>
+ * {@link ConcurrentHashMap} cannot store <code>null</code>, so <code>null</code>
+ * elements are stored as {@link #NULL} and converted back when read.
+ * Elements are stored by {@link CompoundKey}, so {@link String} identifiers
+ * are made into {@link CompoundKey}s on access; {@link CompoundKey}s are used
+ * as they are. Primitive elements are stored as immutable {@link CompoundPrimitive}
+ * instances, so reading them never allocates.<br><br>
+ * {@link #update(Runnable)} does not lock, so its changes are made one at a
+ * time and other threads may see some of them before the rest.
+ */
+public class CompoundStorageConcurrent extends CompoundStorage {
+
+	/**
+	 * Stored in place of <code>null</code> elements.
+	 */
+	private static final Object NULL = new Object();
+
+	private final ConcurrentHashMap<CompoundKey, Object> MAP;
+
+	public CompoundStorageConcurrent() {
+		this(new ConcurrentHashMap<CompoundKey, Object>());
+	}
+
+	private CompoundStorageConcurrent(ConcurrentHashMap<CompoundKey, Object> m) {
+		MAP = m;
+	}
+
+	@Override
+	public Object get(String i) {
+		return CompoundPrimitive.box(unmask(MAP.get(CompoundKey.of(i))));
+	}
+
+	@Override
+	public Object get(CompoundKey k) {
+		return CompoundPrimitive.box(unmask(MAP.get(k)));
+	}
+
+	@Override
+	public boolean has(String i) {
+		return MAP.containsKey(CompoundKey.of(i));
+	}
+
+	@Override
+	public boolean has(CompoundKey k) {
+		return MAP.containsKey(k);
+	}
+
+	@Override
+	public void remove(String i) {
+		MAP.remove(CompoundKey.of(i));
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		MAP.remove(k);
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		MAP.put(CompoundKey.of(i), mask(o));
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		MAP.put(k, mask(o));
+	}
+
+	@Override
+	public CompoundType getType(String i) {
+		return type(MAP.get(CompoundKey.of(i)));
+	}
+
+	@Override
+	public CompoundType getType(CompoundKey k) {
+		return type(MAP.get(k));
+	}
+
+	@Override
+	public long getPrimitive(String i, CompoundType t, long d) {
+		return CompoundPrimitive.bits(unmask(MAP.get(CompoundKey.of(i))), t, d);
+	}
+
+	@Override
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		return CompoundPrimitive.bits(unmask(MAP.get(k)), t, d);
+	}
+
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		MAP.put(CompoundKey.of(i), new CompoundPrimitive(t, b));
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		MAP.put(k, new CompoundPrimitive(t, b));
+	}
+
+	@Override
+	public Object[] getAllElements() {
+		final ArrayList<Object> ELEMENTS = new ArrayList<Object>(MAP.size());
+		for (final Object ELEMENT : MAP.values())
+			ELEMENTS.add(CompoundPrimitive.box(unmask(ELEMENT)));
+		return ELEMENTS.toArray();
+	}
+
+	@Override
+	public String[] getAllIdentifiers() {
+		final CompoundKey[] KEYS = getAllKeys();
+		final String[] IDENTIFIERS = new String[KEYS.length];
+		for (int i = 0; i != KEYS.length; i++)
+			IDENTIFIERS[i] = KEYS[i].ID;
+		return IDENTIFIERS;
+	}
+
+	@Override
+	public CompoundKey[] getAllKeys() {
+		return MAP.keySet().toArray(new CompoundKey[]{});
+	}
+
+	/**
+	 * Visits a copy of the entries, as {@link ConcurrentHashMap} can not report
+	 * the number of entries an iteration will return. The entries are copied
+	 * straight from the map's nodes, without allocating for each.
+	 */
+	@Override
+	public void forEach(CompoundVisitor v) throws Exception {
+		final Entries ENTRIES = new Entries(MAP.size());
+		MAP.forEach(ENTRIES);
+		v.begin(ENTRIES.size);
+		for (int e = 0; e != ENTRIES.size; e++)
+			CompoundPrimitive.visit(v, ENTRIES.keys[e], unmask(ENTRIES.elements[e]));
+	}
+
+	/**
+	 * Returns a snapshot of this {@link CompoundStorage}. Changes made while
+	 * the snapshot is taken may or may not be included.
+	 */
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		CompoundTrie trie = CompoundTrie.EMPTY;
+		for (final Map.Entry<CompoundKey, Object> ENTRY : MAP.entrySet())
+			trie = trie.with(ENTRY.getKey(), unmask(ENTRY.getValue()));
+		return new CompoundStorageImmutable(trie);
+	}
+
+	@Override
+	public CompoundStorage copy() {
+		return new CompoundStorageConcurrent(new ConcurrentHashMap<CompoundKey, Object>(MAP));
+	}
+
+	private static Object mask(Object o) {
+		return o == null ? NULL : o;
+	}
+
+	private static Object unmask(Object o) {
+		return o == NULL ? null : o;
+	}
+
+	/**
+	 * Returns the {@link CompoundType} of the given stored element, or
+	 * <code>null</code> if there is no element.
+	 */
+	private static CompoundType type(Object o) {
+		return o == null ? null : CompoundPrimitive.type(unmask(o));
+	}
+
+	/**
+	 * Collects the entries passed by {@link ConcurrentHashMap#forEach(BiConsumer)}.
+	 */
+	private static final class Entries implements BiConsumer<CompoundKey, Object> {
+
+		CompoundKey[] keys;
+		Object[] elements;
+		int size;
+
+		Entries(int capacity) {
+			keys = new CompoundKey[Math.max(capacity, 1)];
+			elements = new Object[keys.length];
+		}
+
+		@Override
+		public void accept(CompoundKey k, Object o) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				elements = Arrays.copyOf(elements, size * 2);
+			}
+			keys[size] = k;
+			elements[size++] = o;
+		}
+
+	}
+
+}
@@ -0,0 +1,205 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.ImmutableCompound;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * {@link CompoundStorage} which can not be changed. Methods which would
+ * change it throw {@link UnsupportedOperationException}, instead the
+ * <code>with</code> and <code>without</code> methods return a new
+ * {@link CompoundStorageImmutable} sharing all unchanged structure.
+ */
+public class CompoundStorageImmutable extends CompoundStorageTrie {
+
+	public static final CompoundStorageImmutable EMPTY = new CompoundStorageImmutable(CompoundTrie.EMPTY);
+
+	/**
+	 * Only assigned after construction by {@link #freeze(Compound)}, before the
+	 * frozen graph is returned, so that frozen {@link Compound}s can refer to
+	 * each other in cycles.
+	 */
+	private volatile CompoundTrie trie;
+
+	private final boolean DEEP;
+
+	CompoundStorageImmutable(CompoundTrie t) {
+		this(t, false);
+	}
+
+	private CompoundStorageImmutable(CompoundTrie t, boolean d) {
+		trie = t;
+		DEEP = d;
+	}
+
+	@Override
+	CompoundTrie trie() {
+		return trie;
+	}
+
+	/**
+	 * Returns whether this {@link CompoundStorageImmutable} was created by
+	 * {@link #freeze(Compound)}, so every {@link Compound} reachable from it
+	 * is also frozen and can not change.
+	 */
+	public boolean isDeep() {
+		return DEEP;
+	}
+
+	/**
+	 * Returns an {@link ImmutableCompound} with the elements of the given {@link Compound}
+	 * in which every reachable {@link Compound} is replaced by an {@link ImmutableCompound}
+	 * with its elements at the time it was reached. Each {@link Compound} is frozen once,
+	 * so shared elements and cycles, including references back to the given
+	 * {@link Compound}, are kept within the frozen graph.
+	 */
+	public static ImmutableCompound freeze(Compound c) {
+		final Map<Compound, ImmutableCompound> FROZEN = new IdentityHashMap<>();
+		final ArrayDeque<Compound> PENDING = new ArrayDeque<>();
+		final ArrayList<CompoundKey> KEYS = new ArrayList<>();
+		final ArrayList<Compound> FOUND = new ArrayList<>();
+		final CompoundVisitor COLLECT = new CompoundVisitor() {
+			@Override
+			public void visit(CompoundKey k, Object o) {
+				if (o instanceof Compound) {
+					KEYS.add(k);
+					FOUND.add((Compound) o);
+				}
+			}
+		};
+		final ImmutableCompound ROOT = frozen(c, FROZEN, PENDING);
+		while (!PENDING.isEmpty()) {
+			final Compound LIVE = PENDING.poll();
+			final CompoundStorageImmutable SHALLOW = LIVE.getStorage().snapshot();
+			KEYS.clear();
+			FOUND.clear();
+			try {
+				SHALLOW.forEach(COLLECT);
+			}catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			CompoundTrie t = SHALLOW.trie;
+			for (int e = 0; e != KEYS.size(); e++)
+				t = t.with(KEYS.get(e), frozen(FOUND.get(e), FROZEN, PENDING));
+			((CompoundStorageImmutable) FROZEN.get(LIVE).getStorage()).trie = t;
+		}
+		return ROOT;
+	}
+
+	private static ImmutableCompound frozen(Compound c, Map<Compound, ImmutableCompound> m, ArrayDeque<Compound> p) {
+		ImmutableCompound f = m.get(c);
+		if (f == null) {
+			if (c instanceof ImmutableCompound && ((CompoundStorageImmutable) c.getStorage()).DEEP) {
+				f = (ImmutableCompound) c;
+			}else{
+				f = new ImmutableCompound(new CompoundStorageImmutable(CompoundTrie.EMPTY, true));
+				p.add(c);
+			}
+			m.put(c, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Returns a {@link CompoundStorageImmutable} in which the given identifier
+	 * corresponds to the given element.
+	 */
+	public CompoundStorageImmutable with(String i, Object o) {
+		return new CompoundStorageImmutable(trie.with(i, o));
+	}
+
+	/**
+	 * Returns a {@link CompoundStorageImmutable} in which the given {@link CompoundKey}
+	 * corresponds to the given element.
+	 */
+	public CompoundStorageImmutable with(CompoundKey k, Object o) {
+		return new CompoundStorageImmutable(trie.with(k, o));
+	}
+
+	/**
+	 * Returns a {@link CompoundStorageImmutable} in which the given {@link CompoundKey}
+	 * corresponds to the given bits of the given primitive {@link CompoundType}.
+	 */
+	public CompoundStorageImmutable withPrimitive(CompoundKey k, CompoundType t, long b) {
+		return new CompoundStorageImmutable(trie.with(k, new CompoundPrimitive(t, b)));
+	}
+
+	/**
+	 * Returns a {@link CompoundStorageImmutable} without the given identifier.
+	 */
+	public CompoundStorageImmutable without(String i) {
+		final CompoundTrie WITHOUT = trie.without(i);
+		return WITHOUT == trie ? this : new CompoundStorageImmutable(WITHOUT);
+	}
+
+	/**
+	 * Returns a {@link CompoundStorageImmutable} without the given {@link CompoundKey}.
+	 */
+	public CompoundStorageImmutable without(CompoundKey k) {
+		final CompoundTrie WITHOUT = trie.without(k);
+		return WITHOUT == trie ? this : new CompoundStorageImmutable(WITHOUT);
+	}
+
+	@Override
+	public void remove(String i) {
+		throw new UnsupportedOperationException("Immutable Compound!");
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		throw new UnsupportedOperationException("Immutable Compound!");
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		throw new UnsupportedOperationException("Immutable Compound!");
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		throw new UnsupportedOperationException("Immutable Compound!");
+	}
+
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		throw new UnsupportedOperationException("Immutable Compound!");
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		throw new UnsupportedOperationException("Immutable Compound!");
+	}
+
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		return this;
+	}
+
+	@Override
+	public CompoundStorage copy() {
+		return this;
+	}
+
+}
@@ -0,0 +1,167 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * {@link CompoundStorage} of a {@link Compound} in a {@link CompoundIndex}, which is
+ * read from the indexed file the first time any element is requested or changed.
+ * The elements are then held by a {@link CompoundStorageSynchronized}.
+ */
+public class CompoundStorageIndexed extends CompoundStorage {
+
+	private final CompoundIndex INDEX;
+	private final long ADDRESS;
+	
+	/**
+	 * Storage read from the {@link CompoundIndex}, or <code>null</code> if not yet read.
+	 */
+	private volatile CompoundStorage loaded;
+	
+	CompoundStorageIndexed(CompoundIndex i, long a) {
+		INDEX = i;
+		ADDRESS = a;
+	}
+	
+	/**
+	 * Returns whether the elements have been read from the {@link CompoundIndex}.
+	 */
+	public boolean isLoaded() {
+		return loaded != null;
+	}
+	
+	private CompoundStorage storage() {
+		CompoundStorage storage = loaded;
+		if (storage == null) {
+			synchronized (this) {
+				storage = loaded;
+				if (storage == null)
+					loaded = storage = INDEX.load(ADDRESS);
+			}
+		}
+		return storage;
+	}
+
+	@Override
+	public Object get(String i) {
+		return storage().get(i);
+	}
+
+	@Override
+	public Object get(CompoundKey k) {
+		return storage().get(k);
+	}
+
+	@Override
+	public boolean has(String i) {
+		return storage().has(i);
+	}
+
+	@Override
+	public boolean has(CompoundKey k) {
+		return storage().has(k);
+	}
+
+	@Override
+	public void remove(String i) {
+		storage().remove(i);
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		storage().remove(k);
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		storage().set(i, o);
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		storage().set(k, o);
+	}
+
+	@Override
+	public CompoundType getType(String i) {
+		return storage().getType(i);
+	}
+
+	@Override
+	public CompoundType getType(CompoundKey k) {
+		return storage().getType(k);
+	}
+
+	@Override
+	public long getPrimitive(String i, CompoundType t, long d) {
+		return storage().getPrimitive(i, t, d);
+	}
+
+	@Override
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		return storage().getPrimitive(k, t, d);
+	}
+
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		storage().setPrimitive(i, t, b);
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		storage().setPrimitive(k, t, b);
+	}
+
+	@Override
+	public Object[] getAllElements() {
+		return storage().getAllElements();
+	}
+
+	@Override
+	public String[] getAllIdentifiers() {
+		return storage().getAllIdentifiers();
+	}
+
+	@Override
+	public CompoundKey[] getAllKeys() {
+		return storage().getAllKeys();
+	}
+
+	@Override
+	public void forEach(CompoundVisitor v) throws Exception {
+		storage().forEach(v);
+	}
+
+	@Override
+	public void update(Runnable r) {
+		storage().update(r);
+	}
+
+	@Override
+	public CompoundStorage copy() {
+		return storage().copy();
+	}
+
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		return storage().snapshot();
+	}
+
+}
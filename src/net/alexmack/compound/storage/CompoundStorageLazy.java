@@ -0,0 +1,436 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundType;
+import net.alexmack.compound.io.operator.CompoundInputBuffer;
+import net.alexmack.compound.io.operator.CompoundOutput;
+import net.alexmack.compound.stack.CompoundStack;
+
+/**
+ * {@link CompoundStorage} reading a body in a {@link CompoundView} as elements
+ * are requested. The identifiers and offsets of the elements are indexed when
+ * first needed, elements themselves are decoded on every access and
+ * {@link Compound} elements are found by address.<br><br>
+ * The first change copies every element into a {@link CompoundStorageSynchronized},
+ * which is used from then on. Until then, {@link CompoundIO} writes the body
+ * by copying it.<br><br>
+ * Each {@link CompoundStorageLazy} locks only itself, so threads reading
+ * different {@link Compound}s in the same {@link CompoundView} do not contend.
+ */
+public class CompoundStorageLazy extends CompoundStorage {
+
+	private final CompoundView VIEW;
+	private final int BODY;
+	/**
+	 * Reads the body, and is locked by every access as it is moved to read.
+	 */
+	private final CompoundInputBuffer INPUT;
+
+	private CompoundKey[] keys;
+	/**
+	 * Offset of the value of each entry, with the same index as {@link #keys}.
+	 */
+	private int[] values;
+	/**
+	 * Open addressed table of entry indices plus one, by hash of {@link #keys}.
+	 */
+	private int[] index;
+
+	/**
+	 * Storage used once changed, otherwise <code>null</code>.
+	 */
+	private CompoundStorage changed;
+
+	CompoundStorageLazy(CompoundView v, int body) {
+		VIEW = v;
+		BODY = body;
+		INPUT = v.input();
+	}
+
+	private CompoundStorageLazy(CompoundView v, int body, CompoundStorage c) {
+		this(v, body);
+		changed = c;
+	}
+
+	/**
+	 * Returns whether this {@link CompoundStorage} has been changed, and so
+	 * no longer reads from the {@link CompoundView}.
+	 */
+	public boolean isChanged() {
+		synchronized (INPUT) {
+			return changed != null;
+		}
+	}
+
+	@Override
+	public Object get(String i) {
+		synchronized (INPUT) {
+			return changed != null ? changed.get(i) : element(find(CompoundKey.hash(i), i));
+		}
+	}
+
+	@Override
+	public Object get(CompoundKey k) {
+		synchronized (INPUT) {
+			return changed != null ? changed.get(k) : element(find(k.HASH, k.ID));
+		}
+	}
+
+	@Override
+	public boolean has(String i) {
+		synchronized (INPUT) {
+			return changed != null ? changed.has(i) : find(CompoundKey.hash(i), i) != -1;
+		}
+	}
+
+	@Override
+	public boolean has(CompoundKey k) {
+		synchronized (INPUT) {
+			return changed != null ? changed.has(k) : find(k.HASH, k.ID) != -1;
+		}
+	}
+
+	@Override
+	public void remove(String i) {
+		synchronized (INPUT) {
+			change().remove(i);
+		}
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		synchronized (INPUT) {
+			change().remove(k);
+		}
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		synchronized (INPUT) {
+			change().set(i, o);
+		}
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		synchronized (INPUT) {
+			change().set(k, o);
+		}
+	}
+
+	@Override
+	public CompoundType getType(String i) {
+		synchronized (INPUT) {
+			return changed != null ? changed.getType(i) : type(find(CompoundKey.hash(i), i));
+		}
+	}
+
+	@Override
+	public CompoundType getType(CompoundKey k) {
+		synchronized (INPUT) {
+			return changed != null ? changed.getType(k) : type(find(k.HASH, k.ID));
+		}
+	}
+
+	@Override
+	public long getPrimitive(String i, CompoundType t, long d) {
+		synchronized (INPUT) {
+			return changed != null ? changed.getPrimitive(i, t, d) : primitive(find(CompoundKey.hash(i), i), t, d);
+		}
+	}
+
+	@Override
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		synchronized (INPUT) {
+			return changed != null ? changed.getPrimitive(k, t, d) : primitive(find(k.HASH, k.ID), t, d);
+		}
+	}
+
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		synchronized (INPUT) {
+			change().setPrimitive(i, t, b);
+		}
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		synchronized (INPUT) {
+			change().setPrimitive(k, t, b);
+		}
+	}
+
+	@Override
+	public Object[] getAllElements() {
+		synchronized (INPUT) {
+			if (changed != null)
+				return changed.getAllElements();
+
+			index();
+			final Object[] ELEMENTS = new Object[keys.length];
+			for (int e = 0; e != ELEMENTS.length; e++)
+				ELEMENTS[e] = element(e);
+			return ELEMENTS;
+		}
+	}
+
+	@Override
+	public String[] getAllIdentifiers() {
+		synchronized (INPUT) {
+			if (changed != null)
+				return changed.getAllIdentifiers();
+
+			index();
+			final String[] IDENTIFIERS = new String[keys.length];
+			for (int e = 0; e != IDENTIFIERS.length; e++)
+				IDENTIFIERS[e] = keys[e].ID;
+			return IDENTIFIERS;
+		}
+	}
+
+	@Override
+	public CompoundKey[] getAllKeys() {
+		synchronized (INPUT) {
+			if (changed != null)
+				return changed.getAllKeys();
+
+			index();
+			return keys.clone();
+		}
+	}
+
+	@Override
+	public void forEach(CompoundVisitor v) throws Exception {
+		synchronized (INPUT) {
+			if (changed != null) {
+				changed.forEach(v);
+				return;
+			}
+
+			index();
+			v.begin(keys.length);
+			for (int e = 0; e != keys.length; e++) {
+				final CompoundType TYPE = type(e);
+				if (TYPE.isPrimitive())
+					v.visitPrimitive(keys[e], TYPE, bits(TYPE, values[e]));
+				else
+					v.visit(keys[e], element(e));
+			}
+		}
+	}
+
+	@Override
+	public void update(Runnable r) {
+		synchronized (INPUT) {
+			r.run();
+		}
+	}
+
+	@Override
+	public CompoundStorage copy() {
+		synchronized (INPUT) {
+			return new CompoundStorageLazy(VIEW, BODY, changed == null ? null : changed.copy());
+		}
+	}
+
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		synchronized (INPUT) {
+			if (changed != null)
+				return changed.snapshot();
+
+			index();
+			CompoundTrie trie = CompoundTrie.EMPTY;
+			for (int e = 0; e != keys.length; e++) {
+				final CompoundType TYPE = type(e);
+				trie = trie.with(keys[e], TYPE.isPrimitive() ? new CompoundPrimitive(TYPE, bits(TYPE, values[e])) : element(e));
+			}
+			return new CompoundStorageImmutable(trie);
+		}
+	}
+
+	/**
+	 * Copies the body straight to the given {@link CompoundOutput}, replacing
+	 * the addresses of {@link Compound} elements with those from the given
+	 * {@link CompoundStack}, unless this {@link CompoundStorage} has been changed.
+	 */
+	@Override
+	public boolean writeBody(CompoundOutput out, CompoundStack stack) throws Exception {
+		synchronized (INPUT) {
+			if (changed != null)
+				return changed.writeBody(out, stack);
+
+			final ByteBuffer BUFFER = VIEW.buffer();
+			final int COUNT = BUFFER.getInt(BODY);
+			out.writeInt(COUNT);
+			int start = BODY + 4;
+			int entry = start;
+			for (int e = 0; e != COUNT; e++) {
+				final int VALUE = CompoundEncoding.value(BUFFER, entry);
+				if (CompoundEncoding.type(BUFFER, VALUE) == CompoundType.COMPOUND) {
+					out.writeBytes(slice(start, VALUE));
+					out.writeLong(stack.add(VIEW.compound(BUFFER.getLong(VALUE))));
+					start = VALUE + 8;
+				}
+				entry = CompoundEncoding.skip(BUFFER, entry);
+			}
+			out.writeBytes(slice(start, entry));
+			return true;
+		}
+	}
+
+	/**
+	 * Indexes the identifiers and value offsets of every entry, if not yet done.
+	 * Entries which {@link CompoundIO} would skip when reading are left out.
+	 */
+	private void index() {
+		if (keys != null)
+			return;
+
+		final ByteBuffer BUFFER = VIEW.buffer();
+		final int COUNT = BUFFER.getInt(BODY);
+		final CompoundKey[] KEYS = new CompoundKey[COUNT];
+		final int[] VALUES = new int[COUNT];
+		int size = 0;
+		for (int entry = BODY + 4, e = 0; e != COUNT; entry = CompoundEncoding.skip(BUFFER, entry), e++) {
+			final int VALUE = CompoundEncoding.value(BUFFER, entry);
+			final CompoundType TYPE = CompoundEncoding.type(BUFFER, VALUE);
+			if (TYPE == null || (!TYPE.isValid() && TYPE != CompoundType.COMPOUND))
+				continue;
+			try {
+				KEYS[size] = CompoundKey.of(input(entry).readString());
+			}catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+			VALUES[size++] = VALUE;
+		}
+
+		final int[] INDEX = new int[Math.max(2, Integer.highestOneBit(Math.max(1, size)) << 2)];
+		final int MASK = INDEX.length - 1;
+		for (int e = 0; e != size; e++) {
+			int slot = spread(KEYS[e].HASH) & MASK;
+			while (INDEX[slot] != 0 && !KEYS[INDEX[slot] - 1].equals(KEYS[e]))
+				slot = (slot + 1) & MASK;
+			INDEX[slot] = e + 1;
+		}
+
+		keys = size == COUNT ? KEYS : Arrays.copyOf(KEYS, size);
+		values = VALUES;
+		index = INDEX;
+	}
+
+	/**
+	 * Returns the index of the entry for the given identifier with the given
+	 * hash, or <code>-1</code> if there is no such entry.
+	 */
+	private int find(int hash, String i) {
+		index();
+		final int MASK = index.length - 1;
+		for (int slot = spread(hash) & MASK; index[slot] != 0; slot = (slot + 1) & MASK) {
+			final CompoundKey KEY = keys[index[slot] - 1];
+			if (KEY.HASH == hash && KEY.matches(i))
+				return index[slot] - 1;
+		}
+		return -1;
+	}
+
+	private CompoundType type(int e) {
+		return e == -1 ? null : CompoundEncoding.type(VIEW.buffer(), values[e]);
+	}
+
+	private Object element(int e) {
+		if (e == -1)
+			return null;
+
+		final CompoundType TYPE = type(e);
+		if (TYPE == CompoundType.COMPOUND)
+			return VIEW.compound(VIEW.buffer().getLong(values[e]));
+		try {
+			return TYPE.IO.read(input(values[e]));
+		}catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private long primitive(int e, CompoundType t, long d) {
+		if (e == -1)
+			return d;
+
+		final CompoundType STORED = type(e);
+		if (STORED.isPrimitive())
+			return t.convert(STORED, bits(STORED, values[e]));
+		return CompoundPrimitive.bits(element(e), t, d);
+	}
+
+	private long bits(CompoundType t, int value) {
+		try {
+			return t.PRIMITIVE.readBits(input(value));
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the {@link CompoundStorage} to be changed, copying every element
+	 * into it the first time.
+	 */
+	private CompoundStorage change() {
+		if (changed == null) {
+			index();
+			final CompoundStorage CHANGED = new CompoundStorageSynchronized();
+			for (int e = 0; e != keys.length; e++) {
+				final CompoundType TYPE = type(e);
+				if (TYPE.isPrimitive())
+					CHANGED.setPrimitive(keys[e], TYPE, bits(TYPE, values[e]));
+				else
+					CHANGED.set(keys[e], element(e));
+			}
+			changed = CHANGED;
+			keys = null;
+			values = null;
+			index = null;
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns {@link #INPUT} reading from the given offset.
+	 */
+	private CompoundInputBuffer input(int offset) {
+		INPUT.BUFFER.position(offset);
+		return INPUT;
+	}
+
+	private ByteBuffer slice(int start, int end) {
+		final ByteBuffer SLICE = VIEW.buffer().duplicate();
+		SLICE.limit(end);
+		SLICE.position(start);
+		return SLICE;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+}
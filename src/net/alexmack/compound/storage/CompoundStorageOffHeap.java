@@ -0,0 +1,450 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundType;
+import net.alexmack.compound.io.operator.CompoundOutput;
+import net.alexmack.compound.io.operator.CompoundOutputBuffer;
+import net.alexmack.compound.stack.CompoundStack;
+
+/**
+ * {@link CompoundStorage} keeping identifiers and elements in the direct memory
+ * of a {@link CompoundArena}, created by {@link CompoundArena#create()}.<br><br>
+ * Each {@link Compound} owns a cell holding the offset and length of its body,
+ * which is encoded exactly as written by {@link CompoundIO}, except that
+ * {@link Compound} elements are stored as the offset of their cell. Bodies are
+ * therefore written by {@link #writeBody(CompoundOutput, CompoundStack)} with
+ * a few bulk copies. An element is changed in place if its encoding keeps the
+ * same length, otherwise the body is copied to a new block with the change and
+ * the old block is freed for reuse by the {@link CompoundArena}.<br><br>
+ * {@link Compound} elements must be stored in the same {@link CompoundArena}.
+ * All access locks the {@link CompoundArena}.
+ */
+public class CompoundStorageOffHeap extends CompoundStorage {
+
+	private final CompoundArena ARENA;
+	private final int CELL;
+
+	CompoundStorageOffHeap(CompoundArena a, int cell) {
+		ARENA = a;
+		CELL = cell;
+	}
+
+	public CompoundArena getArena() {
+		return ARENA;
+	}
+
+	@Override
+	public Object get(String i) {
+		synchronized (ARENA) {
+			return element(find(i));
+		}
+	}
+
+	@Override
+	public Object get(CompoundKey k) {
+		synchronized (ARENA) {
+			return element(find(k.ID));
+		}
+	}
+
+	@Override
+	public boolean has(String i) {
+		synchronized (ARENA) {
+			return find(i) != -1;
+		}
+	}
+
+	@Override
+	public boolean has(CompoundKey k) {
+		synchronized (ARENA) {
+			return find(k.ID) != -1;
+		}
+	}
+
+	@Override
+	public void remove(String i) {
+		synchronized (ARENA) {
+			final int ENTRY = find(i);
+			if (ENTRY != -1)
+				rebuild(ENTRY, null);
+		}
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		remove(k.ID);
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		final CompoundType TYPE = CompoundType.get(o);
+		if (TYPE.isPrimitive()) {
+			setPrimitive(i, TYPE, TYPE.PRIMITIVE.unbox(o));
+			return;
+		}
+		if (!TYPE.isValid() && TYPE != CompoundType.COMPOUND)
+			throw new IllegalArgumentException(o.getClass().getName() + " can not be stored off heap!");
+
+		synchronized (ARENA) {
+			final CompoundOutputBuffer OUTPUT = ARENA.scratch();
+			try {
+				OUTPUT.writeString(CompoundKey.fold(i));
+				OUTPUT.writeByte(TYPE.ID);
+				if (TYPE == CompoundType.COMPOUND)
+					OUTPUT.writeLong(cell((Compound) o));
+				else
+					TYPE.IO.write(OUTPUT, o);
+			}catch (RuntimeException e) {
+				throw e;
+			}catch (Exception e) {
+				throw new IllegalArgumentException(e);
+			}
+			put(find(i), OUTPUT.buffer());
+		}
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		set(k.ID, o);
+	}
+
+	@Override
+	public CompoundType getType(String i) {
+		synchronized (ARENA) {
+			final int ENTRY = find(i);
+			return ENTRY == -1 ? null : CompoundEncoding.type(ARENA.buffer(), value(ENTRY));
+		}
+	}
+
+	@Override
+	public CompoundType getType(CompoundKey k) {
+		return getType(k.ID);
+	}
+
+	@Override
+	public long getPrimitive(String i, CompoundType t, long d) {
+		synchronized (ARENA) {
+			final int ENTRY = find(i);
+			if (ENTRY == -1)
+				return d;
+
+			final int VALUE = value(ENTRY);
+			final CompoundType STORED = CompoundEncoding.type(ARENA.buffer(), VALUE);
+			if (STORED.isPrimitive())
+				return t.convert(STORED, bits(STORED, VALUE));
+			return CompoundPrimitive.bits(element(ENTRY), t, d);
+		}
+	}
+
+	@Override
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		return getPrimitive(k.ID, t, d);
+	}
+
+	/**
+	 * Bodies are encoded as format version <code>1</code>, so types added by later
+	 * versions are stored widened.
+	 */
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		final CompoundType STORED = t.forVersion(1);
+		synchronized (ARENA) {
+			final CompoundOutputBuffer OUTPUT = ARENA.scratch();
+			try {
+				OUTPUT.writeString(CompoundKey.fold(i));
+				OUTPUT.writeByte(STORED.ID);
+				STORED.PRIMITIVE.writeBits(OUTPUT, STORED.convert(t, b));
+			}catch (RuntimeException e) {
+				throw e;
+			}catch (Exception e) {
+				throw new IllegalArgumentException(e);
+			}
+			put(find(i), OUTPUT.buffer());
+		}
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		setPrimitive(k.ID, t, b);
+	}
+
+	@Override
+	public Object[] getAllElements() {
+		synchronized (ARENA) {
+			final ArrayList<Object> ELEMENTS = new ArrayList<Object>();
+			for (int entry = first(), e = count(); e != 0; entry = skip(entry), e--)
+				ELEMENTS.add(element(entry));
+			return ELEMENTS.toArray();
+		}
+	}
+
+	@Override
+	public String[] getAllIdentifiers() {
+		synchronized (ARENA) {
+			final String[] IDENTIFIERS = new String[count()];
+			for (int entry = first(), e = 0; e != IDENTIFIERS.length; entry = skip(entry), e++)
+				IDENTIFIERS[e] = identifier(entry);
+			return IDENTIFIERS;
+		}
+	}
+
+	@Override
+	public CompoundKey[] getAllKeys() {
+		final String[] IDENTIFIERS = getAllIdentifiers();
+		final CompoundKey[] KEYS = new CompoundKey[IDENTIFIERS.length];
+		for (int i = 0; i != KEYS.length; i++)
+			KEYS[i] = CompoundKey.of(IDENTIFIERS[i]);
+		return KEYS;
+	}
+
+	@Override
+	public void forEach(CompoundVisitor v) throws Exception {
+		synchronized (ARENA) {
+			final int COUNT = count();
+			v.begin(COUNT);
+			for (int entry = first(), e = 0; e != COUNT; entry = skip(entry), e++) {
+				final int VALUE = value(entry);
+				final CompoundType TYPE = CompoundEncoding.type(ARENA.buffer(), VALUE);
+				if (TYPE.isPrimitive())
+					v.visitPrimitive(CompoundKey.of(identifier(entry)), TYPE, bits(TYPE, VALUE));
+				else
+					v.visit(CompoundKey.of(identifier(entry)), element(entry));
+			}
+		}
+	}
+
+	@Override
+	public void update(Runnable r) {
+		synchronized (ARENA) {
+			r.run();
+		}
+	}
+
+	/**
+	 * Returns a copy of this {@link CompoundStorage} in the same {@link CompoundArena},
+	 * with its own body.
+	 */
+	@Override
+	public CompoundStorage copy() {
+		synchronized (ARENA) {
+			final int COPY_CELL = ARENA.allocate(CompoundArena.CELL_LENGTH);
+			final CompoundStorageOffHeap COPY = new CompoundStorageOffHeap(ARENA, COPY_CELL);
+			final ByteBuffer BUFFER = ARENA.buffer();
+			BUFFER.putInt(COPY_CELL, CompoundArena.EMPTY_BODY);
+			BUFFER.putInt(COPY_CELL + 4, 4);
+			if (count() != 0)
+				COPY.replace(ARENA.slice(body(), body() + BUFFER.getInt(CELL + 4)));
+			return COPY;
+		}
+	}
+
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		synchronized (ARENA) {
+			CompoundTrie trie = CompoundTrie.EMPTY;
+			for (int entry = first(), e = count(); e != 0; entry = skip(entry), e--) {
+				final int VALUE = value(entry);
+				final CompoundType TYPE = CompoundEncoding.type(ARENA.buffer(), VALUE);
+				trie = trie.with(CompoundKey.of(identifier(entry)), TYPE.isPrimitive()
+						? new CompoundPrimitive(TYPE, bits(TYPE, VALUE)) : element(entry));
+			}
+			return new CompoundStorageImmutable(trie);
+		}
+	}
+
+	/**
+	 * Copies the body straight to the given {@link CompoundOutput}, replacing
+	 * cell offsets with addresses from the given {@link CompoundStack}.
+	 */
+	@Override
+	public boolean writeBody(CompoundOutput out, CompoundStack stack) throws Exception {
+		synchronized (ARENA) {
+			final int COUNT = count();
+			out.writeInt(COUNT);
+			int start = first();
+			int entry = start;
+			for (int e = 0; e != COUNT; e++) {
+				final int VALUE = value(entry);
+				if (ARENA.buffer().get(VALUE - 1) == CompoundType.COMPOUND.ID) {
+					out.writeBytes(ARENA.slice(start, VALUE));
+					out.writeLong(stack.add(ARENA.compound((int) ARENA.buffer().getLong(VALUE))));
+					start = VALUE + 8;
+				}
+				entry = skip(entry);
+			}
+			out.writeBytes(ARENA.slice(start, entry));
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the offset of the body.
+	 */
+	private int body() {
+		return ARENA.buffer().getInt(CELL);
+	}
+
+	private int count() {
+		return ARENA.buffer().getInt(body());
+	}
+
+	/**
+	 * Returns the offset of the first entry.
+	 */
+	private int first() {
+		return body() + 4;
+	}
+
+	/**
+	 * Returns the offset of the entry for the given identifier, or <code>-1</code>
+	 * if there is no such entry.
+	 */
+	private int find(String i) {
+		final ByteBuffer BUFFER = ARENA.buffer();
+		for (int entry = first(), e = count(); e != 0; entry = skip(entry), e--)
+			if (CompoundEncoding.matches(BUFFER, entry, i))
+				return entry;
+		return -1;
+	}
+
+	private String identifier(int entry) {
+		try {
+			return ARENA.input(entry).readString();
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int value(int entry) {
+		return CompoundEncoding.value(ARENA.buffer(), entry);
+	}
+
+	private int skip(int entry) {
+		return CompoundEncoding.skip(ARENA.buffer(), entry);
+	}
+
+	/**
+	 * Returns the element of the given entry, or <code>null</code> if the
+	 * offset is <code>-1</code>.
+	 */
+	private Object element(int entry) {
+		if (entry == -1)
+			return null;
+
+		final int VALUE = value(entry);
+		final CompoundType TYPE = CompoundEncoding.type(ARENA.buffer(), VALUE);
+		if (TYPE == CompoundType.COMPOUND)
+			return ARENA.compound((int) ARENA.buffer().getLong(VALUE));
+		try {
+			return TYPE.IO.read(ARENA.input(VALUE));
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private long bits(CompoundType t, int value) {
+		try {
+			return t.PRIMITIVE.readBits(ARENA.input(value));
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the cell of the given {@link Compound}, which must be stored in
+	 * the same {@link CompoundArena}.
+	 */
+	private int cell(Compound c) {
+		final CompoundStorage STORAGE = c.getStorage();
+		if (!(STORAGE instanceof CompoundStorageOffHeap) || ((CompoundStorageOffHeap) STORAGE).ARENA != ARENA)
+			throw new IllegalArgumentException("Compound is not stored in this CompoundArena!");
+
+		final int CELL = ((CompoundStorageOffHeap) STORAGE).CELL;
+		ARENA.register(CELL, c);
+		return CELL;
+	}
+
+	/**
+	 * Replaces the given entry, or adds one if the offset is <code>-1</code>, with the
+	 * given encoded entry. The entry is overwritten if the encoding has the same length.
+	 */
+	private void put(int entry, ByteBuffer encoded) {
+		if (entry != -1 && skip(entry) - entry == encoded.remaining()) {
+			final ByteBuffer BUFFER = ARENA.buffer().duplicate();
+			BUFFER.position(entry);
+			BUFFER.put(encoded);
+		}else{
+			rebuild(entry, encoded);
+		}
+	}
+
+	/**
+	 * Copies the body to new memory without the given entry, unless the offset is
+	 * <code>-1</code>, and with the given encoded entry, unless it is <code>null</code>.
+	 */
+	private void rebuild(int entry, ByteBuffer encoded) {
+		final int BODY = body();
+		final int END = BODY + ARENA.buffer().getInt(CELL + 4);
+		final int COUNT = count() + (entry == -1 ? 0 : -1) + (encoded == null ? 0 : 1);
+		if (COUNT == 0) {
+			final ByteBuffer BUFFER = ARENA.buffer();
+			BUFFER.putInt(CELL, CompoundArena.EMPTY_BODY);
+			BUFFER.putInt(CELL + 4, 4);
+			ARENA.free(BODY, END - BODY);
+			return;
+		}
+
+		final int SKIP = entry == -1 ? END : skip(entry);
+		final int LENGTH = 4 + (END - BODY - 4) - (SKIP - (entry == -1 ? END : entry)) + (encoded == null ? 0 : encoded.remaining());
+		final int OFFSET = ARENA.allocate(LENGTH);
+		final ByteBuffer BUFFER = ARENA.buffer().duplicate();
+		BUFFER.position(OFFSET);
+		BUFFER.putInt(COUNT);
+		BUFFER.put(ARENA.slice(BODY + 4, entry == -1 ? END : entry));
+		BUFFER.put(ARENA.slice(SKIP, END));
+		if (encoded != null)
+			BUFFER.put(encoded);
+		BUFFER.putInt(CELL, OFFSET);
+		BUFFER.putInt(CELL + 4, LENGTH);
+		// Only freed once copied, so the new block can not be the old one.
+		ARENA.free(BODY, END - BODY);
+	}
+
+	/**
+	 * Replaces the whole body with a copy of the given body.
+	 */
+	private void replace(ByteBuffer body) {
+		final int BODY = body();
+		final int OLD_LENGTH = ARENA.buffer().getInt(CELL + 4);
+		final int LENGTH = body.remaining();
+		final int OFFSET = ARENA.allocate(LENGTH);
+		final ByteBuffer BUFFER = ARENA.buffer().duplicate();
+		BUFFER.position(OFFSET);
+		BUFFER.put(body);
+		BUFFER.putInt(CELL, OFFSET);
+		BUFFER.putInt(CELL + 4, LENGTH);
+		ARENA.free(BODY, OLD_LENGTH);
+	}
+
+}
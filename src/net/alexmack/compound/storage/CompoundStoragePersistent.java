@@ -0,0 +1,211 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * {@link CompoundStorage} holding a {@link CompoundTrie} which is replaced,
+ * using compare-and-set, on every change. Reads never lock and writes never
+ * block, and {@link #snapshot()} and {@link #copy()} take constant time, as
+ * the current {@link CompoundTrie} can simply be shared.<br><br>
+ * Changes made by {@link #update(Runnable)} are made to a {@link CompoundTrie}
+ * private to the thread, which replaces the current one only once they are all
+ * made, so other threads see all of them or none.<br><br>
+ * Best suited to instances read by many threads and changed by few.
+ */
+public class CompoundStoragePersistent extends CompoundStorageTrie {
+
+	private static final AtomicReferenceFieldUpdater<CompoundStoragePersistent, CompoundTrie> TRIE_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(CompoundStoragePersistent.class, CompoundTrie.class, "trie");
+
+	private static final AtomicIntegerFieldUpdater<CompoundStoragePersistent> BATCHES_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(CompoundStoragePersistent.class, "batches");
+
+	/**
+	 * The {@link Batch} being made by {@link #update(Runnable)} on each thread, innermost first.
+	 */
+	private static final ThreadLocal<Batch> BATCH = new ThreadLocal<Batch>();
+
+	private volatile CompoundTrie trie;
+	/**
+	 * Number of threads making a {@link Batch}, so that other
+	 * accesses need not look for one while there are none.
+	 */
+	private volatile int batches;
+
+	public CompoundStoragePersistent() {
+		this(CompoundTrie.EMPTY);
+	}
+
+	private CompoundStoragePersistent(CompoundTrie t) {
+		trie = t;
+	}
+
+	@Override
+	CompoundTrie trie() {
+		final Batch BATCHED = batch();
+		return BATCHED == null ? trie : BATCHED.trie;
+	}
+
+	@Override
+	public void remove(String i) {
+		final Batch BATCHED = batch();
+		if (BATCHED != null) {
+			BATCHED.trie = BATCHED.trie.without(i);
+			return;
+		}
+		
+		CompoundTrie current;
+		do {
+			current = trie;
+		}while (!TRIE_UPDATER.compareAndSet(this, current, current.without(i)));
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		final Batch BATCHED = batch();
+		if (BATCHED != null) {
+			BATCHED.trie = BATCHED.trie.without(k);
+			return;
+		}
+		
+		CompoundTrie current;
+		do {
+			current = trie;
+		}while (!TRIE_UPDATER.compareAndSet(this, current, current.without(k)));
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		final Batch BATCHED = batch();
+		if (BATCHED != null) {
+			BATCHED.trie = BATCHED.trie.with(i, o);
+			return;
+		}
+		
+		CompoundTrie current;
+		do {
+			current = trie;
+		}while (!TRIE_UPDATER.compareAndSet(this, current, current.with(i, o)));
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		final Batch BATCHED = batch();
+		if (BATCHED != null) {
+			BATCHED.trie = BATCHED.trie.with(k, o);
+			return;
+		}
+		
+		CompoundTrie current;
+		do {
+			current = trie;
+		}while (!TRIE_UPDATER.compareAndSet(this, current, current.with(k, o)));
+	}
+
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		set(i, new CompoundPrimitive(t, b));
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		set(k, new CompoundPrimitive(t, b));
+	}
+
+	/**
+	 * Runs the given {@link Runnable} against a {@link CompoundTrie} private to this thread,
+	 * replacing the current {@link CompoundTrie} with the result once, if it was changed.
+	 * Should another thread change this {@link CompoundStorage} meanwhile, the changes are
+	 * discarded and the {@link Runnable} run again, so it must do nothing else which can
+	 * not be repeated. Nothing is changed if the {@link Runnable} throws.
+	 */
+	@Override
+	public void update(Runnable r) {
+		if (batch() != null) {
+			// Already within a batch, which the changes join.
+			r.run();
+			return;
+		}
+		
+		final Batch BATCHED = new Batch(this, BATCH.get());
+		BATCH.set(BATCHED);
+		BATCHES_UPDATER.incrementAndGet(this);
+		try {
+			CompoundTrie current;
+			do {
+				current = trie;
+				BATCHED.trie = current;
+				r.run();
+			}while (BATCHED.trie != current && !TRIE_UPDATER.compareAndSet(this, current, BATCHED.trie));
+		}finally{
+			BATCHES_UPDATER.decrementAndGet(this);
+			if (BATCHED.OUTER == null)
+				BATCH.remove();
+			else
+				BATCH.set(BATCHED.OUTER);
+		}
+	}
+
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		return new CompoundStorageImmutable(trie());
+	}
+
+	@Override
+	public CompoundStorage copy() {
+		return new CompoundStoragePersistent(trie());
+	}
+
+	/**
+	 * Returns the {@link Batch} this thread is making of this {@link CompoundStorage},
+	 * or <code>null</code> if there is none.
+	 */
+	private Batch batch() {
+		if (batches == 0)
+			return null;
+		for (Batch b = BATCH.get(); b != null; b = b.OUTER)
+			if (b.STORAGE == this)
+				return b;
+		return null;
+	}
+
+	/**
+	 * Changes being made by {@link #update(Runnable)} to a {@link CompoundStoragePersistent}.
+	 */
+	private static final class Batch {
+
+		final CompoundStoragePersistent STORAGE;
+		/**
+		 * Any {@link Batch} of another {@link CompoundStoragePersistent}
+		 * this one is made within.
+		 */
+		final Batch OUTER;
+		CompoundTrie trie;
+
+		Batch(CompoundStoragePersistent s, Batch outer) {
+			STORAGE = s;
+			OUTER = outer;
+		}
+
+	}
+
+}
@@ -0,0 +1,186 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * {@link CompoundStorage} guarded by a single lock. This is the default
+ * storage of a {@link Compound} and is best suited to instances which
+ * are used by one thread at a time.
+ */
+public class CompoundStorageSynchronized extends CompoundStorage {
+
+	private final CompoundTable TABLE;
+
+	public CompoundStorageSynchronized() {
+		this(new CompoundTable());
+	}
+
+	private CompoundStorageSynchronized(CompoundTable t) {
+		TABLE = t;
+	}
+
+	@Override
+	public Object get(String i) {
+		synchronized (TABLE) {
+			return TABLE.get(i);
+		}
+	}
+
+	@Override
+	public Object get(CompoundKey k) {
+		synchronized (TABLE) {
+			return TABLE.get(k);
+		}
+	}
+
+	@Override
+	public boolean has(String i) {
+		synchronized (TABLE) {
+			return TABLE.find(i) != -1;
+		}
+	}
+
+	@Override
+	public boolean has(CompoundKey k) {
+		synchronized (TABLE) {
+			return TABLE.find(k) != -1;
+		}
+	}
+
+	@Override
+	public void remove(String i) {
+		synchronized (TABLE) {
+			TABLE.remove(i);
+		}
+	}
+
+	@Override
+	public void remove(CompoundKey k) {
+		synchronized (TABLE) {
+			TABLE.remove(k);
+		}
+	}
+
+	@Override
+	public void set(String i, Object o) {
+		synchronized (TABLE) {
+			TABLE.set(i, o);
+		}
+	}
+
+	@Override
+	public void set(CompoundKey k, Object o) {
+		synchronized (TABLE) {
+			TABLE.set(k, o);
+		}
+	}
+
+	@Override
+	public CompoundType getType(String i) {
+		synchronized (TABLE) {
+			return TABLE.getType(i);
+		}
+	}
+
+	@Override
+	public CompoundType getType(CompoundKey k) {
+		synchronized (TABLE) {
+			return TABLE.getType(k);
+		}
+	}
+
+	@Override
+	public long getPrimitive(String i, CompoundType t, long d) {
+		synchronized (TABLE) {
+			return TABLE.getPrimitive(i, t, d);
+		}
+	}
+
+	@Override
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		synchronized (TABLE) {
+			return TABLE.getPrimitive(k, t, d);
+		}
+	}
+
+	@Override
+	public void setPrimitive(String i, CompoundType t, long b) {
+		synchronized (TABLE) {
+			TABLE.setPrimitive(i, t, b);
+		}
+	}
+
+	@Override
+	public void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		synchronized (TABLE) {
+			TABLE.setPrimitive(k, t, b);
+		}
+	}
+
+	@Override
+	public Object[] getAllElements() {
+		synchronized (TABLE) {
+			return TABLE.elements();
+		}
+	}
+
+	@Override
+	public String[] getAllIdentifiers() {
+		synchronized (TABLE) {
+			return TABLE.identifiers();
+		}
+	}
+
+	@Override
+	public CompoundKey[] getAllKeys() {
+		synchronized (TABLE) {
+			return TABLE.keys();
+		}
+	}
+
+	@Override
+	public void forEach(CompoundVisitor v) throws Exception {
+		synchronized (TABLE) {
+			TABLE.forEach(v);
+		}
+	}
+
+	@Override
+	public void update(Runnable r) {
+		synchronized (TABLE) {
+			r.run();
+		}
+	}
+
+	@Override
+	public CompoundStorageImmutable snapshot() {
+		synchronized (TABLE) {
+			return new CompoundStorageImmutable(TABLE.trie());
+		}
+	}
+
+	@Override
+	public CompoundStorage copy() {
+		synchronized (TABLE) {
+			return new CompoundStorageSynchronized(TABLE.copy());
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * {@link CompoundStorage} reading from a {@link CompoundTrie}. Reads
+ * never lock, as a {@link CompoundTrie} can not change once created.
+ */
+abstract class CompoundStorageTrie extends CompoundStorage {
+
+	/**
+	 * Returns the current {@link CompoundTrie}.
+	 */
+	abstract CompoundTrie trie();
+
+	@Override
+	public Object get(String i) {
+		return element(trie().lookup(i));
+	}
+
+	@Override
+	public Object get(CompoundKey k) {
+		return element(trie().lookup(k));
+	}
+
+	@Override
+	public boolean has(String i) {
+		return trie().lookup(i) != CompoundTrie.ABSENT;
+	}
+
+	@Override
+	public boolean has(CompoundKey k) {
+		return trie().lookup(k) != CompoundTrie.ABSENT;
+	}
+
+	@Override
+	public CompoundType getType(String i) {
+		return type(trie().lookup(i));
+	}
+
+	@Override
+	public CompoundType getType(CompoundKey k) {
+		return type(trie().lookup(k));
+	}
+
+	@Override
+	public long getPrimitive(String i, CompoundType t, long d) {
+		return bits(trie().lookup(i), t, d);
+	}
+
+	@Override
+	public long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		return bits(trie().lookup(k), t, d);
+	}
+
+	/**
+	 * Visits the current {@link CompoundTrie} without locking.
+	 */
+	@Override
+	public void forEach(CompoundVisitor v) throws Exception {
+		trie().forEach(v);
+	}
+
+	@Override
+	public Object[] getAllElements() {
+		final Object[] ELEMENTS = trie().values();
+		for (int e = 0; e != ELEMENTS.length; e++)
+			ELEMENTS[e] = CompoundPrimitive.box(ELEMENTS[e]);
+		return ELEMENTS;
+	}
+
+	@Override
+	public String[] getAllIdentifiers() {
+		return trie().identifiers();
+	}
+
+	@Override
+	public CompoundKey[] getAllKeys() {
+		return trie().keys();
+	}
+
+	private static Object element(Object o) {
+		return o == CompoundTrie.ABSENT ? null : CompoundPrimitive.box(o);
+	}
+
+	private static CompoundType type(Object o) {
+		return o == CompoundTrie.ABSENT ? null : CompoundPrimitive.type(o);
+	}
+
+	private static long bits(Object o, CompoundType t, long d) {
+		return o == CompoundTrie.ABSENT ? d : CompoundPrimitive.bits(o, t, d);
+	}
+
+}
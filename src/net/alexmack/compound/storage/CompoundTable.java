@@ -0,0 +1,407 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.util.Arrays;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundType;
+
+/**
+ * Table mapping {@link CompoundKey}s to elements, stored interleaved in
+ * a single array. Up to {@link #FLAT_MAX} entries are kept as a flat list
+ * in insertion order and searched linearly, beyond that the table switches
+ * to open addressing. Most {@link Compound}s are small, so this keeps the
+ * size of each instance to a couple of compact arrays.<br><br>
+ * Slots are found using {@link CompoundKey#hash(String)}, which allows
+ * identifiers to be looked up in any case without allocating.<br><br>
+ * Primitive elements are stored in a parallel <code>long</code> array,
+ * marked by {@link CompoundPrimitive#marker(CompoundType)}.<br><br>
+ * Not thread safe, the {@link CompoundStorage} using it must lock.
+ */
+class CompoundTable {
+
+	/**
+	 * Largest number of entries stored as a flat list.
+	 */
+	private static final int FLAT_MAX = 8;
+	private static final int FLAT_INITIAL = 2;
+
+	/**
+	 * {@link CompoundKey}s at even indices, each followed by its element.
+	 */
+	private Object[] table;
+	/**
+	 * Bits of primitive elements by slot, created when the first is set.
+	 */
+	private long[] bits;
+	private int size;
+
+	/**
+	 * Returns the slot holding the given identifier, or <code>-1</code>
+	 * if there is no such slot.
+	 */
+	int find(String i) {
+		if (size == 0)
+			return -1;
+
+		final int HASH = CompoundKey.hash(i);
+		final Object[] TABLE = table;
+		if (!hashed()) {
+			for (int slot = 0; slot != size; slot++) {
+				final CompoundKey KEY = (CompoundKey) TABLE[slot << 1];
+				if (KEY.HASH == HASH && KEY.matches(i))
+					return slot;
+			}
+			return -1;
+		}
+
+		final int MASK = (TABLE.length >> 1) - 1;
+		for (int slot = spread(HASH) & MASK;; slot = (slot + 1) & MASK) {
+			final CompoundKey KEY = (CompoundKey) TABLE[slot << 1];
+			if (KEY == null)
+				return -1;
+			if (KEY.HASH == HASH && KEY.matches(i))
+				return slot;
+		}
+	}
+
+	/**
+	 * Returns the slot holding the given {@link CompoundKey}, or <code>-1</code>
+	 * if there is no such slot.
+	 */
+	int find(CompoundKey k) {
+		if (size == 0)
+			return -1;
+
+		final Object[] TABLE = table;
+		if (!hashed()) {
+			for (int slot = 0; slot != size; slot++) {
+				final CompoundKey KEY = (CompoundKey) TABLE[slot << 1];
+				if (KEY == k || (KEY.HASH == k.HASH && KEY.ID.equals(k.ID)))
+					return slot;
+			}
+			return -1;
+		}
+
+		final int MASK = (TABLE.length >> 1) - 1;
+		for (int slot = spread(k.HASH) & MASK;; slot = (slot + 1) & MASK) {
+			final CompoundKey KEY = (CompoundKey) TABLE[slot << 1];
+			if (KEY == null)
+				return -1;
+			if (KEY == k || (KEY.HASH == k.HASH && KEY.ID.equals(k.ID)))
+				return slot;
+		}
+	}
+
+	/**
+	 * Returns the {@link CompoundKey} in the given slot, or <code>null</code>
+	 * if the slot is empty.
+	 */
+	CompoundKey key(int slot) {
+		return (CompoundKey) table[slot << 1];
+	}
+
+	/**
+	 * Returns the element in the given slot, boxing primitive elements.
+	 */
+	Object element(int slot) {
+		final Object VALUE = table[(slot << 1) + 1];
+		if (VALUE instanceof CompoundPrimitive)
+			return ((CompoundPrimitive) VALUE).TYPE.PRIMITIVE.box(bits[slot]);
+		return VALUE;
+	}
+
+	/**
+	 * Returns the {@link CompoundType} of the element in the given slot.
+	 */
+	CompoundType type(int slot) {
+		return CompoundPrimitive.type(table[(slot << 1) + 1]);
+	}
+
+	/**
+	 * Returns the element in the given slot as bits of the given {@link CompoundType}.
+	 */
+	long primitive(int slot, CompoundType t, long d) {
+		final Object VALUE = table[(slot << 1) + 1];
+		if (VALUE instanceof CompoundPrimitive)
+			return t.convert(((CompoundPrimitive) VALUE).TYPE, bits[slot]);
+		return CompoundPrimitive.bits(VALUE, t, d);
+	}
+
+	Object get(String i) {
+		final int SLOT = find(i);
+		return SLOT == -1 ? null : element(SLOT);
+	}
+
+	Object get(CompoundKey k) {
+		final int SLOT = find(k);
+		return SLOT == -1 ? null : element(SLOT);
+	}
+
+	CompoundType getType(String i) {
+		final int SLOT = find(i);
+		return SLOT == -1 ? null : type(SLOT);
+	}
+
+	CompoundType getType(CompoundKey k) {
+		final int SLOT = find(k);
+		return SLOT == -1 ? null : type(SLOT);
+	}
+
+	long getPrimitive(String i, CompoundType t, long d) {
+		final int SLOT = find(i);
+		return SLOT == -1 ? d : primitive(SLOT, t, d);
+	}
+
+	long getPrimitive(CompoundKey k, CompoundType t, long d) {
+		final int SLOT = find(k);
+		return SLOT == -1 ? d : primitive(SLOT, t, d);
+	}
+
+	void set(String i, Object o) {
+		final int SLOT = find(i);
+		if (SLOT == -1)
+			insert(CompoundKey.of(i), o, 0L);
+		else
+			table[(SLOT << 1) + 1] = o;
+	}
+
+	void set(CompoundKey k, Object o) {
+		final int SLOT = find(k);
+		if (SLOT == -1)
+			insert(k, o, 0L);
+		else
+			table[(SLOT << 1) + 1] = o;
+	}
+
+	void setPrimitive(String i, CompoundType t, long b) {
+		final int SLOT = find(i);
+		if (SLOT == -1)
+			insert(CompoundKey.of(i), CompoundPrimitive.marker(t), b);
+		else
+			replace(SLOT, t, b);
+	}
+
+	void setPrimitive(CompoundKey k, CompoundType t, long b) {
+		final int SLOT = find(k);
+		if (SLOT == -1)
+			insert(k, CompoundPrimitive.marker(t), b);
+		else
+			replace(SLOT, t, b);
+	}
+
+	void remove(String i) {
+		final int SLOT = find(i);
+		if (SLOT != -1)
+			delete(SLOT);
+	}
+
+	void remove(CompoundKey k) {
+		final int SLOT = find(k);
+		if (SLOT != -1)
+			delete(SLOT);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of slots, some of which may be empty.
+	 */
+	int capacity() {
+		return table == null ? 0 : table.length >> 1;
+	}
+
+	Object[] elements() {
+		final Object[] ELEMENTS = new Object[size];
+		int e = 0;
+		for (int slot = 0; e != size; slot++)
+			if (key(slot) != null)
+				ELEMENTS[e++] = element(slot);
+		return ELEMENTS;
+	}
+
+	CompoundKey[] keys() {
+		final CompoundKey[] KEYS = new CompoundKey[size];
+		int k = 0;
+		for (int slot = 0; k != size; slot++)
+			if (key(slot) != null)
+				KEYS[k++] = key(slot);
+		return KEYS;
+	}
+
+	String[] identifiers() {
+		final String[] IDENTIFIERS = new String[size];
+		int i = 0;
+		for (int slot = 0; i != size; slot++)
+			if (key(slot) != null)
+				IDENTIFIERS[i++] = key(slot).ID;
+		return IDENTIFIERS;
+	}
+
+	void forEach(CompoundVisitor v) throws Exception {
+		v.begin(size);
+		final int CAPACITY = capacity();
+		for (int slot = 0; slot != CAPACITY; slot++) {
+			final CompoundKey KEY = key(slot);
+			if (KEY == null)
+				continue;
+			final Object VALUE = table[(slot << 1) + 1];
+			if (VALUE instanceof CompoundPrimitive)
+				v.visitPrimitive(KEY, ((CompoundPrimitive) VALUE).TYPE, bits[slot]);
+			else
+				v.visit(KEY, VALUE);
+		}
+	}
+
+	/**
+	 * Returns a {@link CompoundTrie} containing every entry of this table.
+	 */
+	CompoundTrie trie() {
+		CompoundTrie trie = CompoundTrie.EMPTY;
+		for (int slot = 0; slot != capacity(); slot++) {
+			if (key(slot) == null)
+				continue;
+			final Object VALUE = table[(slot << 1) + 1];
+			trie = trie.with(key(slot), VALUE instanceof CompoundPrimitive
+					? new CompoundPrimitive(((CompoundPrimitive) VALUE).TYPE, bits[slot]) : VALUE);
+		}
+		return trie;
+	}
+
+	CompoundTable copy() {
+		final CompoundTable COPY = new CompoundTable();
+		if (size != 0) {
+			COPY.table = table.clone();
+			COPY.bits = bits == null ? null : bits.clone();
+			COPY.size = size;
+		}
+		return COPY;
+	}
+
+	/**
+	 * Returns whether entries are placed by hash, rather than kept as a flat list.
+	 */
+	private boolean hashed() {
+		return table.length > FLAT_MAX << 1;
+	}
+
+	private void replace(int slot, CompoundType t, long b) {
+		if (bits == null)
+			bits = new long[capacity()];
+		table[(slot << 1) + 1] = CompoundPrimitive.marker(t);
+		bits[slot] = b;
+	}
+
+	private void insert(CompoundKey k, Object o, long b) {
+		if (table == null) {
+			table = new Object[FLAT_INITIAL << 1];
+		}else if (!hashed()) {
+			if (size == capacity()) {
+				if (size < FLAT_MAX) {
+					table = Arrays.copyOf(table, table.length << 1);
+					if (bits != null)
+						bits = Arrays.copyOf(bits, bits.length << 1);
+				}else{
+					rehash(FLAT_MAX << 1);
+				}
+			}
+		}else if ((size + 1) * 4 > capacity() * 3) {
+			rehash(capacity() << 1);
+		}
+		if (bits == null && o instanceof CompoundPrimitive)
+			bits = new long[capacity()];
+
+		if (hashed()) {
+			place(k, o, b);
+		}else{
+			table[size << 1] = k;
+			table[(size << 1) + 1] = o;
+			if (bits != null)
+				bits[size] = b;
+		}
+		size++;
+	}
+
+	/**
+	 * Places the given entry in the first free slot from its hash.
+	 */
+	private void place(CompoundKey k, Object o, long b) {
+		final int MASK = capacity() - 1;
+		int slot = spread(k.HASH) & MASK;
+		while (table[slot << 1] != null)
+			slot = (slot + 1) & MASK;
+		table[slot << 1] = k;
+		table[(slot << 1) + 1] = o;
+		if (bits != null)
+			bits[slot] = b;
+	}
+
+	/**
+	 * Places every entry by hash in a new table with the given number of slots.
+	 */
+	private void rehash(int capacity) {
+		final Object[] TABLE = table;
+		final long[] BITS = bits;
+		table = new Object[capacity << 1];
+		bits = BITS == null ? null : new long[capacity];
+		for (int slot = 0; slot != TABLE.length >> 1; slot++)
+			if (TABLE[slot << 1] != null)
+				place((CompoundKey) TABLE[slot << 1], TABLE[(slot << 1) + 1], BITS == null ? 0L : BITS[slot]);
+	}
+
+	/**
+	 * Empties the given slot, closing the gap in a flat list or shifting back
+	 * any following entries which would otherwise no longer be found.
+	 */
+	private void delete(int slot) {
+		if (!hashed()) {
+			final int FOLLOWING = size - slot - 1;
+			System.arraycopy(table, (slot + 1) << 1, table, slot << 1, FOLLOWING << 1);
+			if (bits != null)
+				System.arraycopy(bits, slot + 1, bits, slot, FOLLOWING);
+			size--;
+			table[size << 1] = null;
+			table[(size << 1) + 1] = null;
+			return;
+		}
+
+		final int MASK = capacity() - 1;
+		int empty = slot;
+		for (int next = (slot + 1) & MASK; table[next << 1] != null; next = (next + 1) & MASK) {
+			final int HOME = spread(((CompoundKey) table[next << 1]).HASH) & MASK;
+			// Move the entry if its home slot is not between the empty slot and itself.
+			if (empty <= next ? (HOME <= empty || HOME > next) : (HOME <= empty && HOME > next)) {
+				table[empty << 1] = table[next << 1];
+				table[(empty << 1) + 1] = table[(next << 1) + 1];
+				if (bits != null)
+					bits[empty] = bits[next];
+				empty = next;
+			}
+		}
+		table[empty << 1] = null;
+		table[(empty << 1) + 1] = null;
+		size--;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+}
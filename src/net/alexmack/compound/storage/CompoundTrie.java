@@ -0,0 +1,338 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+
+/**
+ * Immutable hash array mapped trie mapping {@link CompoundKey}s to stored
+ * elements. Every change returns a new {@link CompoundTrie} which shares
+ * all unchanged nodes with the old one, so changes cost <code>O(log n)</code>
+ * and old versions remain valid forever.<br><br>
+ * Each level of the trie consumes 5 bits of {@link CompoundKey#HASH}. Keys
+ * whose hashes are entirely equal are kept in a list below the last level.
+ */
+final class CompoundTrie {
+
+	/**
+	 * Returned by lookups when there is no corresponding element, as
+	 * <code>null</code> is a valid element.
+	 */
+	static final Object ABSENT = new Object();
+
+	static final CompoundTrie EMPTY = new CompoundTrie(Node.EMPTY, 0);
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/**
+	 * A level of the trie. Below the last level {@link #ARRAY} is a list of
+	 * keys and elements, otherwise {@link #BITMAP} marks which of the 32
+	 * branches are used, and each used branch takes two indices of {@link #ARRAY}:
+	 * either a {@link CompoundKey} followed by its element, or <code>null</code>
+	 * followed by the {@link Node} for the next level.
+	 */
+	private static final class Node {
+
+		private static final Node EMPTY = new Node(0, new Object[0]);
+
+		private final int BITMAP;
+		private final Object[] ARRAY;
+
+		private Node(int b, Object[] a) {
+			BITMAP = b;
+			ARRAY = a;
+		}
+
+		/**
+		 * Returns whether this {@link Node} holds exactly one key, and no {@link Node}s.
+		 */
+		private boolean single() {
+			return ARRAY.length == 2 && ARRAY[0] != null;
+		}
+
+	}
+
+	private final Node ROOT;
+	private final int SIZE;
+
+	private CompoundTrie(Node r, int s) {
+		ROOT = r;
+		SIZE = s;
+	}
+
+	int size() {
+		return SIZE;
+	}
+
+	/**
+	 * Returns the element corresponding to the given identifier, or {@link #ABSENT}.
+	 */
+	Object lookup(String i) {
+		return lookup(CompoundKey.hash(i), null, i);
+	}
+
+	/**
+	 * Returns the element corresponding to the given {@link CompoundKey}, or {@link #ABSENT}.
+	 */
+	Object lookup(CompoundKey k) {
+		return lookup(k.HASH, k, null);
+	}
+
+	/**
+	 * Returns the {@link CompoundKey} stored for the given identifier, or <code>null</code>.
+	 */
+	CompoundKey key(String i) {
+		final int HASH = CompoundKey.hash(i);
+		Node node = ROOT;
+		for (int shift = 0;; shift += BITS) {
+			if (shift >= Integer.SIZE) {
+				for (int e = 0; e != node.ARRAY.length; e += 2)
+					if (matches(node.ARRAY[e], HASH, null, i))
+						return (CompoundKey) node.ARRAY[e];
+				return null;
+			}
+
+			final int BIT = 1 << ((HASH >>> shift) & MASK);
+			if ((node.BITMAP & BIT) == 0)
+				return null;
+			final int INDEX = index(node.BITMAP, BIT);
+			final Object KEY = node.ARRAY[INDEX];
+			if (KEY != null)
+				return matches(KEY, HASH, null, i) ? (CompoundKey) KEY : null;
+			node = (Node) node.ARRAY[INDEX + 1];
+		}
+	}
+
+	/**
+	 * Returns a {@link CompoundTrie} in which the given identifier corresponds
+	 * to the given element.
+	 */
+	CompoundTrie with(String i, Object o) {
+		final CompoundKey KEY = key(i);
+		return with(KEY == null ? CompoundKey.of(i) : KEY, o);
+	}
+
+	/**
+	 * Returns a {@link CompoundTrie} in which the given {@link CompoundKey}
+	 * corresponds to the given element.
+	 */
+	CompoundTrie with(CompoundKey k, Object o) {
+		final boolean ADDED = lookup(k) == ABSENT;
+		return new CompoundTrie(put(ROOT, 0, k, o), ADDED ? SIZE + 1 : SIZE);
+	}
+
+	/**
+	 * Returns a {@link CompoundTrie} without the given identifier.
+	 */
+	CompoundTrie without(String i) {
+		final Node NODE = remove(ROOT, 0, CompoundKey.hash(i), null, i);
+		return NODE == ROOT ? this : new CompoundTrie(NODE, SIZE - 1);
+	}
+
+	/**
+	 * Returns a {@link CompoundTrie} without the given {@link CompoundKey}.
+	 */
+	CompoundTrie without(CompoundKey k) {
+		final Node NODE = remove(ROOT, 0, k.HASH, k, null);
+		return NODE == ROOT ? this : new CompoundTrie(NODE, SIZE - 1);
+	}
+
+	CompoundKey[] keys() {
+		final Object[] PAIRS = pairs();
+		final CompoundKey[] KEYS = new CompoundKey[SIZE];
+		for (int k = 0; k != SIZE; k++)
+			KEYS[k] = (CompoundKey) PAIRS[k << 1];
+		return KEYS;
+	}
+
+	String[] identifiers() {
+		final Object[] PAIRS = pairs();
+		final String[] IDENTIFIERS = new String[SIZE];
+		for (int i = 0; i != SIZE; i++)
+			IDENTIFIERS[i] = ((CompoundKey) PAIRS[i << 1]).ID;
+		return IDENTIFIERS;
+	}
+
+	/**
+	 * Returns the stored elements, which may include {@link CompoundPrimitive}s.
+	 */
+	Object[] values() {
+		final Object[] PAIRS = pairs();
+		final Object[] VALUES = new Object[SIZE];
+		for (int v = 0; v != SIZE; v++)
+			VALUES[v] = PAIRS[(v << 1) + 1];
+		return VALUES;
+	}
+
+	/**
+	 * Returns every {@link CompoundKey} followed by its stored element.
+	 */
+	Object[] pairs() {
+		final Object[] PAIRS = new Object[SIZE << 1];
+		collect(ROOT, PAIRS, 0);
+		return PAIRS;
+	}
+
+	void forEach(CompoundVisitor v) throws Exception {
+		v.begin(SIZE);
+		visit(ROOT, v);
+	}
+
+	private Object lookup(int hash, CompoundKey k, String i) {
+		Node node = ROOT;
+		for (int shift = 0;; shift += BITS) {
+			if (shift >= Integer.SIZE) {
+				for (int e = 0; e != node.ARRAY.length; e += 2)
+					if (matches(node.ARRAY[e], hash, k, i))
+						return node.ARRAY[e + 1];
+				return ABSENT;
+			}
+
+			final int BIT = 1 << ((hash >>> shift) & MASK);
+			if ((node.BITMAP & BIT) == 0)
+				return ABSENT;
+			final int INDEX = index(node.BITMAP, BIT);
+			final Object KEY = node.ARRAY[INDEX];
+			if (KEY != null)
+				return matches(KEY, hash, k, i) ? node.ARRAY[INDEX + 1] : ABSENT;
+			node = (Node) node.ARRAY[INDEX + 1];
+		}
+	}
+
+	private static Node put(Node node, int shift, CompoundKey k, Object o) {
+		final Object[] ARRAY = node.ARRAY;
+		if (shift >= Integer.SIZE) {
+			for (int e = 0; e != ARRAY.length; e += 2)
+				if (matches(ARRAY[e], k.HASH, k, null))
+					return new Node(0, replace(ARRAY, e + 1, o));
+			return new Node(0, insert(ARRAY, ARRAY.length, k, o));
+		}
+
+		final int BIT = 1 << ((k.HASH >>> shift) & MASK);
+		final int INDEX = index(node.BITMAP, BIT);
+		if ((node.BITMAP & BIT) == 0)
+			return new Node(node.BITMAP | BIT, insert(ARRAY, INDEX, k, o));
+
+		final Object KEY = ARRAY[INDEX];
+		if (KEY == null)
+			return new Node(node.BITMAP, replace(ARRAY, INDEX + 1, put((Node) ARRAY[INDEX + 1], shift + BITS, k, o)));
+		if (matches(KEY, k.HASH, k, null))
+			return new Node(node.BITMAP, replace(ARRAY, INDEX + 1, o));
+
+		// Two keys share this branch, push both down a level.
+		final Node BRANCH = put(put(Node.EMPTY, shift + BITS, (CompoundKey) KEY, ARRAY[INDEX + 1]), shift + BITS, k, o);
+		final Object[] BRANCHED = replace(ARRAY, INDEX + 1, BRANCH);
+		BRANCHED[INDEX] = null;
+		return new Node(node.BITMAP, BRANCHED);
+	}
+
+	/**
+	 * Returns the given {@link Node} without the given key, or the same
+	 * {@link Node} if it does not contain the key.
+	 */
+	private static Node remove(Node node, int shift, int hash, CompoundKey k, String i) {
+		final Object[] ARRAY = node.ARRAY;
+		if (shift >= Integer.SIZE) {
+			for (int e = 0; e != ARRAY.length; e += 2)
+				if (matches(ARRAY[e], hash, k, i))
+					return new Node(0, delete(ARRAY, e));
+			return node;
+		}
+
+		final int BIT = 1 << ((hash >>> shift) & MASK);
+		if ((node.BITMAP & BIT) == 0)
+			return node;
+
+		final int INDEX = index(node.BITMAP, BIT);
+		final Object KEY = ARRAY[INDEX];
+		if (KEY != null) {
+			if (!matches(KEY, hash, k, i))
+				return node;
+			return new Node(node.BITMAP ^ BIT, delete(ARRAY, INDEX));
+		}
+
+		final Node BRANCH = (Node) ARRAY[INDEX + 1];
+		final Node REMOVED = remove(BRANCH, shift + BITS, hash, k, i);
+		if (REMOVED == BRANCH)
+			return node;
+		if (REMOVED.single()) {
+			// Pull a lone key back up to this level.
+			final Object[] PULLED = replace(ARRAY, INDEX + 1, REMOVED.ARRAY[1]);
+			PULLED[INDEX] = REMOVED.ARRAY[0];
+			return new Node(node.BITMAP, PULLED);
+		}
+		return new Node(node.BITMAP, replace(ARRAY, INDEX + 1, REMOVED));
+	}
+
+	private static int collect(Node node, Object[] pairs, int p) {
+		for (int e = 0; e != node.ARRAY.length; e += 2) {
+			if (node.ARRAY[e] == null) {
+				p = collect((Node) node.ARRAY[e + 1], pairs, p);
+			}else{
+				pairs[p++] = node.ARRAY[e];
+				pairs[p++] = node.ARRAY[e + 1];
+			}
+		}
+		return p;
+	}
+
+	private static void visit(Node node, CompoundVisitor v) throws Exception {
+		for (int e = 0; e != node.ARRAY.length; e += 2) {
+			if (node.ARRAY[e] == null)
+				visit((Node) node.ARRAY[e + 1], v);
+			else
+				CompoundPrimitive.visit(v, (CompoundKey) node.ARRAY[e], node.ARRAY[e + 1]);
+		}
+	}
+
+	private static boolean matches(Object stored, int hash, CompoundKey k, String i) {
+		final CompoundKey KEY = (CompoundKey) stored;
+		if (KEY == k)
+			return true;
+		if (KEY.HASH != hash)
+			return false;
+		return k == null ? KEY.matches(i) : KEY.ID.equals(k.ID);
+	}
+
+	private static int index(int bitmap, int bit) {
+		return Integer.bitCount(bitmap & (bit - 1)) << 1;
+	}
+
+	private static Object[] replace(Object[] array, int index, Object o) {
+		final Object[] COPY = array.clone();
+		COPY[index] = o;
+		return COPY;
+	}
+
+	private static Object[] insert(Object[] array, int index, Object k, Object o) {
+		final Object[] COPY = new Object[array.length + 2];
+		System.arraycopy(array, 0, COPY, 0, index);
+		COPY[index] = k;
+		COPY[index + 1] = o;
+		System.arraycopy(array, index, COPY, index + 2, array.length - index);
+		return COPY;
+	}
+
+	private static Object[] delete(Object[] array, int index) {
+		final Object[] COPY = new Object[array.length - 2];
+		System.arraycopy(array, 0, COPY, 0, index);
+		System.arraycopy(array, index + 2, COPY, index, array.length - index - 2);
+		return COPY;
+	}
+
+}
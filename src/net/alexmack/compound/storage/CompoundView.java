@@ -0,0 +1,167 @@
+/* 
+ * Copyright 2014 Alexander Mackenzie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.alexmack.compound.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
+import net.alexmack.compound.CompoundVisitor;
+import net.alexmack.compound.io.CompoundIO;
+import net.alexmack.compound.io.CompoundWriter;
+import net.alexmack.compound.io.operator.CompoundInput;
+import net.alexmack.compound.io.operator.CompoundInputBuffer;
+import net.alexmack.compound.io.operator.CompoundOutputChecked;
+import net.alexmack.compound.io.operator.CompoundOutputCompact;
+import net.alexmack.compound.io.operator.CompoundOutputCompressed;
+import net.alexmack.compound.stack.CompoundStack.CompoundStackItem;
+
+/**
+ * {@link Compound}s written by {@link CompoundIO} to a {@link ByteBuffer}, read
+ * without decoding them. The buffer is scanned once to find the body of every
+ * {@link Compound}, each of which is then used by a {@link CompoundStorageLazy}
+ * created the first time the {@link Compound} is reached.<br><br>
+ * The buffer must not be changed while the {@link Compound}s are in use.
+ */
+public class CompoundView {
+
+	private final ByteBuffer BUFFER;
+
+	/**
+	 * Offset of the body of every {@link Compound} by address.
+	 */
+	private final Map<Long, Integer> BODIES = new HashMap<Long, Integer>();
+	/**
+	 * Offsets of any further bodies by address, written for a {@link Compound}
+	 * in parts such as by {@link CompoundWriter}.
+	 */
+	private final Map<Long, List<Integer>> PARTS = new HashMap<Long, List<Integer>>();
+	/**
+	 * {@link Compound}s reached so far by address.
+	 */
+	private final Map<Long, Compound> COMPOUNDS = new HashMap<Long, Compound>();
+	private final Compound ROOT;
+
+	/**
+	 * Scans the {@link Compound}s written from the position of the given buffer,
+	 * which is not changed. Data in the compact format of {@link CompoundOutputCompact},
+	 * compressed by {@link CompoundOutputCompressed} or checked by {@link CompoundOutputChecked}
+	 * can not be viewed, its elements are not at fixed offsets.
+	 */
+	public CompoundView(ByteBuffer b) {
+		BUFFER = b.duplicate();
+		final CompoundInput HEADED = BUFFER.hasRemaining() ? CompoundInput.forHeader(BUFFER.get(BUFFER.position()) & 0xFF, null) : null;
+		if (HEADED != null)
+			throw new IllegalArgumentException("Data read by " + HEADED.getClass().getSimpleName() + " can not be read lazily!");
+
+		int body = BUFFER.position();
+		ROOT = new Compound(new CompoundStorageLazy(this, body));
+		// The root is followed by flagged, addressed bodies until the flag is set.
+		for (int offset = end(body); BUFFER.get(offset) == 0; offset = end(body)) {
+			body = offset + 9;
+			final Long ADDRESS = Long.valueOf(BUFFER.getLong(offset + 1));
+			if (ADDRESS.longValue() != CompoundStackItem.ADDRESS_ROOT && !BODIES.containsKey(ADDRESS)) {
+				BODIES.put(ADDRESS, Integer.valueOf(body));
+				continue;
+			}
+			
+			List<Integer> parts = PARTS.get(ADDRESS);
+			if (parts == null) {
+				parts = new ArrayList<Integer>();
+				PARTS.put(ADDRESS, parts);
+			}
+			parts.add(Integer.valueOf(body));
+		}
+		join(ROOT, CompoundStackItem.ADDRESS_ROOT);
+	}
+
+	/**
+	 * Returns the root {@link Compound}.
+	 */
+	public Compound getRoot() {
+		return ROOT;
+	}
+
+	/**
+	 * Returns the {@link Compound} with the given address. As when reading with
+	 * {@link CompoundIO}, a {@link Compound} which was not written is empty.
+	 */
+	synchronized Compound compound(long address) {
+		if (address == CompoundStackItem.ADDRESS_ROOT)
+			return ROOT;
+
+		final Long ADDRESS = Long.valueOf(address);
+		Compound compound = COMPOUNDS.get(ADDRESS);
+		if (compound == null) {
+			final Integer BODY = BODIES.get(ADDRESS);
+			compound = BODY == null ? new Compound() : new Compound(new CompoundStorageLazy(this, BODY.intValue()));
+			COMPOUNDS.put(ADDRESS, compound);
+			join(compound, address);
+		}
+		return compound;
+	}
+
+	/**
+	 * Sets the elements of any further bodies of the {@link Compound} with the given
+	 * address in the given {@link Compound}, which then no longer reads from this view.
+	 */
+	private void join(final Compound COMPOUND, long address) {
+		final List<Integer> PARTS_JOINED = PARTS.get(Long.valueOf(address));
+		if (PARTS_JOINED == null)
+			return;
+		
+		try {
+			for (final Integer BODY : PARTS_JOINED) {
+				new Compound(new CompoundStorageLazy(this, BODY.intValue())).forEach(new CompoundVisitor(){
+					
+					@Override
+					public void visit(CompoundKey k, Object o) {
+						COMPOUND.set(k, o);
+					}
+					
+				});
+			}
+		}catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	ByteBuffer buffer() {
+		return BUFFER;
+	}
+
+	/**
+	 * Returns a new {@link CompoundInputBuffer} reading from the buffer.
+	 */
+	CompoundInputBuffer input() {
+		return new CompoundInputBuffer(BUFFER.duplicate());
+	}
+
+	/**
+	 * Returns the offset just after the body at the given offset.
+	 */
+	int end(int body) {
+		int entry = body + 4;
+		for (int e = BUFFER.getInt(body); e != 0; e--)
+			entry = CompoundEncoding.skip(BUFFER, entry);
+		return entry;
+	}
+
+}
@@ -17,9 +17,11 @@ package net.alexmack.compound.tag;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashSet;
 
 import net.alexmack.compound.Compound;
+import net.alexmack.compound.CompoundKey;
 
 /**
  * Provides methods for reading/writing {@link Compound} instances using
@@ -27,6 +29,45 @@ import net.alexmack.compound.Compound;
  */
 public class CompoundTagIO {
 
+	/**
+	 * A field marked with a {@link CompoundTag} annotation, along with
+	 * the {@link CompoundKey} under which it is stored.
+	 */
+	private static class TaggedField {
+		
+		private final Field FIELD;
+		private final CompoundTag TAG;
+		private final CompoundKey KEY;
+		
+		private TaggedField(Field f, CompoundTag t) {
+			FIELD = f;
+			TAG = t;
+			KEY = CompoundKey.of(t.id() + Long.toHexString(t.version()));
+		}
+		
+	}
+	
+	/**
+	 * {@link TaggedField}s of every class handled so far, kept with each class
+	 * so that it and its class loader may still be unloaded.
+	 */
+	private static final ClassValue<TaggedField[]> TAGGED_FIELDS = new ClassValue<TaggedField[]>(){
+		
+		@Override
+		protected TaggedField[] computeValue(Class<?> c) {
+			ArrayList<TaggedField> fields = new ArrayList<>();
+			for (Field field : findFields(c)) {
+				CompoundTag tag = findTag(field);
+				if (tag == null) continue;
+				
+				field.setAccessible(true);
+				fields.add(new TaggedField(field, tag));
+			}
+			return fields.toArray(new TaggedField[fields.size()]);
+		}
+		
+	};
+
 	/**
 	 * Writes fields marked with {@link CompoundTag} annotations
 	 * from the given {@link Object} into a {@link Compound}, which
@@ -38,16 +79,11 @@ public class CompoundTagIO {
 		try {
 			Compound compound = new Compound();
 			Class<? extends Object> objectClass = object.getClass();
-			for (Field field : findFields(objectClass)) {
-				field.setAccessible(true);
-				
-				CompoundTag tag = findTag(field);
-				if (tag == null) continue;
-				
+			for (TaggedField tagged : findTaggedFields(objectClass)) {
 				try {
-					compound.set(tag.id() + Long.toHexString(tag.version()), field.get(object));
+					compound.set(tagged.KEY, tagged.FIELD.get(object));
 				}catch (Exception e) {
-					if (!tag.ignoreProblems())
+					if (!tagged.TAG.ignoreProblems())
 						throw e;
 				}
 			}
@@ -68,16 +104,11 @@ public class CompoundTagIO {
 	public static void read(Object object, Compound compound) {
 		try {
 			Class<? extends Object> objectClass = object.getClass();
-			for (Field field : findFields(objectClass)) {
-				field.setAccessible(true);
-				
-				CompoundTag tag = findTag(field);
-				if (tag == null) continue;
-				
+			for (TaggedField tagged : findTaggedFields(objectClass)) {
 				try {
-					field.set(object, compound.get(tag.id() + Long.toHexString(tag.version())));
+					tagged.FIELD.set(object, compound.get(tagged.KEY));
 				}catch (Exception e) {
-					if (!tag.ignoreProblems())
+					if (!tagged.TAG.ignoreProblems())
 						throw e;
 				}
 			}
@@ -89,6 +120,10 @@ public class CompoundTagIO {
 		}
 	}
 	
+	private static TaggedField[] findTaggedFields(Class<? extends Object> c) {
+		return TAGGED_FIELDS.get(c);
+	}
+	
 	private static HashSet<Field> findFields(Class<? extends Object> c) {
 		HashSet<Field> fields = new HashSet<>();
 		for (Field f : c.getDeclaredFields())